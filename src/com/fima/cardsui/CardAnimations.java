@@ -0,0 +1,53 @@
+package com.fima.cardsui;
+
+import android.content.Context;
+import android.view.animation.Animation;
+import android.view.animation.AnimationSet;
+import android.view.animation.AnimationUtils;
+import android.view.animation.Interpolator;
+import android.view.animation.RotateAnimation;
+import android.view.animation.TranslateAnimation;
+
+/**
+ * Google Now style animation for cards entering the list.
+ * <p/>
+ * Running animations carry per view state so each card needs its own
+ *  instance, but they are built directly rather than parsed from xml for
+ *  every card. The interpolator is stateless and loaded only once.
+ */
+public class CardAnimations {
+    private static final long DURATION = 350;
+
+    private static Interpolator sRotateInterpolator;
+
+    private CardAnimations() { }
+
+    /**
+     * @return a new animation for a card entering the list
+     */
+    public static Animation newIncomingAnimation(Context context) {
+        if (sRotateInterpolator == null) {
+            sRotateInterpolator = AnimationUtils.loadInterpolator(context.getApplicationContext(),
+                    android.R.anim.anticipate_overshoot_interpolator);
+        }
+
+        AnimationSet set = new AnimationSet(false);
+
+        TranslateAnimation translate = new TranslateAnimation(
+                Animation.RELATIVE_TO_PARENT, 0.5f, Animation.RELATIVE_TO_SELF, 0f,
+                Animation.RELATIVE_TO_PARENT, 0.5f, Animation.RELATIVE_TO_SELF, 0f);
+        translate.setDuration(DURATION);
+        translate.setZAdjustment(Animation.ZORDER_BOTTOM);
+        translate.setFillBefore(true);
+        set.addAnimation(translate);
+
+        RotateAnimation rotate = new RotateAnimation(45f, 0f,
+                Animation.RELATIVE_TO_PARENT, -0.25f,
+                Animation.RELATIVE_TO_SELF, -0.5f);
+        rotate.setInterpolator(sRotateInterpolator);
+        rotate.setDuration(DURATION);
+        set.addAnimation(rotate);
+
+        return set;
+    }
+}
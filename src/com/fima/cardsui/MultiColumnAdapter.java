@@ -0,0 +1,138 @@
+package com.fima.cardsui;
+
+import android.content.Context;
+import android.database.DataSetObserver;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.LinearLayout;
+import com.jbirdvegas.mgerrit.R;
+
+/**
+ * Lays the stacks of a {@link StackAdapter} out in rows of several columns
+ *  so a multi-column grid can be shown in a recycling ListView.
+ * <p/>
+ * Rows are recycled by the ListView and the cells inside a recycled row
+ *  are handed back to the StackAdapter as convert views when their view
+ *  type matches, so only the rows on screen ever have views.
+ */
+public class MultiColumnAdapter extends BaseAdapter {
+
+    private final Context mContext;
+    private final StackAdapter mAdapter;
+    private int mColumnCount;
+
+    public MultiColumnAdapter(Context context, StackAdapter adapter, int columnCount) {
+        mContext = context;
+        mAdapter = adapter;
+        mColumnCount = Math.max(1, columnCount);
+        // Cards being dismissed change the stacks directly
+        mAdapter.registerDataSetObserver(new DataSetObserver() {
+            @Override
+            public void onChanged() {
+                notifyDataSetChanged();
+            }
+
+            @Override
+            public void onInvalidated() {
+                notifyDataSetInvalidated();
+            }
+        });
+    }
+
+    public int getColumnCount() {
+        return mColumnCount;
+    }
+
+    public void setColumnCount(int columnCount) {
+        columnCount = Math.max(1, columnCount);
+        if (columnCount != mColumnCount) {
+            mColumnCount = columnCount;
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * @return the row containing the stack at the given position
+     */
+    public int getRowForPosition(int position) {
+        return position / mColumnCount;
+    }
+
+    @Override
+    public int getCount() {
+        return (mAdapter.getCount() + mColumnCount - 1) / mColumnCount;
+    }
+
+    @Override
+    public Object getItem(int row) {
+        return row;
+    }
+
+    /**
+     * A row takes the id of its first stack, so the list stays anchored on
+     *  the same row when the cards are updated, as with a single column
+     */
+    @Override
+    public long getItemId(int row) {
+        return mAdapter.getItemId(row * mColumnCount);
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int row, View convertView, ViewGroup parent) {
+        LinearLayout rowView;
+        if (convertView instanceof LinearLayout) {
+            rowView = (LinearLayout) convertView;
+        } else {
+            rowView = new LinearLayout(mContext);
+            rowView.setOrientation(LinearLayout.HORIZONTAL);
+            rowView.setLayoutParams(new AbsListView.LayoutParams(
+                    AbsListView.LayoutParams.MATCH_PARENT,
+                    AbsListView.LayoutParams.WRAP_CONTENT));
+        }
+
+        int count = mAdapter.getCount();
+        for (int column = 0; column < mColumnCount; column++) {
+            int position = row * mColumnCount + column;
+            View old = column < rowView.getChildCount() ? rowView.getChildAt(column) : null;
+            View cell;
+            if (position < count) {
+                cell = mAdapter.getView(position, getConvertView(old, position), rowView);
+                cell.setTag(R.id.view_type, mAdapter.getItemViewType(position));
+                cell.setVisibility(View.VISIBLE);
+            } else {
+                // Keeps the last row's cells the same width as the others
+                cell = old != null ? old : new View(mContext);
+                cell.setVisibility(View.INVISIBLE);
+            }
+            cell.setLayoutParams(new LinearLayout.LayoutParams(
+                    0, LinearLayout.LayoutParams.WRAP_CONTENT, 1f));
+
+            if (cell != old) {
+                if (old != null) rowView.removeViewAt(column);
+                rowView.addView(cell, column);
+            }
+        }
+
+        // The column count may have shrunk since this row was last used
+        while (rowView.getChildCount() > mColumnCount) {
+            rowView.removeViewAt(rowView.getChildCount() - 1);
+        }
+        return rowView;
+    }
+
+    // A cell can only be reused for a stack of the same view type
+    private View getConvertView(View old, int position) {
+        if (old == null) return null;
+        int type = mAdapter.getItemViewType(position);
+        if (type == IGNORE_ITEM_VIEW_TYPE) return null;
+        Object oldType = old.getTag(R.id.view_type);
+        return oldType instanceof Integer && (Integer) oldType == type ? old : null;
+    }
+}
@@ -5,9 +5,12 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import com.fima.cardsui.objects.AbstractCard;
+import com.fima.cardsui.objects.Card;
 import com.fima.cardsui.objects.CardStack;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 public class StackAdapter extends BaseAdapter {
 
@@ -15,6 +18,11 @@ public class StackAdapter extends BaseAdapter {
     private ArrayList<AbstractCard> mStacks;
     private boolean mSwipeable;
 
+    // The view type count cannot change once set on a ListView
+    private static final int MAX_VIEW_TYPES = 8;
+    private static final Map<Class<? extends Card>, Integer> sViewTypes
+            = new HashMap<Class<? extends Card>, Integer>();
+
     public StackAdapter(Context context, ArrayList<AbstractCard> stacks,
                         boolean swipable) {
         mContext = context;
@@ -35,7 +43,40 @@ public class StackAdapter extends BaseAdapter {
 
     @Override
     public long getItemId(int position) {
-        return 0;
+        return getItem(position).getId();
+    }
+
+    /**
+     * Stacks kept when the cards are updated keep their ids, so the list
+     *  stays anchored on the same stack.
+     */
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return MAX_VIEW_TYPES;
+    }
+
+    /**
+     * Stacks holding a single recyclable card share a view type per card
+     *  class, everything else is never recycled.
+     */
+    @Override
+    public int getItemViewType(int position) {
+        CardStack stack = getItem(position);
+        if (!stack.isRecyclable()) return IGNORE_ITEM_VIEW_TYPE;
+
+        Class<? extends Card> cardClass = stack.getCardClass();
+        Integer type = sViewTypes.get(cardClass);
+        if (type == null) {
+            if (sViewTypes.size() >= MAX_VIEW_TYPES) return IGNORE_ITEM_VIEW_TYPE;
+            type = sViewTypes.size();
+            sViewTypes.put(cardClass, type);
+        }
+        return type;
     }
 
     @Override
@@ -44,23 +85,8 @@ public class StackAdapter extends BaseAdapter {
         stack.setAdapter(this);
         stack.setPosition(position);
 
-        // TODO: caching is not working well
-
-        // if (convertView != null) {
-        // CardStack tagStack = (CardStack) convertView.getTag();
-        // ArrayList<Card> tagCards = tagStack.getCards();
-        // ArrayList<Card> cards = stack.getCards();
-        // Card lastTagCard = tagCards.get(tagCards.size()-1);
-        // if (!lastTagCard.equals(cards.get(cards.size()-1))) {
-        // convertView = stack.getView(mContext);
-        // convertView.setTag(stack);
-        // }
-        // } else if (convertView == null) {
-        convertView = stack.getView(mContext, mSwipeable);
-        // convertView.setTag(stack);
-        // }
-
-        return convertView;
+        // Only recyclable stacks are handed back a convertView
+        return stack.getView(mContext, convertView, mSwipeable);
     }
 
     public void setItems(ArrayList<AbstractCard> stacks) {
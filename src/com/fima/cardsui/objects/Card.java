@@ -8,6 +8,7 @@ import android.widget.FrameLayout;
 import android.widget.LinearLayout;
 import com.fima.cardsui.Utils;
 import com.jbirdvegas.mgerrit.R;
+import com.jbirdvegas.mgerrit.helpers.FrameMonitor;
 
 public abstract class Card extends AbstractCard {
 
@@ -30,6 +31,8 @@ public abstract class Card extends AbstractCard {
     private OnCardSwiped onCardSwipedListener;
     private OnClickListener mListener;
     protected View mCardLayout;
+    // Set once the card has been on screen, so it only animates in once
+    private boolean mShown;
 
     public Card() {
 
@@ -72,7 +75,7 @@ public abstract class Card extends AbstractCard {
         mCardLayout = view;
         try {
             ((FrameLayout) view.findViewById(R.id.cardContent))
-                    .addView(getCardContent(context));
+                    .addView(createCardContent(context));
         } catch (NullPointerException e) {
             e.printStackTrace();
         }
@@ -104,7 +107,7 @@ public abstract class Card extends AbstractCard {
 
         try {
             ((FrameLayout) view.findViewById(R.id.cardContent))
-                    .addView(getCardContent(context));
+                    .addView(createCardContent(context));
         } catch (NullPointerException e) {
             e.printStackTrace();
         }
@@ -131,7 +134,7 @@ public abstract class Card extends AbstractCard {
 
         try {
             ((FrameLayout) view.findViewById(R.id.cardContent))
-                    .addView(getCardContent(context));
+                    .addView(createCardContent(context));
         } catch (NullPointerException e) {
             e.printStackTrace();
         }
@@ -151,6 +154,99 @@ public abstract class Card extends AbstractCard {
 
     public abstract View getCardContent(Context context);
 
+    /**
+     * Cards that can have their views recycled by the StackAdapter must
+     *  return true here and split getCardContent into newCardContent and
+     *  bindCardContent. All cards of the same class must share one layout.
+     */
+    public boolean isRecyclable() {
+        return false;
+    }
+
+    /**
+     * Inflate this card's content without filling in any data. Only called
+     *  for recyclable cards.
+     */
+    public View newCardContent(Context context) {
+        return getCardContent(context);
+    }
+
+    /**
+     * Fill in a content view previously created by newCardContent, possibly
+     *  for a different card of the same class. Only called for recyclable cards.
+     */
+    public void bindCardContent(Context context, View content) {
+    }
+
+    /**
+     * Reuse a card view (as created by getViewLast) for this card, only
+     *  the data is rebound.
+     */
+    public View rebindViewLast(Context context, View cardView) {
+        mCardLayout = cardView;
+        View content = ((FrameLayout) cardView.findViewById(R.id.cardContent)).getChildAt(0);
+        if (FrameMonitor.isEnabled()) {
+            long start = System.nanoTime();
+            bindCardContent(context, content);
+            FrameMonitor.recordBind(getClass().getSimpleName(), System.nanoTime() - start);
+        } else {
+            bindCardContent(context, content);
+        }
+        return cardView;
+    }
+
+    // getCardContent, timed per card type when frame metrics are enabled
+    private View createCardContent(Context context) {
+        if (!FrameMonitor.isEnabled()) return getCardContent(context);
+        long start = System.nanoTime();
+        View content = getCardContent(context);
+        FrameMonitor.recordBind(getClass().getSimpleName(), System.nanoTime() - start);
+        return content;
+    }
+
+    /**
+     * Identifies the item this card shows, so the card for the same item can
+     *  be found again when the cards are updated. Null if it cannot be.
+     */
+    public Object getKey() {
+        return null;
+    }
+
+    /**
+     * @return true if the other card, for the item with the same key, would
+     *  show exactly what this card shows, so this card can be kept instead.
+     */
+    public boolean hasSameContent(Card other) {
+        return false;
+    }
+
+    /**
+     * Called when this card takes the place of a card showing the same
+     *  item, it is not animated in again if the previous card was shown.
+     */
+    public void replaces(Card previous) {
+        mShown = previous.mShown;
+    }
+
+    /**
+     * Record that this card is being shown
+     *
+     * @return true if this is the first time
+     */
+    boolean markShown() {
+        if (mShown) return false;
+        mShown = true;
+        return true;
+    }
+
+    /**
+     * Drop the reference to this card's last inflated layout once the list
+     *  no longer holds it, it is bound again when the card is shown.
+     */
+    public void releaseCardLayout() {
+        mCardLayout = null;
+    }
+
     public OnClickListener getClickListener() {
         return mListener;
     }
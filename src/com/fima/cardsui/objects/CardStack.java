@@ -7,10 +7,9 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
-import android.view.animation.Animation;
-import android.view.animation.AnimationUtils;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
+import com.fima.cardsui.CardAnimations;
 import com.fima.cardsui.StackAdapter;
 import com.fima.cardsui.SwipeDismissTouchListener;
 import com.fima.cardsui.SwipeDismissTouchListener.OnDismissCallback;
@@ -34,10 +33,18 @@ public class CardStack extends AbstractCard {
     private int mPosition;
     private Context mContext;
     private CardStack mStack;
+    // Stays the same for as long as this stack is shown, see StackAdapter#getItemId
+    private final long mId;
+    private static long sNextId = 0;
 
     public CardStack() {
         cards = new ArrayList<Card>();
         mStack = this;
+        mId = sNextId++;
+    }
+
+    public long getId() {
+        return mId;
     }
 
     public ArrayList<Card> getCards() {
@@ -66,11 +73,7 @@ public class CardStack extends AbstractCard {
                 .findViewById(R.id.stackContainer);
         final TextView title = (TextView) view.findViewById(R.id.stackTitle);
 
-        if (!TextUtils.isEmpty(this.title)) {
-            title.setTextColor(Color.parseColor(stackTitleColor));
-            title.setText(this.title);
-            title.setVisibility(View.VISIBLE);
-        }
+        bindTitle(title);
 
         final int cardsArraySize = cards.size();
         final int lastCardPosition = cardsArraySize - 1;
@@ -80,16 +83,9 @@ public class CardStack extends AbstractCard {
         for (int i = 0; i < cardsArraySize; i++) {
             card = cards.get(i);
             cardView = null;
-            RelativeLayout.LayoutParams lp = new RelativeLayout.LayoutParams(
-                    RelativeLayout.LayoutParams.MATCH_PARENT,
-                    RelativeLayout.LayoutParams.WRAP_CONTENT);
-
-            int topPx = 0;
-            Animation anim = AnimationUtils.loadAnimation(context, R.anim.cards_incoming_anim);
             if (lastCardPosition == i) {
                 // last card
                 cardView = card.getViewLast(context);
-                cardView.setOnClickListener(card.getClickListener());
             } else {
                 if (0 == i) {
                     // first card
@@ -100,48 +96,156 @@ public class CardStack extends AbstractCard {
                     cardView = card.getView(context);
 
                 }
-                cardView.setOnClickListener(getClickListener(this, container, i));
             }
 
-            // if user wants animations
-            if (Prefs.getAnimationPreference(context)) {
-                // add Google Now style animation
-                cardView.startAnimation(anim);
-            }
+            bindCardView(context, container, card, cardView, i, lastCardPosition);
 
-            if (i > 0) {
-                float dp = (_45F * i) - _12F;
-                topPx = Utils.convertDpToPixelInt(context, dp);
-            }
+            container.addView(cardView);
+        }
 
-            lp.setMargins(0, topPx, 0, 0);
+        if (isRecyclable()) {
+            view.setTag(new ViewHolder(title, container.getChildAt(0), cards.get(0)));
+        }
 
-            cardView.setLayoutParams(lp);
+        return view;
+    }
+
+    /**
+     * Get a view for this stack, reusing convertView if it was created for a
+     *  stack holding a single card of the same class. Only the card's data
+     *  is rebound in that case, and nothing at all if convertView is still
+     *  showing this very card.
+     */
+    public View getView(Context context, View convertView, boolean swipable) {
+        if (convertView == null || !isRecyclable()
+                || !(convertView.getTag() instanceof ViewHolder)) {
+            return getView(context, swipable);
+        }
 
-            if (card.isSwipable()) {
-                cardView.setOnTouchListener(new SwipeDismissTouchListener(
-                        cardView, card, new OnDismissCallback() {
+        ViewHolder holder = (ViewHolder) convertView.getTag();
+        Card card = cards.get(0);
+        if (holder.cardClass != card.getClass()) {
+            return getView(context, swipable);
+        }
 
-                    @Override
-                    public void onDismiss(View view, Object token) {
-                        Card c = (Card) token;
-                        // call onCardSwiped() listener
-                        c.OnSwipeCard();
-                        cards.remove(c);
+        mContext = context;
+        bindTitle(holder.title);
+        if (holder.card == card) return convertView;
+
+        card.rebindViewLast(context, holder.cardView);
+        bindCardView(context, (RelativeLayout) holder.cardView.getParent(),
+                card, holder.cardView, 0, 0);
+        holder.card = card;
+        return convertView;
+    }
 
-                        mAdapter.setItems(mStack, getPosition());
+    /**
+     * @return true if the views of this stack can be recycled, which is
+     *  only supported for stacks holding a single recyclable card
+     */
+    public boolean isRecyclable() {
+        return cards.size() == 1 && cards.get(0).isRecyclable();
+    }
 
-                        // refresh();
-                        mAdapter.notifyDataSetChanged();
+    /**
+     * @return the class of the only card in a recyclable stack
+     */
+    public Class<? extends Card> getCardClass() {
+        return cards.get(0).getClass();
+    }
 
-                    }
-                }));
+    private void bindTitle(TextView title) {
+        if (!TextUtils.isEmpty(this.title)) {
+            if (stackTitleColor != null) {
+                title.setTextColor(Color.parseColor(stackTitleColor));
+            } else {
+                // A recycled view may still have another stack's colour
+                title.setTextColor(title.getResources().getColor(R.color.card_title_text));
             }
+            title.setText(this.title);
+            title.setVisibility(View.VISIBLE);
+        } else {
+            title.setVisibility(View.GONE);
+        }
+    }
 
-            container.addView(cardView);
+    // Listeners, position and animation for a card view that is either new or recycled
+    private void bindCardView(Context context, RelativeLayout container, Card card,
+                              View cardView, int i, int lastCardPosition) {
+        RelativeLayout.LayoutParams lp = new RelativeLayout.LayoutParams(
+                RelativeLayout.LayoutParams.MATCH_PARENT,
+                RelativeLayout.LayoutParams.WRAP_CONTENT);
+
+        int topPx = 0;
+        if (lastCardPosition == i) {
+            cardView.setOnClickListener(card.getClickListener());
+        } else {
+            cardView.setOnClickListener(getClickListener(this, container, i));
         }
 
-        return view;
+        // if user wants animations, only run them the first time a card is
+        // shown and never when its view is just being rebound
+        if (card.markShown() && Prefs.getAnimationPreference(context)) {
+            // add Google Now style animation
+            cardView.startAnimation(CardAnimations.newIncomingAnimation(context));
+        } else if (cardView.getAnimation() != null) {
+            // a recycled view may still be running the previous card's animation
+            cardView.clearAnimation();
+        }
+
+        if (i > 0) {
+            float dp = (_45F * i) - _12F;
+            topPx = Utils.convertDpToPixelInt(context, dp);
+        }
+
+        lp.setMargins(0, topPx, 0, 0);
+
+        cardView.setLayoutParams(lp);
+
+        if (card.isSwipable()) {
+            cardView.setOnTouchListener(new SwipeDismissTouchListener(
+                    cardView, card, new OnDismissCallback() {
+
+                @Override
+                public void onDismiss(View view, Object token) {
+                    Card c = (Card) token;
+                    // call onCardSwiped() listener
+                    c.OnSwipeCard();
+                    cards.remove(c);
+
+                    mAdapter.setItems(mStack, getPosition());
+
+                    // refresh();
+                    mAdapter.notifyDataSetChanged();
+
+                }
+            }));
+        } else {
+            cardView.setOnTouchListener(null);
+        }
+    }
+
+    // Views of a recyclable stack, which only ever holds one card
+    private static class ViewHolder {
+        final TextView title;
+        final View cardView;
+        final Class<? extends Card> cardClass;
+        // The card last bound to cardView
+        Card card;
+
+        ViewHolder(TextView title, View cardView, Card card) {
+            this.title = title;
+            this.cardView = cardView;
+            this.cardClass = card.getClass();
+            this.card = card;
+        }
+    }
+
+    /**
+     * Put a card in place of the one at the given index
+     */
+    public void set(int index, Card card) {
+        cards.set(index, card);
     }
 
     public Card remove(int index) {
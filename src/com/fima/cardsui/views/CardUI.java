@@ -2,7 +2,7 @@ package com.fima.cardsui.views;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.os.AsyncTask;
+import android.content.res.TypedArray;
 import android.os.Build;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
@@ -13,18 +13,22 @@ import android.view.animation.TranslateAnimation;
 import android.widget.AbsListView;
 import android.widget.AbsListView.OnScrollListener;
 import android.widget.FrameLayout;
-import android.widget.Space;
-import android.widget.TableLayout;
-import android.widget.TableRow;
+import com.fima.cardsui.MultiColumnAdapter;
 import com.fima.cardsui.StackAdapter;
 import com.fima.cardsui.objects.AbstractCard;
 import com.fima.cardsui.objects.Card;
 import com.fima.cardsui.objects.CardStack;
 import com.jbirdvegas.mgerrit.R;
+import com.jbirdvegas.mgerrit.caches.CacheCoordinator;
+import com.jbirdvegas.mgerrit.helpers.FrameMonitor;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
-public class CardUI extends FrameLayout {
+public class CardUI extends FrameLayout implements CacheCoordinator.TrimmableCache {
 
     /**
      * Constants
@@ -49,13 +53,14 @@ public class CardUI extends FrameLayout {
     private Context mContext;
     private ViewGroup mQuickReturnView;
     /**
-     * The table layout to be used for multiple columns
+     * The maximum number of columns, 1 by default. Fewer columns are shown
+     *  when the view is too narrow for them.
      */
-    private TableLayout mTableLayout;
+    private int mColumnNumber = 1;
     /**
-     * The number of columns, 1 by default
+     * Lays out the stacks in rows when there is more than one column
      */
-    private int mColumnNumber = 1;
+    private MultiColumnAdapter mColumnAdapter;
     private View mPlaceholderView;
     private QuickReturnListView mListView;
     private int mMinRawY = 0;
@@ -69,14 +74,17 @@ public class CardUI extends FrameLayout {
     protected int mScrollY;
     private StackAdapter mAdapter;
     private View mHeader;
+    // Rough cost of a single inflated view, used to report freed memory
+    private static final int ESTIMATED_VIEW_BYTES = 512;
+    // What scrolling performance is reported under
+    private String mScreenName;
 
     /**
      * Constructor
      */
     public CardUI(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
-        //read the number of columns from the attributes
-        mColumnNumber = attrs.getAttributeIntValue(null, "columnCount", 1);
+        mColumnNumber = readColumnCount(context, attrs);
         initData(context);
     }
 
@@ -85,8 +93,7 @@ public class CardUI extends FrameLayout {
      */
     public CardUI(Context context, AttributeSet attrs) {
         super(context, attrs);
-        //read the number of columns from the attributes
-        mColumnNumber = attrs.getAttributeIntValue(null, "columnCount", 1);
+        mColumnNumber = readColumnCount(context, attrs);
         initData(context);
     }
 
@@ -95,30 +102,52 @@ public class CardUI extends FrameLayout {
      */
     public CardUI(Context context) {
         super(context);
+        mColumnNumber = readColumnCount(context, null);
         initData(context);
     }
 
+    /**
+     * @return the most columns to show: the app:columnCount attribute if
+     *  the layout sets it, otherwise what suits the screen size
+     */
+    private static int readColumnCount(Context context, AttributeSet attrs) {
+        int columns = context.getResources().getInteger(R.integer.cards_max_columns);
+        if (attrs == null) return columns;
+        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.CardUI);
+        columns = a.getInt(R.styleable.CardUI_columnCount, columns);
+        a.recycle();
+        return columns;
+    }
+
     private void initData(Context context) {
         mContext = context;
         LayoutInflater inflater = LayoutInflater.from(context);
         mStacks = new ArrayList<AbstractCard>();
 
-        //inflate a different layout, depending on the number of columns
-        if (mColumnNumber == 1) {
-            inflater.inflate(R.layout.cards_view, this);
-            // init observable scrollview
-            mListView = (QuickReturnListView) findViewById(R.id.listView);
+        // multiple columns are laid out as rows of the same list
+        inflater.inflate(R.layout.cards_view, this);
+        // init observable scrollview
+        mListView = (QuickReturnListView) findViewById(R.id.listView);
+        // replaced by setHeader, which reports scrolling as well
+        mListView.setOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem,
+                                 int visibleItemCount, int totalItemCount) {
+            }
 
-        } else {
-            //initialize the mulitcolumn view
-            inflater.inflate(R.layout.cards_view_multicolumn, this);
-            mTableLayout = (TableLayout) findViewById(R.id.tableLayout);
-        }
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                FrameMonitor.onScrollStateChanged(mScreenName, scrollState);
+            }
+        });
+        FrameMonitor.init(context);
+        mScreenName = context.getClass().getSimpleName();
 
         mHeader = inflater.inflate(R.layout.header, null);
         mQuickReturnView = (ViewGroup) findViewById(R.id.sticky);
         mPlaceholderView = mHeader.findViewById(R.id.placeholder);
 
+        CacheCoordinator.getInstance().register(this);
     }
 
     public void setSwipeable(boolean b) {
@@ -135,6 +164,7 @@ public class CardUI extends FrameLayout {
                     public void onGlobalLayout() {
 
                         mQuickReturnHeight = mQuickReturnView.getHeight();
+                        // Only picks up the rows just laid out, nothing is measured
                         mListView.computeScrollY();
                         mCachedVerticalScrollRange = mListView.getListHeight();
 
@@ -152,6 +182,8 @@ public class CardUI extends FrameLayout {
 
                 if (mListView.scrollYIsComputed()) {
                     mScrollY = mListView.getComputedScrollY();
+                    // Estimates for unseen rows improve as the list is scrolled
+                    mCachedVerticalScrollRange = mListView.getListHeight();
                 }
 
                 int rawY = mPlaceholderView.getTop()
@@ -211,6 +243,7 @@ public class CardUI extends FrameLayout {
 
             @Override
             public void onScrollStateChanged(AbsListView view, int scrollState) {
+                FrameMonitor.onScrollStateChanged(mScreenName, scrollState);
             }
         });
 
@@ -230,6 +263,7 @@ public class CardUI extends FrameLayout {
         try {
             // y = getY(pos);
 
+            if (mColumnAdapter != null) pos = mColumnAdapter.getRowForPosition(pos);
             mListView.smoothScrollToPosition(pos);
         } catch (Exception e) {
             e.printStackTrace();
@@ -302,16 +336,15 @@ public class CardUI extends FrameLayout {
 
     }
 
-    //suppress this error message to be able to use spaces in higher api levels
-    @SuppressLint("NewApi")
     public void refresh() {
         if (mAdapter == null) {
             mAdapter = new StackAdapter(mContext, mStacks, mSwipeable);
-            if (mListView != null) {
+            if (mColumnNumber > 1) {
+                mColumnAdapter = new MultiColumnAdapter(mContext, mAdapter,
+                        getFittingColumnCount(getWidth()));
+                mListView.setAdapter(mColumnAdapter);
+            } else {
                 mListView.setAdapter(mAdapter);
-            } else if (mTableLayout != null) {
-                //add as many cards as the number of columns indicates per row
-                new TableRowsWorkerThread().execute();
             }
         } else {
             mAdapter.setSwipeable(mSwipeable); // in case swipeable changed;
@@ -320,12 +353,92 @@ public class CardUI extends FrameLayout {
         ((FrameLayout) this.findViewById(R.id.layoutCardsView)).invalidate();
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        FrameMonitor.stopFrames(mScreenName);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (mColumnAdapter != null && w != oldw) {
+            mColumnAdapter.setColumnCount(getFittingColumnCount(w));
+        }
+    }
+
+    /**
+     * @return how many columns fit in the given width, never more than the
+     *  maximum (see {@link #readColumnCount}). Before the first layout the
+     *  maximum is used.
+     */
+    private int getFittingColumnCount(int width) {
+        if (width <= 0) return mColumnNumber;
+        int minWidth = getResources().getDimensionPixelSize(R.dimen.cards_min_column_width);
+        return Math.max(1, Math.min(mColumnNumber, width / minWidth));
+    }
+
     public void clearCards() {
         mStacks = new ArrayList<AbstractCard>(0);
         renderedCardsStacks = 0;
         refresh();
     }
 
+    /**
+     * Show the given cards, one per stack, in place of the current ones.
+     *  A card showing the same item (by {@link Card#getKey()}) or the very
+     *  same card is matched to the stack it is in now. That stack is kept as
+     *  it is if the content is the same, otherwise just its card is swapped.
+     *  Only new or changed cards are bound again and the list stays where it
+     *  was scrolled to.
+     *
+     * @return the number of cards that were added or changed
+     */
+    public int updateCards(List<? extends Card> cards) {
+        Map<Object, CardStack> byKey = new HashMap<Object, CardStack>();
+        Map<Card, CardStack> byCard = new IdentityHashMap<Card, CardStack>();
+        for (AbstractCard abstractCard : mStacks) {
+            if (!(abstractCard instanceof CardStack)) continue;
+            CardStack stack = (CardStack) abstractCard;
+            if (stack.getCards().size() != 1) continue;
+            Card card = stack.get(0);
+            byCard.put(card, stack);
+            if (card.getKey() != null) byKey.put(card.getKey(), stack);
+        }
+
+        int changed = 0;
+        ArrayList<AbstractCard> stacks = new ArrayList<AbstractCard>(cards.size());
+        for (Card card : cards) {
+            CardStack stack = byCard.remove(card);
+            if (stack == null && card.getKey() != null) {
+                stack = byKey.remove(card.getKey());
+                if (stack != null && byCard.remove(stack.get(0)) == null) {
+                    // Already taken by an identical card earlier on
+                    stack = null;
+                }
+            } else if (stack != null && byKey.get(card.getKey()) == stack) {
+                byKey.remove(card.getKey());
+            }
+
+            if (stack == null) {
+                stack = new CardStack();
+                stack.add(card);
+                changed++;
+            } else if (stack.get(0) != card && !stack.get(0).hasSameContent(card)) {
+                card.replaces(stack.get(0));
+                stack.set(0, card);
+                changed++;
+            }
+            stacks.add(stack);
+        }
+
+        // Keep the same list, the adapter holds on to it
+        mStacks.clear();
+        mStacks.addAll(stacks);
+        refresh();
+        return changed;
+    }
+
     public void setCurrentStackTitle(String title) {
         CardStack cardStack = (CardStack) mStacks
                 .get(getLastCardStackPosition());
@@ -333,72 +446,61 @@ public class CardUI extends FrameLayout {
 
     }
 
-    public OnRenderedListener getOnRenderedListener() {
-        return onRenderedListener;
-    }
-
-    public void setOnRenderedListener(OnRenderedListener onRenderedListener) {
-        this.onRenderedListener = onRenderedListener;
+    @Override
+    public int getTrimTier() {
+        return CacheCoordinator.TIER_VIEWS;
     }
 
     /**
-     * Generate cards in a worker thread.
+     * Drop every card view the list holds, the rows on screen as well as
+     *  those kept by its recycler, whatever the fraction: the recycler can
+     *  only be cleared as a whole. The rows on screen are bound again on
+     *  the next layout, at the same scroll position.
      */
-    private class TableRowsWorkerThread extends AsyncTask<Void, Void, Void> {
-        TableRow mTableRow = null;
-
-        @Override
-        protected void onPreExecute() {
-            super.onPreExecute();
+    @Override
+    public long trim(float fraction) {
+        if (mAdapter == null) return 0;
+        int first = mListView.getFirstVisiblePosition();
+        View top = mListView.getChildAt(0);
+        int offset = top == null ? 0 : top.getTop();
+
+        List<View> held = new ArrayList<View>();
+        mListView.reclaimViews(held);
+        // Resetting the adapter is what empties the recycler
+        mListView.setAdapter(mColumnAdapter != null ? mColumnAdapter : mAdapter);
+        mListView.setSelectionFromTop(first, offset);
+
+        // Nothing is on screen until the next layout, so no card layout is in use
+        for (AbstractCard abstractCard : mStacks) {
+            if (!(abstractCard instanceof CardStack)) continue;
+            for (Card card : ((CardStack) abstractCard).getCards()) {
+                card.releaseCardLayout();
+            }
+        }
 
+        long views = 0;
+        for (View view : held) {
+            views += countViews(view);
         }
+        return views * ESTIMATED_VIEW_BYTES;
+    }
 
-        @Override
-        protected Void doInBackground(Void... unused) {
-            for (int i = 0; i < mAdapter.getCount(); i += mColumnNumber) {
-                //add a new table row with the current context
-                mTableRow = (TableRow) new TableRow(mTableLayout.getContext());
-                mTableRow.setOrientation(TableRow.HORIZONTAL);
-                mTableRow.setLayoutParams(
-                        new TableRow.LayoutParams(TableRow.LayoutParams.MATCH_PARENT,
-                                TableRow.LayoutParams.WRAP_CONTENT));
-                for (int j = 0; j < mColumnNumber; j++) {
-                    if (i + j < mAdapter.getCount()) {
-                        View card = mAdapter.getView(i + j, null, mTableRow);
-                        if (card.getLayoutParams() != null) {
-                            card.setLayoutParams(
-                                    new TableRow.LayoutParams(
-                                            card.getLayoutParams().width,
-                                            card.getLayoutParams().height, 1f));
-                        } else {
-                            card.setLayoutParams(
-                                    new TableRow.LayoutParams(
-                                            TableRow.LayoutParams.MATCH_PARENT,
-                                            TableRow.LayoutParams.WRAP_CONTENT, 1f));
-                        }
-                        mTableRow.addView(card);
-                    }
-                }
-            }
-            mTableLayout.addView(mTableRow);
-            if (mTableRow != null) {
-                //fill the empty space with spacers
-                for (int j = mAdapter.getCount() % mColumnNumber; j > 0; j--) {
-                    View space = null;
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-                        space = new Space(mTableRow.getContext());
-                    } else {
-                        space = new View(mTableRow.getContext());
-                    }
-                    space.setLayoutParams(
-                            new TableRow.LayoutParams(
-                                    TableRow.LayoutParams.MATCH_PARENT,
-                                    TableRow.LayoutParams.WRAP_CONTENT, 1f));
-                    mTableRow.addView(space);
-                }
-                mTableLayout.addView(mTableRow);
+    private static int countViews(View view) {
+        int count = 1;
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                count += countViews(group.getChildAt(i));
             }
-            return null;
         }
+        return count;
+    }
+
+    public OnRenderedListener getOnRenderedListener() {
+        return onRenderedListener;
+    }
+
+    public void setOnRenderedListener(OnRenderedListener onRenderedListener) {
+        this.onRenderedListener = onRenderedListener;
     }
 }
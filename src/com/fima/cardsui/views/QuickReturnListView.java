@@ -1,16 +1,53 @@
 package com.fima.cardsui.views;
 
 import android.content.Context;
+import android.database.DataSetObserver;
 import android.util.AttributeSet;
 import android.view.View;
+import android.widget.ListAdapter;
 import android.widget.ListView;
 
+import java.util.Arrays;
+
+/**
+ * ListView which keeps track of its absolute scroll position for the
+ *  quick return header.
+ * <p/>
+ * Row heights are recorded as rows are laid out, rows that have not been
+ *  seen yet are estimated from the average of those that have. Offsets are
+ *  kept as prefix sums and only recomputed from the first row whose height
+ *  changed, so no row is ever inflated or measured just for this.
+ */
 public class QuickReturnListView extends ListView {
 
+    // Used until at least one row has been laid out
+    private static final int DEFAULT_ROW_HEIGHT = 200;
+
     private int mItemCount;
-    private int mItemOffsetY[];
+    // Height of each row or 0 if it has not been laid out yet
+    private int[] mHeights = new int[0];
+    // mOffsets[i] is the top of row i, mOffsets[mItemCount] the list height
+    private int[] mOffsets = new int[1];
+    // Offsets from this row onwards are out of date
+    private int mDirtyFrom;
+    private long mKnownTotal;
+    private int mKnownCount;
+    private int mEstimate = DEFAULT_ROW_HEIGHT;
     private boolean scrollIsComputed = false;
-    private int mHeight;
+
+    private ListAdapter mObservedAdapter;
+    private final DataSetObserver mObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            // Rows may have moved, so recorded heights no longer line up
+            reset();
+        }
+
+        @Override
+        public void onInvalidated() {
+            reset();
+        }
+    };
 
     public QuickReturnListView(Context context) {
         super(context);
@@ -20,30 +57,39 @@ public class QuickReturnListView extends ListView {
         super(context, attrs);
     }
 
+    @Override
+    public void setAdapter(ListAdapter adapter) {
+        if (mObservedAdapter != null) {
+            mObservedAdapter.unregisterDataSetObserver(mObserver);
+        }
+        super.setAdapter(adapter);
+        // Observe the adapter as wrapped by the ListView so the count matches
+        mObservedAdapter = getAdapter();
+        if (mObservedAdapter != null) {
+            mObservedAdapter.registerDataSetObserver(mObserver);
+        }
+        reset();
+    }
+
+    @Override
+    protected void layoutChildren() {
+        super.layoutChildren();
+        recordVisibleHeights();
+    }
+
     public int getListHeight() {
-        return mHeight;
+        updateOffsets();
+        return mOffsets[mItemCount];
     }
 
+    /**
+     * Bring the index up to date with the rows currently on screen. This
+     *  is cheap; only laid out rows are looked at.
+     */
     public void computeScrollY() {
-        mHeight = 0;
-        try {
-            mItemCount = getAdapter().getCount();
-            if (mItemOffsetY == null) {
-                mItemOffsetY = new int[mItemCount];
-            }
-            for (int i = 0; i < mItemCount; ++i) {
-                View view = getAdapter().getView(i, null, this);
-                view.measure(
-                        MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED),
-                        MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
-                mItemOffsetY[i] = mHeight;
-                mHeight += view.getMeasuredHeight();
-            }
-            scrollIsComputed = true;
-        } catch (NullPointerException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
+        if (getAdapter() == null) return;
+        recordVisibleHeights();
+        scrollIsComputed = true;
     }
 
     public boolean scrollYIsComputed() {
@@ -51,12 +97,99 @@ public class QuickReturnListView extends ListView {
     }
 
     public int getComputedScrollY() {
-        int pos, nScrollY, nItemY;
-        View view = null;
-        pos = getFirstVisiblePosition();
-        view = getChildAt(0);
-        nItemY = view.getTop();
-        nScrollY = mItemOffsetY[pos] - nItemY;
-        return nScrollY;
-    }
-}
\ No newline at end of file
+        View view = getChildAt(0);
+        if (view == null) return 0;
+        int pos = getFirstVisiblePosition();
+        recordVisibleHeights();
+        updateOffsets();
+        if (pos > mItemCount) pos = mItemCount;
+        return mOffsets[pos] - view.getTop();
+    }
+
+    private void reset() {
+        mItemCount = 0;
+        mDirtyFrom = 0;
+        mKnownTotal = 0;
+        mKnownCount = 0;
+        Arrays.fill(mHeights, 0);
+        // The average is kept as the estimate for the new rows
+        ensureCount();
+    }
+
+    // Grow the arrays if the adapter has more rows than last time
+    private void ensureCount() {
+        ListAdapter adapter = getAdapter();
+        int count = adapter == null ? 0 : adapter.getCount();
+        if (count > mHeights.length) {
+            int capacity = Math.max(count, mHeights.length * 3 / 2 + 1);
+            mHeights = Arrays.copyOf(mHeights, capacity);
+            mOffsets = Arrays.copyOf(mOffsets, capacity + 1);
+        }
+        if (count != mItemCount) {
+            for (int i = count; i < mItemCount; i++) {
+                forget(i);
+            }
+            mDirtyFrom = Math.min(mDirtyFrom, Math.min(count, mItemCount));
+            mItemCount = count;
+        }
+    }
+
+    private void forget(int position) {
+        if (mHeights[position] > 0) {
+            mKnownTotal -= mHeights[position];
+            mKnownCount--;
+            mHeights[position] = 0;
+        }
+    }
+
+    private void recordVisibleHeights() {
+        ensureCount();
+        int first = getFirstVisiblePosition();
+        int childCount = getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            int position = first + i;
+            if (position >= mItemCount) break;
+            int height = getChildAt(i).getHeight();
+            if (height <= 0 || height == mHeights[position]) continue;
+
+            if (mHeights[position] > 0) {
+                mKnownTotal -= mHeights[position];
+            } else {
+                mKnownCount++;
+            }
+            mHeights[position] = height;
+            mKnownTotal += height;
+            mDirtyFrom = Math.min(mDirtyFrom, position);
+        }
+
+        if (mKnownCount > 0) {
+            int estimate = (int) (mKnownTotal / mKnownCount);
+            if (estimate != mEstimate) {
+                mEstimate = estimate;
+                // Every unseen row may be affected, start from the first one
+                for (int i = 0; i < mDirtyFrom; i++) {
+                    if (mHeights[i] == 0) {
+                        mDirtyFrom = i;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // Recompute prefix sums from the first row that changed
+    private void updateOffsets() {
+        ensureCount();
+        if (mDirtyFrom >= mItemCount) {
+            mDirtyFrom = mItemCount;
+            return;
+        }
+        int offset = mOffsets[mDirtyFrom];
+        for (int i = mDirtyFrom; i < mItemCount; i++) {
+            mOffsets[i] = offset;
+            offset += mHeights[i] > 0 ? mHeights[i] : mEstimate;
+        }
+        mOffsets[mItemCount] = offset;
+        mDirtyFrom = mItemCount;
+    }
+}
@@ -20,19 +20,22 @@ package com.jbirdvegas.mgerrit;
 import android.content.Context;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.TextView;
 import android.widget.Toast;
 import com.android.volley.RequestQueue;
-import com.android.volley.toolbox.Volley;
 import com.fima.cardsui.objects.Card;
 import com.fima.cardsui.objects.CardStack;
 import com.fima.cardsui.views.CardUI;
+import com.jbirdvegas.mgerrit.caches.ChangeListCache;
 import com.jbirdvegas.mgerrit.cards.CommitCard;
 import com.jbirdvegas.mgerrit.cards.ImageCard;
 import com.jbirdvegas.mgerrit.cards.ProjectCard;
+import com.jbirdvegas.mgerrit.helpers.StartupTrace;
 import com.jbirdvegas.mgerrit.objects.ChangeLogRange;
 import com.jbirdvegas.mgerrit.objects.CommitterObject;
 import com.jbirdvegas.mgerrit.objects.GerritURL;
@@ -44,12 +47,13 @@ import org.json.JSONObject;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 
-public abstract class CardsFragment extends Fragment {
-    private static final String KEY_STORED_CARDS = "storedCards";
+public abstract class CardsFragment extends Fragment
+        implements ChangeListModel.ChangeListListener {
     public static final String KEY_DEVELOPER = "committer_object";
     public static final String AT_SYMBOL = "@";
     public static final String KEY_OWNER = "owner";
@@ -74,8 +78,23 @@ public abstract class CardsFragment extends Fragment {
 
     CardUI mCards;
 
+    // Parsed query results shared between all the tabs
+    private ChangeListCache mChangeListCache;
+    // Tells the user how old the cached results being shown are
+    private TextView mFreshness;
+    // Cards shown above the results (stalked user, current project)
+    private List<Card> mHeaderCards = new ArrayList<Card>();
+    // Retained by the activity, holds the parsed results and running loads
+    private ChangeListModel mModel;
+    // The results currently drawn, null if nothing has been loaded yet
+    private ChangeListCache.Entry mShownEntry;
+    // The query whose results are on screen, kept when trimming the cache
+    private String mPinnedQuery;
+
     // Indicates that this fragment will need to be refreshed
     private boolean mIsDirty = false;
+    // Loading was put off until the first tab has been drawn
+    private boolean mLoadDeferred = false;
 
 
     // draws a stack of cards
@@ -93,14 +112,24 @@ public abstract class CardsFragment extends Fragment {
 
     // renders each card separately
     protected void drawCardsFromList(List<CommitCard> cards, CardUI cardUI) {
-        int count = 0;
-        for (int i = 0; cards.size() > i; i++) {
-            cardUI.addCard(cards.get(i));
-            count++;
-        }
+        drawCardsFromList(cards, cardUI, true);
+    }
+
+    /**
+     * Show the header cards followed by the given cards. Cards for changes
+     *  already on screen are matched up with the existing ones, so only new
+     *  or updated changes are bound again and the scroll position is kept.
+     */
+    private void drawCardsFromList(List<CommitCard> cards, CardUI cardUI, boolean announce) {
+        int count = cards.size();
+        List<Card> allCards = new ArrayList<Card>(mHeaderCards.size() + count);
+        allCards.addAll(mHeaderCards);
+        allCards.addAll(cards);
+        int changed = cardUI.updateCards(allCards);
+        if (CHATTY) Log.d(TAG, changed + " of " + allCards.size() + " cards added or changed");
 
         // Check if the fragment is attached to an activity
-        if (this.isAdded())
+        if (announce && this.isAdded())
         {
             Toast.makeText(mParent,
                     String.format(getString(R.string.found_cards_toast,
@@ -108,7 +137,7 @@ public abstract class CardsFragment extends Fragment {
                             (System.currentTimeMillis() - mTimerStart) / 1000)),
                     Toast.LENGTH_LONG).show();
         }
-        cardUI.refresh();
+        if (!cards.isEmpty()) StartupTrace.onCardsShown(cardUI);
     }
 
     @Override
@@ -120,30 +149,22 @@ public abstract class CardsFragment extends Fragment {
         setup();
     }
 
-    protected List<CommitCard> generateCardsList(String result) {
+    protected List<CommitCard> generateCardsList(List<JSONCommit> commits) {
         List<CommitCard> commitCardList = new LinkedList<CommitCard>();
-        try {
-            JSONArray jsonArray = new JSONArray(result);
-            int arraySize = jsonArray.length();
-            for (int i = 0; arraySize > i; i++) {
-                commitCardList.add(getCommitCard(jsonArray.getJSONObject(i),
-                        mParent.getApplicationContext()));
-            }
-        } catch (JSONException e) {
-            String url = mUrl.toString();
-            Log.d(TAG, new StringBuilder(0)
-                    .append(getString(R.string.failed_to_parse_json_response))
-                    .append(' ')
-                    .append(url)
-                    .append('\n')
-                    .append(result).toString(), e);
+        if (commits == null) return commitCardList;
+        for (JSONCommit commit : commits) {
+            commitCardList.add(getCommitCard(commit));
         }
         return commitCardList;
     }
 
     private CommitCard getCommitCard(JSONObject jsonObject, Context context) {
+        return getCommitCard(new JSONCommit(jsonObject, context));
+    }
+
+    private CommitCard getCommitCard(JSONCommit commit) {
         return new CommitCard(
-                new JSONCommit(jsonObject, context),
+                commit,
                 mParent.getCommitterObject(),
                 mRequestQueue,
                 this);
@@ -197,14 +218,16 @@ public abstract class CardsFragment extends Fragment {
         mTimerStart = System.currentTimeMillis();
         mCards = (CardUI) mCurrentFragment.findViewById(R.id.commit_cards);
         mCards.setSwipeable(true);
-        mRequestQueue = Volley.newRequestQueue(mParent);
+        mFreshness = (TextView) mCurrentFragment.findViewById(R.id.cards_freshness);
+        mChangeListCache = ChangeListCache.getInstance(mParent);
+        // Survives this fragment, so the queue and any running loads are reused
+        mModel = mParent.getChangeListModel();
+        mRequestQueue = mModel.getRequestQueue();
         // default to non author specific view
 
         mUrl = new GerritURL();
         mUrl.setRequestDetailedAccounts(true);
         mUrl.setStatus(getQuery());
-
-        if (savedInstanceState == null) saveCards("");
     }
 
     private void setup()
@@ -224,11 +247,11 @@ public abstract class CardsFragment extends Fragment {
                     && !userEmail.trim().isEmpty()
                     && userEmail.contains(AT_SYMBOL)) {
 
-                mCards.addCard(stalkUser(user));
+                addHeaderCard(stalkUser(user));
             }
         }
 
-        if (inProject) mCards.addCard(getProjectCard());
+        if (inProject) addHeaderCard(getProjectCard());
 
         try {
             mChangelogRange = mParent.getIntent()
@@ -243,7 +266,18 @@ public abstract class CardsFragment extends Fragment {
             if (DEBUG) Log.w(TAG, "Not making changelog");
         }
 
-        loadScreen();
+        if (getUserVisibleHint() || !StartupTrace.isTracing()) {
+            loadScreen(false);
+        } else {
+            // A neighbouring tab, don't compete with the one being shown
+            mLoadDeferred = true;
+            StartupTrace.runAfterFirstCard(new Runnable() {
+                @Override
+                public void run() {
+                    if (mLoadDeferred && getView() != null) loadScreen(false);
+                }
+            });
+        }
     }
 
     private void loadChangeLog(final ChangeLogRange logRange) {
@@ -252,7 +286,6 @@ public abstract class CardsFragment extends Fragment {
             @Override
             public void onJSONResult(String s)
             {
-                saveCards(s);
                 drawCardsFromList(
                         generateChangeLog(
                                 logRange, s),
@@ -316,64 +349,157 @@ public abstract class CardsFragment extends Fragment {
         return new ProjectCard(mParent, Prefs.getCurrentProject(mParent));
     }
 
-    private void loadScreen() {
+    private void addHeaderCard(Card card) {
+        mHeaderCards.add(card);
+        mCards.addCard(card);
+    }
+
+    /**
+     * Show the results of the current query. Results already held by the
+     *  model (or cache) are drawn immediately and, unless they are very
+     *  recent, revalidated in the background. The cards are only redrawn
+     *  if the results changed.
+     *
+     * @param force revalidate even if the results are recent
+     */
+    private void loadScreen(boolean force) {
+        mLoadDeferred = false;
         mTimerStart = System.currentTimeMillis();
         String url = mUrl.toString();
+        pinQuery(url);
+        mShownEntry = mModel.getResult(getQuery(), url);
+
+        if (mShownEntry != null) {
+            drawCardsFromList(generateCardsList(mShownEntry.getCommits()), mCards, false);
+            if (mShownEntry.isFresh() && !force && !mModel.isLoading(getQuery(), url)) {
+                showFreshness(null, 0);
+                return;
+            }
+            showFreshness(R.string.cached_results_refreshing, mShownEntry.getTimestamp());
+        } else {
+            mFreshness.setText(R.string.loading_changes);
+            mFreshness.setVisibility(View.VISIBLE);
+        }
+
         Log.d(TAG, "Calling mgerrit: " + url);
-        if (getStoredCards().equals(""))
-        {
-            new GerritTask(mParent) {
-                @Override
-                public void onJSONResult(String s) {
-                    saveCards(s);
-                    drawCardsFromList(generateCardsList(s), mCards);
-                }
-            }.execute(url);
+        // Hands over to a load still running from a previous instance of this tab
+        mModel.load(getQuery(), url, this);
+    }
+
+    @Override
+    public void setUserVisibleHint(boolean isVisibleToUser) {
+        super.setUserVisibleHint(isVisibleToUser);
+        // Selected before its deferred load got to run
+        if (isVisibleToUser && mLoadDeferred && getView() != null) loadScreen(false);
+    }
+
+    @Override
+    public void onChangeListLoaded(String query, ChangeListCache.Entry entry) {
+        if (!isAdded() || !query.equals(mUrl.toString())) return;
+
+        if (mShownEntry == null) {
+            // Results stored by a previous run, shown while the load completes
+            boolean refreshing = entry != null && mModel.isLoading(getQuery(), query);
+            if (refreshing) {
+                showFreshness(R.string.cached_results_refreshing, entry.getTimestamp());
+            } else {
+                showFreshness(null, 0);
+            }
+            if (entry == null) {
+                Toast.makeText(mParent, R.string.gerrit_call_failed, Toast.LENGTH_LONG).show();
+            }
+            drawCardsFromList(generateCardsList(entry == null ? null : entry.getCommits()),
+                    mCards, !refreshing);
+        } else if (entry == null) {
+            showFreshness(R.string.cached_results_refresh_failed, mShownEntry.getTimestamp());
+            return;
+        } else {
+            showFreshness(null, 0);
+            if (!isSameResult(mShownEntry.getCommits(), entry.getCommits())) {
+                redrawCards(entry.getCommits());
+            }
         }
-        else
-            drawCardsFromList(generateCardsList(getStoredCards()), mCards);
+        mShownEntry = entry;
     }
 
     /**
-     * Each tab provides its own query for ?p=status:[open:merged:abandoned]
-     *
-     * @return current tab name used for query { open, merged, abandoned }
+     * @return true if both results list the same changes, in the same order,
+     *  with the same last updated time
      */
-    abstract String getQuery();
+    private static boolean isSameResult(List<JSONCommit> oldCommits, List<JSONCommit> newCommits) {
+        if (oldCommits.size() != newCommits.size()) return false;
+        for (int i = 0; i < oldCommits.size(); i++) {
+            JSONCommit oldCommit = oldCommits.get(i);
+            JSONCommit newCommit = newCommits.get(i);
+            if (!oldCommit.getId().equals(newCommit.getId())) return false;
+            String oldUpdated = oldCommit.getRawLastUpdatedDate();
+            if (oldUpdated == null || !oldUpdated.equals(newCommit.getRawLastUpdatedDate())) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-    private void saveCards(String jsonCards) {
-        /**
-         * This method needs some work as this saves the results for the current tab.
-         *  When either a new query is made (changing projects, (un)stalking a user, changing
-         *  Gerrit, switching tabs) these results can either expire or should not be used.
-         *
-         *  What needs to happen if caching is to be done like this is that the result of EVERY
-         *   different query performed needs to be saved and restored only if the current query matches
-         *   EXACTLY. Since there will likely be changes to the results, this option is not a
-         *   viable solution.
-         *
-         *   In the meantime, disable caching completely.
-         */
-        /*PreferenceManager.getDefaultSharedPreferences(mParent)
-                .edit()
-                .putString(KEY_STORED_CARDS, jsonCards)
-                .commit();*/
+    private void pinQuery(String query) {
+        if (query.equals(mPinnedQuery)) return;
+        if (mPinnedQuery != null) mChangeListCache.unpin(mPinnedQuery);
+        mChangeListCache.pin(query);
+        mPinnedQuery = query;
     }
 
-    private String getStoredCards() {
-        return "";
-        /* return PreferenceManager.getDefaultSharedPreferences(mParent)
-                .getString(KEY_STORED_CARDS, ""); */
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (mModel != null) mModel.detach(getQuery(), this);
+        if (mPinnedQuery != null) {
+            mChangeListCache.unpin(mPinnedQuery);
+            mPinnedQuery = null;
+        }
+    }
+
+    private void redrawCards(List<JSONCommit> commits) {
+        drawCardsFromList(generateCardsList(commits), mCards, false);
+    }
+
+    /**
+     * Update the freshness indicator
+     *
+     * @param message string resource taking the relative age of the results
+     *                or null to hide the indicator
+     * @param timestamp when the results being shown were fetched
+     */
+    private void showFreshness(Integer message, long timestamp) {
+        if (message == null) {
+            mFreshness.setVisibility(View.GONE);
+            return;
+        }
+        CharSequence age = DateUtils.getRelativeTimeSpanString(timestamp,
+                System.currentTimeMillis(), DateUtils.MINUTE_IN_MILLIS);
+        mFreshness.setText(getString(message, age));
+        mFreshness.setVisibility(View.VISIBLE);
     }
 
+    /**
+     * Each tab provides its own query for ?p=status:[open:merged:abandoned]
+     *
+     * @return current tab name used for query { open, merged, abandoned }
+     */
+    abstract String getQuery();
+
     protected void refresh()
     {
         if (!mIsDirty) return;
-        mCards.clearCards();
-
-        if (inProject) mCards.addCard(getProjectCard());
+        mHeaderCards.clear();
+        if (!mUrl.toString().equals(mPinnedQuery)) {
+            // Other results altogether, so there is nothing to keep
+            mCards.clearCards();
+            if (inProject) addHeaderCard(getProjectCard());
+        } else if (inProject) {
+            // Drawn along with the results
+            mHeaderCards.add(getProjectCard());
+        }
         mIsDirty = false;
-        loadScreen();
+        loadScreen(true);
     }
 
     public void markDirty() { mIsDirty = true; }
@@ -0,0 +1,336 @@
+package com.jbirdvegas.mgerrit;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
+import android.util.Log;
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.Volley;
+import com.jbirdvegas.mgerrit.caches.CacheCoordinator;
+import com.jbirdvegas.mgerrit.caches.ChangeListCache;
+import com.jbirdvegas.mgerrit.caches.ChangeListSnapshots;
+import com.jbirdvegas.mgerrit.helpers.StartupTrace;
+import com.jbirdvegas.mgerrit.helpers.TextPreparer;
+import com.jbirdvegas.mgerrit.objects.JSONCommit;
+import com.jbirdvegas.mgerrit.tasks.GerritTask;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Retained, UI-less fragment holding the change lists shown by each tab.
+ * <p/>
+ * It survives rotation and the tab fragments being destroyed by the
+ *  {@link android.support.v4.app.FragmentStatePagerAdapter}. A recreated
+ *  tab re-binds to the list it was showing and to any load that is still
+ *  running, so nothing is downloaded or parsed twice. Loads are parsed in
+ *  the background and use the application context, so they never hold on
+ *  to a destroyed activity.
+ */
+public class ChangeListModel extends Fragment implements CacheCoordinator.TrimmableCache {
+    public static final String TAG = ChangeListModel.class.getSimpleName();
+
+    public interface ChangeListListener {
+        /**
+         * Called on the main thread when a load finishes.
+         *
+         * @param query the query that was loaded
+         * @param entry the parsed results or null if the load failed
+         */
+        public void onChangeListLoaded(String query, ChangeListCache.Entry entry);
+    }
+
+    // What a single tab is showing
+    private static class TabState {
+        String mQuery;
+        ChangeListCache.Entry mEntry;
+        Load mLoad;
+        SnapshotLoad mSnapshotLoad;
+        ChangeListListener mListener;
+        // Card text for the last results being formatted in the background
+        TextPreparer.Batch mPreparing;
+    }
+
+    private final Map<String, TabState> mTabs = new HashMap<String, TabState>();
+    private Context mContext;
+    private RequestQueue mRequestQueue;
+    private ChangeListCache mCache;
+    private ChangeListSnapshots mSnapshots;
+
+    /**
+     * Find the model retained by this activity, creating it the first time.
+     */
+    public static ChangeListModel getInstance(FragmentActivity activity) {
+        FragmentManager fm = activity.getSupportFragmentManager();
+        ChangeListModel model = (ChangeListModel) fm.findFragmentByTag(TAG);
+        if (model == null) {
+            model = new ChangeListModel();
+            model.init(activity);
+            fm.beginTransaction().add(model, TAG).commit();
+        }
+        return model;
+    }
+
+    private void init(Context context) {
+        setRetainInstance(true);
+        mContext = context.getApplicationContext();
+        mRequestQueue = Volley.newRequestQueue(mContext);
+        mCache = ChangeListCache.getInstance(mContext);
+        mSnapshots = ChangeListSnapshots.getInstance(mContext);
+        CacheCoordinator.getInstance().register(this);
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        if (mContext == null) init(getActivity());
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        TextPreparer preparer = TextPreparer.getInstance(mContext);
+        for (TabState state : mTabs.values()) {
+            if (state.mLoad != null) state.mLoad.cancel(true);
+            if (state.mSnapshotLoad != null) state.mSnapshotLoad.cancel(true);
+            preparer.cancel(state.mPreparing);
+        }
+        mTabs.clear();
+        mRequestQueue.stop();
+        CacheCoordinator.getInstance().unregister(this);
+    }
+
+    /**
+     * @return a request queue shared by all the tabs
+     */
+    public RequestQueue getRequestQueue() {
+        return mRequestQueue;
+    }
+
+    private TabState getTabState(String tab) {
+        TabState state = mTabs.get(tab);
+        if (state == null) {
+            state = new TabState();
+            mTabs.put(tab, state);
+        }
+        return state;
+    }
+
+    /**
+     * Get the results already available for a query
+     *
+     * @param tab identifies the tab asking
+     * @param query the full query url
+     * @return the results last loaded for this query or null if there are none
+     */
+    public ChangeListCache.Entry getResult(String tab, String query) {
+        TabState state = getTabState(tab);
+        if (!query.equals(state.mQuery) || state.mEntry == null) {
+            state.mQuery = query;
+            state.mEntry = mCache.get(query);
+        }
+        return state.mEntry;
+    }
+
+    /**
+     * Load a query for a tab, the listener is told when it completes.
+     *  If this query is already being loaded for the tab the running load
+     *  is handed over to the listener instead of being restarted.
+     * <p/>
+     * If there are no results for the query in memory, the response stored
+     *  by a previous run is read as well and delivered to the listener
+     *  first, provided the load is still running by then.
+     */
+    public void load(String tab, String query, ChangeListListener listener) {
+        TabState state = getTabState(tab);
+        state.mListener = listener;
+        if (state.mLoad != null) {
+            if (query.equals(state.mQuery)) return;
+            state.mLoad.cancel(true);
+        }
+        if (state.mSnapshotLoad != null) {
+            state.mSnapshotLoad.cancel(true);
+            state.mSnapshotLoad = null;
+        }
+        state.mQuery = query;
+        state.mLoad = new Load(state, query);
+        state.mLoad.setQuiet(true);
+        state.mLoad.execute(query);
+
+        if (state.mEntry == null) {
+            state.mSnapshotLoad = new SnapshotLoad(state, query);
+            // Not queued behind the loads, which run one at a time
+            state.mSnapshotLoad.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    public boolean isLoading(String tab, String query) {
+        TabState state = mTabs.get(tab);
+        return state != null && state.mLoad != null && query.equals(state.mQuery);
+    }
+
+    /**
+     * Called when a tab's views are destroyed, results of any running load
+     *  are kept for when the tab is recreated.
+     */
+    public void detach(String tab, ChangeListListener listener) {
+        TabState state = mTabs.get(tab);
+        if (state != null && state.mListener == listener) state.mListener = null;
+    }
+
+    @Override
+    public int getTrimTier() {
+        return CacheCoordinator.TIER_PARSED;
+    }
+
+    /**
+     * Drop the results held for tabs which are not on screen. They stay
+     *  in the {@link ChangeListCache} unless it is trimmed as well.
+     */
+    @Override
+    public long trim(float fraction) {
+        List<TabState> offscreen = new ArrayList<TabState>();
+        for (TabState state : mTabs.values()) {
+            if (state.mListener == null && state.mEntry != null) offscreen.add(state);
+        }
+
+        int toRelease = fraction >= 1f ? offscreen.size() : (int) (offscreen.size() * fraction);
+        long freed = 0;
+        for (int i = 0; i < toRelease; i++) {
+            TabState state = offscreen.get(i);
+            if (!mCache.holds(state.mEntry)) freed += state.mEntry.getBytes();
+            state.mEntry = null;
+        }
+        return freed;
+    }
+
+    private class Load extends GerritTask {
+        private final TabState mState;
+        private final String mQuery;
+        private List<JSONCommit> mCommits;
+
+        Load(TabState state, String query) {
+            super(mContext);
+            mState = state;
+            mQuery = query;
+        }
+
+        @Override
+        protected String doInBackground(String... strings) {
+            String result = super.doInBackground(strings);
+            if (getException() == null && !isCancelled()) {
+                mCommits = parseCommits(mQuery, result);
+                if (mCommits != null) mSnapshots.write(mQuery, result);
+            }
+            return result;
+        }
+
+        @Override
+        public void onJSONResult(String jsonString) {
+            if (mState.mLoad == this) mState.mLoad = null;
+            if (mState.mSnapshotLoad != null) {
+                mState.mSnapshotLoad.cancel(true);
+                mState.mSnapshotLoad = null;
+            }
+            ChangeListCache.Entry entry = null;
+            if (mCommits != null) {
+                // Parsed objects take up considerably more space than their source
+                entry = mCache.put(mQuery, mCommits, jsonString.length() * 2);
+                if (mQuery.equals(mState.mQuery)) mState.mEntry = entry;
+                // The previous results are no longer shown by this tab
+                TextPreparer preparer = TextPreparer.getInstance(mContext);
+                preparer.cancel(mState.mPreparing);
+                mState.mPreparing = preparer.prepare(mCommits);
+            }
+            if (mState.mListener != null) {
+                mState.mListener.onChangeListLoaded(mQuery, entry);
+            }
+        }
+
+    }
+
+    /**
+     * Reads and parses the response stored for a query by a previous run
+     */
+    private class SnapshotLoad extends AsyncTask<Void, Void, List<JSONCommit>> {
+        private final TabState mState;
+        private final String mQuery;
+        private ChangeListSnapshots.Snapshot mSnapshot;
+
+        SnapshotLoad(TabState state, String query) {
+            mState = state;
+            mQuery = query;
+        }
+
+        @Override
+        protected List<JSONCommit> doInBackground(Void... voids) {
+            mSnapshot = mSnapshots.read(mQuery);
+            if (mSnapshot == null || isCancelled()) return null;
+            return parseCommits(mQuery, mSnapshot.getResponse());
+        }
+
+        @Override
+        protected void onPostExecute(List<JSONCommit> commits) {
+            if (mState.mSnapshotLoad != this) return;
+            mState.mSnapshotLoad = null;
+            // Only worth showing while the up to date results are on their way
+            if (commits == null || mState.mLoad == null || mState.mEntry != null
+                    || !mQuery.equals(mState.mQuery)) {
+                return;
+            }
+            StartupTrace.mark("snapshot_parsed");
+            mState.mEntry = mCache.restore(mQuery, commits,
+                    mSnapshot.getResponse().length() * 2, mSnapshot.getTimestamp());
+            TextPreparer preparer = TextPreparer.getInstance(mContext);
+            preparer.cancel(mState.mPreparing);
+            mState.mPreparing = preparer.prepare(mState.mEntry.getCommits());
+            if (mState.mListener != null) {
+                mState.mListener.onChangeListLoaded(mQuery, mState.mEntry);
+            }
+        }
+    }
+
+    private List<JSONCommit> parseCommits(String query, String result) {
+        try {
+            JSONArray jsonArray = new JSONArray(result);
+            int arraySize = jsonArray.length();
+            List<JSONCommit> commits = new ArrayList<JSONCommit>(arraySize);
+            for (int i = 0; arraySize > i; i++) {
+                commits.add(new JSONCommit(jsonArray.getJSONObject(i), mContext));
+            }
+            return commits;
+        } catch (JSONException e) {
+            Log.d(TAG, new StringBuilder(0)
+                    .append(mContext.getString(R.string.failed_to_parse_json_response))
+                    .append(' ')
+                    .append(query)
+                    .append('\n')
+                    .append(result).toString(), e);
+        }
+        return null;
+    }
+}
@@ -21,6 +21,7 @@ import android.app.ActionBar;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.AlertDialog.Builder;
+import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -39,21 +40,23 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
 import android.widget.Toast;
+import com.jbirdvegas.mgerrit.caches.CacheCoordinator;
+import com.jbirdvegas.mgerrit.caches.ProjectCatalogue;
+import com.jbirdvegas.mgerrit.helpers.FrameMonitor;
 import com.jbirdvegas.mgerrit.helpers.GerritTeamsHelper;
+import com.jbirdvegas.mgerrit.helpers.StartupTrace;
 import com.jbirdvegas.mgerrit.listeners.MyTabListener;
 import com.jbirdvegas.mgerrit.objects.CommitterObject;
 import com.jbirdvegas.mgerrit.objects.GerritURL;
 import com.jbirdvegas.mgerrit.objects.GooFileObject;
-import com.jbirdvegas.mgerrit.objects.JSONCommit;
 import com.jbirdvegas.mgerrit.objects.Project;
 import com.jbirdvegas.mgerrit.tasks.GerritTask;
 import com.jbirdvegas.mgerrit.widgets.AddTeamView;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -61,7 +64,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
@@ -80,6 +82,16 @@ public class GerritControllerActivity extends FragmentActivity {
      */
     private Set<GerritTask> mGerritTasks;
 
+    // Receives the stored and refreshed project catalogue for the picker
+    private ProjectCatalogue.CatalogueListener mCatalogueListener;
+    // The catalogue mCatalogueListener is registered with
+    private ProjectCatalogue mCatalogue;
+    private ProgressDialog mProjectsProgress;
+    private AlertDialog mProjectsDialog;
+
+    // Parsed change lists and running loads, retained across configuration changes
+    private ChangeListModel mChangeListModel;
+
     SharedPreferences mPrefs;
     SharedPreferences.OnSharedPreferenceChangeListener mListener;
 
@@ -99,8 +111,10 @@ public class GerritControllerActivity extends FragmentActivity {
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
+        StartupTrace.begin();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
+        StartupTrace.mark("content_view");
 
         if (!CardsFragment.mSkipStalking) {
             try {
@@ -114,8 +128,10 @@ public class GerritControllerActivity extends FragmentActivity {
         }
 
         // ensure we are not tracking a project unintentionally
-        if ("".equals(Prefs.getCurrentProject(this))) {
+        String project = Prefs.getCurrentProject(this);
+        if ("".equals(project)) {
             Prefs.setCurrentProject(this, null);
+            project = null;
         }
 
         try {
@@ -147,8 +163,10 @@ public class GerritControllerActivity extends FragmentActivity {
 
         /* Initially set the current Gerrit globally here.
          *  We can rely on callbacks to know when they change */
-        GerritURL.setGerrit(Prefs.getCurrentGerrit(this));
-        GerritURL.setProject(Prefs.getCurrentProject(this));
+        GerritURL.setGerrit(mGerritWebsite);
+        GerritURL.setProject(project);
+
+        mChangeListModel = ChangeListModel.getInstance(this);
 
         // Setup tabs //
         setupTabs();
@@ -156,6 +174,15 @@ public class GerritControllerActivity extends FragmentActivity {
         mTitles = new ArrayList<CharSequence>();
         for (int i = 0; i < mSectionsPagerAdapter.getCount(); i++)
             mTitles.add(mSectionsPagerAdapter.getPageTitle(i));
+        StartupTrace.mark("tabs_created");
+
+        // Not needed for the first cards
+        StartupTrace.runAfterFirstCard(new Runnable() {
+            @Override
+            public void run() {
+                ProjectCatalogue.preload(getApplicationContext(), mGerritWebsite);
+            }
+        });
     }
 
     /** MUST BE CALLED ON MAIN THREAD */
@@ -247,64 +274,120 @@ public class GerritControllerActivity extends FragmentActivity {
         }
     }
 
+    /**
+     * Show the project picker. The stored catalogue for the current Gerrit
+     *  instance is displayed straight away and swapped for the server's list
+     *  when a background refresh completes. A progress dialog is only shown
+     *  when there is nothing stored for this instance yet.
+     */
     private void getProjectsList() {
-        GerritTask gerritTask = new GerritTask(this)
-        {
+        if (mProjectsDialog != null) mProjectsDialog.dismiss();
+        removeCatalogueListener();
+
+        final ArrayAdapter<Project> projectsAdapter = new ArrayAdapter<Project>(this,
+                android.R.layout.simple_list_item_single_choice, new ArrayList<Project>());
+        final ProjectCatalogue catalogue = ProjectCatalogue.getInstance(this,
+                Prefs.getCurrentGerrit(this));
+
+        mCatalogue = catalogue;
+        mCatalogueListener = new ProjectCatalogue.CatalogueListener() {
+            private boolean mShown;
+
             @Override
-            public void onJSONResult(String jsonString)
-            {
-                try {
-                    JSONObject projectsJson = new JSONObject(jsonString);
-                    Iterator stringIterator = projectsJson.keys();
-                    List<Project> projectLinkedList
-                            = new LinkedList<Project>();
-                    while (stringIterator.hasNext()) {
-                        String path = (String) stringIterator.next();
-                        JSONObject projJson = projectsJson.getJSONObject(path);
-                        String kind = projJson.getString(JSONCommit.KEY_KIND);
-                        String id = projJson.getString(JSONCommit.KEY_ID);
-                        projectLinkedList.add(Project.getInstance(path, kind, id));
-                    }
-                    Collections.sort(projectLinkedList);
-                    ListView projectsList = new ListView(getThis());
-                    projectsList.setAdapter(new ArrayAdapter<Object>(getThis(),
-                            android.R.layout.simple_list_item_single_choice,
-                            projectLinkedList.toArray()));
-                    projectsList.setOnItemClickListener(new AdapterView.OnItemClickListener()
-                    {
-                        @Override
-                        public void onItemClick(AdapterView<?> adapterView, View view, int i, long l)
-                        {
-                            Project project = (Project) adapterView.getItemAtPosition(i);
-                            Prefs.setCurrentProject(GerritControllerActivity.this, project.getmPath());
-                            if (alertDialog != null) {
-                                alertDialog.dismiss();
-                                alertDialog = null;
-                            }
-                            // A call to the project change callback will be triggered here.
-                        }
-                    });
-
-                    Builder projectsBuilder = new Builder(getThis());
-                    projectsBuilder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener()
-                    {
-                        @Override
-                        public void onClick(DialogInterface dialogInterface, int i)
-                        {
-                            dialogInterface.dismiss();
-                        }
-                    });
-                    projectsBuilder.setView(projectsList);
-                    AlertDialog alertDialog1 = projectsBuilder.create();
-                    alertDialog = alertDialog1;
-                    alertDialog1.show();
-                } catch (JSONException e) {
-                    e.printStackTrace();
+            public void onProjectsLoaded(List<Project> projects, boolean isFresh) {
+                if (isFinishing()) return;
+                dismissProjectsProgress();
+                projectsAdapter.setNotifyOnChange(false);
+                projectsAdapter.clear();
+                for (Project project : projects) projectsAdapter.add(project);
+                projectsAdapter.notifyDataSetChanged();
+                // A refreshed list only updates the picker, it is never shown again
+                if (!mShown) {
+                    mShown = true;
+                    showProjectsDialog(projectsAdapter);
                 }
             }
+
+            @Override
+            public void onFetchStarted() {
+                if (isFinishing()) return;
+                showProjectsProgress();
+            }
+
+            @Override
+            public void onProjectsFailed(Exception e) {
+                if (isFinishing()) return;
+                dismissProjectsProgress();
+                Toast.makeText(GerritControllerActivity.this,
+                        R.string.gerrit_call_failed, Toast.LENGTH_LONG).show();
+            }
         };
-        mGerritTasks.add(gerritTask);
-        gerritTask.execute(Prefs.getCurrentGerrit(this) + "projects/?d");
+        catalogue.load(mCatalogueListener);
+    }
+
+    private void showProjectsDialog(ArrayAdapter<Project> projectsAdapter) {
+        ListView projectsList = new ListView(this);
+        projectsList.setAdapter(projectsAdapter);
+        projectsList.setOnItemClickListener(new AdapterView.OnItemClickListener()
+        {
+            @Override
+            public void onItemClick(AdapterView<?> adapterView, View view, int i, long l)
+            {
+                Project project = (Project) adapterView.getItemAtPosition(i);
+                Prefs.setCurrentProject(GerritControllerActivity.this, project.getmPath());
+                if (mProjectsDialog != null) mProjectsDialog.dismiss();
+                // A call to the project change callback will be triggered here.
+            }
+        });
+
+        Builder projectsBuilder = new Builder(this);
+        projectsBuilder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener()
+        {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i)
+            {
+                dialogInterface.dismiss();
+            }
+        });
+        projectsBuilder.setView(projectsList);
+        mProjectsDialog = projectsBuilder.create();
+        mProjectsDialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override
+            public void onDismiss(DialogInterface dialogInterface) {
+                mProjectsDialog = null;
+                removeCatalogueListener();
+            }
+        });
+        mProjectsDialog.show();
+    }
+
+    // Stops a refresh still running from delivering to the picker
+    private void removeCatalogueListener() {
+        if (mCatalogueListener != null) {
+            mCatalogue.removeListener(mCatalogueListener);
+            mCatalogueListener = null;
+            mCatalogue = null;
+        }
+    }
+
+    private void showProjectsProgress() {
+        dismissProjectsProgress();
+        mProjectsProgress = ProgressDialog.show(this, null,
+                getString(R.string.loading_projects), true, true,
+                new DialogInterface.OnCancelListener() {
+                    @Override
+                    public void onCancel(DialogInterface dialogInterface) {
+                        mProjectsProgress = null;
+                        removeCatalogueListener();
+                    }
+                });
+    }
+
+    private void dismissProjectsProgress() {
+        if (mProjectsProgress != null) {
+            mProjectsProgress.dismiss();
+            mProjectsProgress = null;
+        }
     }
 
     private void showGerritDialog() {
@@ -320,15 +403,26 @@ public class GerritControllerActivity extends FragmentActivity {
         String[] gerritWeb = res.getStringArray(R.array.gerrit_webaddresses);
         Collections.addAll(urls, gerritWeb);
 
-        GerritTeamsHelper teamsHelper = new GerritTeamsHelper();
-        teams.addAll(teamsHelper.getGerritNamesList());
-        urls.addAll(teamsHelper.getGerritUrlsList());
-
         final ArrayAdapter <String> instanceAdapter = new ArrayAdapter<String>(
                 this,
                 android.R.layout.simple_list_item_1,
                 teams);
         instances.setAdapter(instanceAdapter);
+
+        // Teams added by the user are read from disk, they are appended when ready
+        new AsyncTask<Void, Void, GerritTeamsHelper>() {
+            @Override
+            protected GerritTeamsHelper doInBackground(Void... voids) {
+                return new GerritTeamsHelper();
+            }
+
+            @Override
+            protected void onPostExecute(GerritTeamsHelper teamsHelper) {
+                teams.addAll(teamsHelper.getGerritNamesList());
+                urls.addAll(teamsHelper.getGerritUrlsList());
+                instanceAdapter.notifyDataSetChanged();
+            }
+        }.execute();
         instances.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> adapterView, View view, int i, long l) {
@@ -430,12 +524,25 @@ public class GerritControllerActivity extends FragmentActivity {
     }
 
     public CommitterObject getCommitterObject() { return mCommitterObject; }
+    public ChangeListModel getChangeListModel() { return mChangeListModel; }
     public void clearCommitterObject() { mCommitterObject = null; }
 
     public String getGerritWebsite() {
         return mGerritWebsite;
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        CacheCoordinator.getInstance().onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        CacheCoordinator.getInstance().onLowMemory();
+    }
+
     @Override
     protected void onPause()
     {
@@ -450,6 +557,8 @@ public class GerritControllerActivity extends FragmentActivity {
                 it.remove();
             else gerritTask.closeUpShop();
         }
+        dismissProjectsProgress();
+        FrameMonitor.stopFrames(getClass().getSimpleName());
     }
 
     @Override
@@ -467,6 +576,8 @@ public class GerritControllerActivity extends FragmentActivity {
         for (GerritTask gerritTask : mGerritTasks) gerritTask.cancel(true);
         mGerritTasks.clear();
         mGerritTasks = null;
+
+        removeCatalogueListener();
     }
 
     protected FragmentStatePagerAdapter getAdapter() {
@@ -517,6 +628,20 @@ public class GerritControllerActivity extends FragmentActivity {
             return fragment;
         }
 
+        @Override
+        /** Fragments restored after a configuration change are not created
+         *  through getItem, so keep track of them here as well. */
+        public Object instantiateItem(ViewGroup container, int position) {
+            Object fragment = super.instantiateItem(container, position);
+            switch (position)
+            {
+                case 0: mReviewTab = (ReviewTab) fragment; break;
+                case 1: mMergedTab = (MergedTab) fragment; break;
+                case 2: mAbandonedTab = (AbandonedTab) fragment; break;
+            }
+            return fragment;
+        }
+
         // The ViewPager monitors the current tab position so we can get the
         //  ViewPager from the enclosing class and use the fragment recording
         //  to get the current fragment
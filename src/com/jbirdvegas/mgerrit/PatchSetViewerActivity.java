@@ -27,24 +27,39 @@ import android.util.Log;
 import android.view.ContextMenu;
 import android.view.MenuItem;
 import android.view.View;
-import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
-import android.widget.ListAdapter;
 import android.widget.ListView;
 import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.ImageLoader;
 import com.android.volley.toolbox.Volley;
+import com.fima.cardsui.objects.Card;
+import com.fima.cardsui.objects.CardStack;
 import com.fima.cardsui.views.CardUI;
+import com.jbirdvegas.mgerrit.caches.BitmapLruCache;
+import com.jbirdvegas.mgerrit.caches.CacheCoordinator;
+import com.jbirdvegas.mgerrit.caches.LintCache;
 import com.jbirdvegas.mgerrit.cards.PatchSetChangesCard;
 import com.jbirdvegas.mgerrit.cards.PatchSetCommentsCard;
 import com.jbirdvegas.mgerrit.cards.PatchSetMessageCard;
 import com.jbirdvegas.mgerrit.cards.PatchSetPropertiesCard;
 import com.jbirdvegas.mgerrit.cards.PatchSetReviewersCard;
+import com.jbirdvegas.mgerrit.helpers.FrameMonitor;
+import com.jbirdvegas.mgerrit.helpers.PatchLint;
+import com.jbirdvegas.mgerrit.helpers.TextPreparer;
+import com.jbirdvegas.mgerrit.objects.ChangedFile;
+import com.jbirdvegas.mgerrit.objects.CommitComment;
 import com.jbirdvegas.mgerrit.objects.CommitterObject;
 import com.jbirdvegas.mgerrit.objects.JSONCommit;
+import com.jbirdvegas.mgerrit.objects.Reviewer;
+import com.jbirdvegas.mgerrit.tasks.DiffPrefetchTask;
 import com.jbirdvegas.mgerrit.tasks.GerritTask;
 import org.json.JSONArray;
 import org.json.JSONException;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Class handles populating the screen with several
  * cards each giving more information about the patchset
@@ -56,6 +71,9 @@ public class PatchSetViewerActivity extends Activity {
     private static final String KEY_STORED_PATCHSET = "storedPatchset";
     private CardUI mCardsUI;
     private RequestQueue mRequestQueue;
+    private TextPreparer.Batch mPreparing;
+    private DiffPrefetchTask mDiffPrefetch;
+    private LintCache.Request mLintRequest;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -104,38 +122,102 @@ public class PatchSetViewerActivity extends Activity {
         }
     }
 
+    /**
+     * Each file, reviewer and comment is added as its own row so the list
+     *  only ever creates views for the rows on screen. The first row of a
+     *  section carries the section's title.
+     */
     private void addCards(CardUI ui, JSONCommit jsonCommit) {
         // Properties card
         Log.d(TAG, "Loading Properties Card...");
-        ui.addCard(new PatchSetPropertiesCard(jsonCommit, this, mRequestQueue), true);
+        ui.addCard(new PatchSetPropertiesCard(jsonCommit, this, mRequestQueue));
 
         // Message card
         Log.d(TAG, "Loading Message Card...");
-        ui.addCard(new PatchSetMessageCard(jsonCommit), true);
+        ui.addCard(new PatchSetMessageCard(jsonCommit));
 
-        // Changed files card
-        if (jsonCommit.getChangedFiles() != null
-                && !jsonCommit.getChangedFiles().isEmpty()) {
-            Log.d(TAG, "Loading Changes Card...");
-            ui.addCard(new PatchSetChangesCard(jsonCommit, this), true);
+        // Changed files
+        List<ChangedFile> changedFiles = jsonCommit.getChangedFiles();
+        if (changedFiles != null && !changedFiles.isEmpty()) {
+            Log.d(TAG, "Loading " + changedFiles.size() + " changed files...");
+            List<Card> cards = new ArrayList<Card>(changedFiles.size());
+            final List<PatchSetChangesCard> fileCards
+                    = new ArrayList<PatchSetChangesCard>(changedFiles.size());
+            for (ChangedFile changedFile : changedFiles) {
+                PatchSetChangesCard card = new PatchSetChangesCard(jsonCommit, changedFile, this);
+                cards.add(card);
+                fileCards.add(card);
+            }
+            addSection(ui, getString(R.string.changed_files_title), cards);
+            // Lint badges are added once the revision's patch has been analysed
+            if (mLintRequest != null) mLintRequest.cancel();
+            mLintRequest = LintCache.getInstance(this).load(Prefs.getCurrentGerrit(this),
+                    jsonCommit.getId(), jsonCommit.getCurrentRevision(), changedFiles,
+                    new LintCache.LintListener() {
+                @Override
+                public void onLintLoaded(Map<String, PatchLint.Counts> counts) {
+                    mLintRequest = null;
+                    for (PatchSetChangesCard card : fileCards) {
+                        card.setLint(counts.get(card.getChangedFile().getPath()));
+                    }
+                }
+            });
+            // The most changed files are the most likely to be opened
+            if (mDiffPrefetch != null) mDiffPrefetch.cancel(true);
+            mDiffPrefetch = DiffPrefetchTask.start(this, Prefs.getCurrentGerrit(this),
+                    jsonCommit.getId(), jsonCommit.getCurrentRevision(), changedFiles);
         }
 
-        // Code reviewers card
+        // Code reviewers and verifiers
         if (jsonCommit.getCodeReviewers() != null
                 && !jsonCommit.getCodeReviewers().isEmpty()) {
-            Log.d(TAG, "Loading Reviewers Card...");
-            ui.addCard(new PatchSetReviewersCard(jsonCommit, this, mRequestQueue), true);
+            Log.d(TAG, "Loading Reviewers...");
+            addSection(ui, getString(R.string.patchset_labels_code_reviewer_title),
+                    getReviewerCards(jsonCommit.getCodeReviewers()));
+            if (jsonCommit.getVerifiedReviewers() != null) {
+                addSection(ui, getString(R.string.patchset_labels_verified_reviewer_title),
+                        getReviewerCards(jsonCommit.getVerifiedReviewers()));
+            }
         } else {
-            Log.d(TAG, "No reviewers found! Not adding reviewers card");
+            Log.d(TAG, "No reviewers found! Not adding reviewers section");
         }
 
-        // Comments Card
-        if (jsonCommit.getMessagesList() != null
-                && !jsonCommit.getMessagesList().isEmpty()) {
-            Log.d(TAG, "Loading Comments Card...");
-            ui.addCard(new PatchSetCommentsCard(jsonCommit, this, mRequestQueue), true);
+        // Comments
+        List<CommitComment> comments = jsonCommit.getMessagesList();
+        if (comments != null && !comments.isEmpty()) {
+            Log.d(TAG, "Loading " + comments.size() + " comments...");
+            ImageLoader imageLoader = new ImageLoader(mRequestQueue, BitmapLruCache.getInstance(this));
+            List<Card> cards = new ArrayList<Card>(comments.size());
+            for (CommitComment comment : comments) {
+                cards.add(new PatchSetCommentsCard(comment, this, imageLoader));
+            }
+            addSection(ui, getString(R.string.comments_card_title), cards);
+            // Emoticons and links are added in the background
+            TextPreparer preparer = TextPreparer.getInstance(this);
+            preparer.cancel(mPreparing);
+            mPreparing = preparer.prepare(comments);
         } else {
-            Log.d(TAG, "No commit comments found! Not adding comments card");
+            Log.d(TAG, "No commit comments found! Not adding comments section");
+        }
+
+        ui.refresh();
+    }
+
+    private List<Card> getReviewerCards(List<Reviewer> reviewers) {
+        List<Card> cards = new ArrayList<Card>(reviewers.size());
+        for (Reviewer reviewer : reviewers) {
+            cards.add(new PatchSetReviewersCard(reviewer, this, mRequestQueue));
+        }
+        return cards;
+    }
+
+    // One stack per row, the title is shown above the first one
+    private void addSection(CardUI ui, String title, List<Card> cards) {
+        for (int i = 0; i < cards.size(); i++) {
+            CardStack stack = new CardStack();
+            if (i == 0) stack.setTitle(title);
+            stack.add(cards.get(i));
+            ui.addStack(stack);
         }
     }
 
@@ -159,36 +241,6 @@ public class PatchSetViewerActivity extends Activity {
 
      */
 
-    // Handles correctly setting the ListViews height based on all the children
-    // from http://nex-otaku-en.blogspot.com/2010/12/android-put-listview-in-scrollview.html
-    public static void setListViewHeightBasedOnChildren(ListView... listViews) {
-        for (ListView listView : listViews) {
-            ListAdapter listAdapter = listView.getAdapter();
-            if (listAdapter == null) {
-                // pre-condition
-                return;
-            }
-            ViewGroup.LayoutParams params = listView.getLayoutParams();
-            params.height = getTotalHeight(listView, listAdapter)
-                    + listView.getDividerHeight() * (listAdapter.getCount() - 1);
-            listView.setLayoutParams(params);
-            listView.requestLayout();
-        }
-    }
-
-    static int getTotalHeight(ListView listView, ListAdapter listAdapter) {
-        int totalHeight = 0;
-        int desiredWidth = View.MeasureSpec.makeMeasureSpec(
-                listView.getWidth(), View.MeasureSpec.AT_MOST);
-        for (int i = 0; i < listAdapter.getCount(); i++) {
-            View listItem = listAdapter.getView(i, null, listView);
-            listItem.measure(desiredWidth, View.MeasureSpec.UNSPECIFIED);
-            totalHeight += listItem.getMeasuredHeight();
-        }
-        return totalHeight;
-    }
-
-
     public static void setNotFoundListView(Context context, ListView listView) {
         listView.setAdapter(
                 new ArrayAdapter<String>(context,
@@ -261,4 +313,30 @@ public class PatchSetViewerActivity extends Activity {
         }
         return super.onOptionsItemSelected(item);
     }
-}
\ No newline at end of file
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        FrameMonitor.stopFrames(getClass().getSimpleName());
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        TextPreparer.getInstance(this).cancel(mPreparing);
+        if (mDiffPrefetch != null) mDiffPrefetch.cancel(true);
+        if (mLintRequest != null) mLintRequest.cancel();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        CacheCoordinator.getInstance().onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        CacheCoordinator.getInstance().onLowMemory();
+    }
+}
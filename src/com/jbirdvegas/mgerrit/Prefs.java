@@ -19,7 +19,10 @@ package com.jbirdvegas.mgerrit;
 
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.CheckBoxPreference;
 import android.preference.ListPreference;
@@ -27,6 +30,8 @@ import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
 import android.widget.Toast;
+import com.jbirdvegas.mgerrit.dialogs.DiagnosticsDialog;
+import com.jbirdvegas.mgerrit.helpers.FrameMonitor;
 import com.jbirdvegas.mgerrit.objects.CommitterObject;
 
 import java.util.LinkedList;
@@ -39,11 +44,35 @@ public class Prefs extends PreferenceFragment implements Preference.OnPreference
     private static final CharSequence APACHE_COMMONS_KEY = "open_source_apache_commons";
     public static final String GERRIT_KEY = "gerrit_instances_key";
     private static final String ANIMATION_KEY = "animation_key";
+    private static final String FRAME_METRICS_KEY = "frame_metrics_key";
     private static final String SAVED_GERRIT_INSTANCES_KEY = "saved_gerrit_instances";
     private static final String SERVER_TIMEZONE_KEY = "server_timezone";
     private static final String LOCAL_TIMEZONE_KEY = "local_timezone";
     public static final String CURRENT_PROJECT = "current_project";
+    private static final String VERSION_KEY = "app_version";
+    // Number of taps on the version needed to open the diagnostics screen
+    private static final int DIAGNOSTICS_TAPS = 7;
     private CheckBoxPreference mAnimation;
+    private static Boolean sAnimationPreference;
+    // SharedPreferences only keeps a weak reference to its listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener sPrefsListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    if (ANIMATION_KEY.equals(key)) {
+                        sAnimationPreference = prefs.getBoolean(ANIMATION_KEY, true);
+                    } else if (FRAME_METRICS_KEY.equals(key)) {
+                        boolean enabled = prefs.getBoolean(FRAME_METRICS_KEY, false);
+                        // Leave the results of the session that just ended in the log
+                        if (!enabled) FrameMonitor.dump();
+                        FrameMonitor.setEnabled(enabled);
+                    }
+                }
+            };
+    private static boolean sListening;
+    // Ids of the available time zones, looked up once
+    private static CharSequence[] sTimeZones;
+    private int mVersionTaps = 0;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -78,21 +107,62 @@ public class Prefs extends PreferenceFragment implements Preference.OnPreference
         // Allow disabling of Google Now style animations
         ((CheckBoxPreference) findPreference(ANIMATION_KEY))
                 .setChecked(getAnimationPreference(this.getActivity()));
-        ListPreference serverTimeZoneList = (ListPreference) findPreference(SERVER_TIMEZONE_KEY);
         // Allow changing assumed TimeZone for server
-        serverTimeZoneList.setEntryValues(TimeZone.getAvailableIDs());
-        LinkedList<CharSequence> timeZones = new LinkedList<CharSequence>();
-        for (String tz : TimeZone.getAvailableIDs()) {
-            timeZones.add(TimeZone.getTimeZone(tz).getID());
-        }
-        CharSequence[] zoneEntries = new CharSequence[timeZones.size()];
-        serverTimeZoneList.setEntries(timeZones.toArray(zoneEntries));
+        final ListPreference serverTimeZoneList = (ListPreference) findPreference(SERVER_TIMEZONE_KEY);
         // the local timezone may be inaccurate as provided by TimeZone.getDefault()
         // to account for this inconsistency we allow users the change from the device
         // provided localization to user provided localization
-        ListPreference localTimeZoneList = (ListPreference) findPreference(LOCAL_TIMEZONE_KEY);
-        localTimeZoneList.setEntries(TimeZone.getAvailableIDs());
-        localTimeZoneList.setEntryValues(zoneEntries);
+        final ListPreference localTimeZoneList = (ListPreference) findPreference(LOCAL_TIMEZONE_KEY);
+        if (sTimeZones != null) {
+            setTimeZoneEntries(serverTimeZoneList, localTimeZoneList);
+        } else {
+            // Looking up every time zone takes a while, disabled until it is done
+            serverTimeZoneList.setEnabled(false);
+            localTimeZoneList.setEnabled(false);
+            new AsyncTask<Void, Void, CharSequence[]>() {
+                @Override
+                protected CharSequence[] doInBackground(Void... voids) {
+                    LinkedList<CharSequence> timeZones = new LinkedList<CharSequence>();
+                    for (String tz : TimeZone.getAvailableIDs()) {
+                        timeZones.add(TimeZone.getTimeZone(tz).getID());
+                    }
+                    return timeZones.toArray(new CharSequence[timeZones.size()]);
+                }
+
+                @Override
+                protected void onPostExecute(CharSequence[] timeZones) {
+                    sTimeZones = timeZones;
+                    setTimeZoneEntries(serverTimeZoneList, localTimeZoneList);
+                }
+            }.execute();
+        }
+
+        // Hidden diagnostics screen, opened by tapping the version repeatedly
+        Preference version = findPreference(VERSION_KEY);
+        try {
+            version.setSummary(getActivity().getPackageManager()
+                    .getPackageInfo(getActivity().getPackageName(), 0).versionName);
+        } catch (PackageManager.NameNotFoundException e) {
+            // leave the summary blank
+        }
+        version.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                if (++mVersionTaps >= DIAGNOSTICS_TAPS) {
+                    mVersionTaps = 0;
+                    new DiagnosticsDialog(getActivity()).show();
+                }
+                return true;
+            }
+        });
+    }
+
+    private static void setTimeZoneEntries(ListPreference... lists) {
+        for (ListPreference list : lists) {
+            list.setEntries(sTimeZones);
+            list.setEntryValues(sTimeZones);
+            list.setEnabled(true);
+        }
     }
 
     /**
@@ -161,8 +231,29 @@ public class Prefs extends PreferenceFragment implements Preference.OnPreference
      *         animations
      */
     public static boolean getAnimationPreference(Context context) {
-        return PreferenceManager.getDefaultSharedPreferences(context)
-                .getBoolean(ANIMATION_KEY, true);
+        // Read for every card that is bound, so it is only loaded once
+        if (sAnimationPreference == null) {
+            sAnimationPreference = getListenedPreferences(context).getBoolean(ANIMATION_KEY, true);
+        }
+        return sAnimationPreference;
+    }
+
+    /**
+     * @param context used to access SharedPreferences
+     * @return true if frame timings should be recorded, see {@link FrameMonitor}
+     */
+    public static boolean getFrameMetricsPreference(Context context) {
+        return getListenedPreferences(context).getBoolean(FRAME_METRICS_KEY, false);
+    }
+
+    // Preferences whose cached values are kept up to date by sPrefsListener
+    private static SharedPreferences getListenedPreferences(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (!sListening) {
+            prefs.registerOnSharedPreferenceChangeListener(sPrefsListener);
+            sListening = true;
+        }
+        return prefs;
     }
 
     public static TimeZone getServerTimeZone(Context context) {
@@ -0,0 +1,84 @@
+package com.jbirdvegas.mgerrit.adapters;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+import com.jbirdvegas.mgerrit.R;
+import com.jbirdvegas.mgerrit.helpers.FrameMonitor;
+import com.jbirdvegas.mgerrit.objects.Diff;
+
+/**
+ * One row per line of a diff. Each line is only coloured when its row is
+ *  bound, so the cost of showing a diff does not depend on its size.
+ */
+public class DiffLineAdapter extends BaseAdapter {
+    private static final String TAG = DiffLineAdapter.class.getSimpleName();
+    private final LayoutInflater mInflater;
+    private final Diff mDiff;
+
+    public DiffLineAdapter(Context context, Diff diff) {
+        mInflater = LayoutInflater.from(context);
+        mDiff = diff;
+    }
+
+    @Override
+    public int getCount() {
+        return mDiff.getLineCount();
+    }
+
+    @Override
+    public String getItem(int position) {
+        return mDiff.getLine(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public boolean areAllItemsEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isEnabled(int position) {
+        return false;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView line = (TextView) convertView;
+        if (line == null) {
+            line = (TextView) mInflater.inflate(R.layout.diff_line, parent, false);
+        }
+        if (FrameMonitor.isEnabled()) {
+            long start = System.nanoTime();
+            line.setText(mDiff.getColorizedLine(position), TextView.BufferType.SPANNABLE);
+            FrameMonitor.recordBind(TAG, System.nanoTime() - start);
+        } else {
+            line.setText(mDiff.getColorizedLine(position), TextView.BufferType.SPANNABLE);
+        }
+        return line;
+    }
+}
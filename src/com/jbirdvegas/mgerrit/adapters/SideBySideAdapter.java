@@ -0,0 +1,130 @@
+package com.jbirdvegas.mgerrit.adapters;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+import com.jbirdvegas.mgerrit.R;
+import com.jbirdvegas.mgerrit.helpers.FrameMonitor;
+import com.jbirdvegas.mgerrit.objects.Diff;
+import com.jbirdvegas.mgerrit.objects.SideBySide;
+
+/**
+ * One row per pair of old and new lines of a diff, recycled the same way
+ *  as the unified rows of {@link DiffLineAdapter}. Long lines wrap within
+ *  their column, so no row is wider than the screen and nothing outside
+ *  the visible rows is laid out.
+ */
+public class SideBySideAdapter extends BaseAdapter {
+    private static final String TAG = SideBySideAdapter.class.getSimpleName();
+    private static final int TYPE_COLUMNS = 0;
+    private static final int TYPE_FULL_WIDTH = 1;
+    private final LayoutInflater mInflater;
+    private final Diff mDiff;
+    private final SideBySide mRows;
+    private final int mBlankColor;
+
+    private static class ViewHolder {
+        TextView left;
+        TextView right;
+    }
+
+    public SideBySideAdapter(Context context, Diff diff) {
+        mInflater = LayoutInflater.from(context);
+        mDiff = diff;
+        mRows = diff.getSideBySide();
+        mBlankColor = context.getResources().getColor(R.color.card_separator);
+    }
+
+    @Override
+    public int getCount() {
+        return mRows.getRowCount();
+    }
+
+    @Override
+    public Integer getItem(int position) {
+        return mRows.getLineOfRow(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return 2;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return mRows.isFullWidth(position) ? TYPE_FULL_WIDTH : TYPE_COLUMNS;
+    }
+
+    @Override
+    public boolean areAllItemsEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isEnabled(int position) {
+        return false;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        long start = FrameMonitor.isEnabled() ? System.nanoTime() : 0;
+        View view;
+        if (mRows.isFullWidth(position)) {
+            TextView line = (TextView) convertView;
+            if (line == null) {
+                line = (TextView) mInflater.inflate(R.layout.diff_line, parent, false);
+            }
+            line.setText(mDiff.getColorizedLine(mRows.getLeft(position)),
+                    TextView.BufferType.SPANNABLE);
+            view = line;
+        } else {
+            view = convertView;
+            if (view == null) {
+                view = mInflater.inflate(R.layout.diff_row_side_by_side, parent, false);
+                ViewHolder holder = new ViewHolder();
+                holder.left = (TextView) view.findViewById(R.id.diff_row_left);
+                holder.right = (TextView) view.findViewById(R.id.diff_row_right);
+                view.setTag(R.id.view_holder, holder);
+            }
+            ViewHolder holder = (ViewHolder) view.getTag(R.id.view_holder);
+            bindColumn(holder.left, mRows.getLeft(position));
+            bindColumn(holder.right, mRows.getRight(position));
+        }
+        if (start != 0) FrameMonitor.recordBind(TAG, System.nanoTime() - start);
+        return view;
+    }
+
+    private void bindColumn(TextView column, int line) {
+        if (line == SideBySide.NONE) {
+            column.setText(null);
+            column.setBackgroundColor(mBlankColor);
+        } else {
+            column.setText(mDiff.getColorizedLine(line), TextView.BufferType.SPANNABLE);
+            column.setBackgroundColor(0);
+        }
+    }
+}
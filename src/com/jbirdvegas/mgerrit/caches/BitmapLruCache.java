@@ -7,6 +7,7 @@ import android.content.pm.ApplicationInfo;
 import android.graphics.Bitmap;
 import android.os.Build;
 import com.android.volley.toolbox.ImageLoader;
+import com.jbirdvegas.mgerrit.helpers.Diagnostics;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -14,11 +15,14 @@ import java.util.Map;
 /**
  * Class from example: http://weakapp0320.blogspot.com/2013/05/imageloader-with-volley-example.html
  */
-public class BitmapLruCache implements ImageLoader.ImageCache {
+public class BitmapLruCache implements ImageLoader.ImageCache, CacheCoordinator.TrimmableCache {
+    private static BitmapLruCache sInstance;
+
     final LinkedHashMap<String, Bitmap> map;
     private final int maxSize;
 
     private int size;
+    private final Diagnostics.CacheStats stats = Diagnostics.getCacheStats("avatars");
 
     /**
      * Create a cache using an appropriate portion of the available RAM as the maximum size.
@@ -27,6 +31,18 @@ public class BitmapLruCache implements ImageLoader.ImageCache {
         this(calculateMaxSize(context));
     }
 
+    /**
+     * @return the avatar cache shared by all cards, registered with the
+     *  {@link CacheCoordinator}
+     */
+    public static synchronized BitmapLruCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BitmapLruCache(context.getApplicationContext());
+            CacheCoordinator.getInstance().register(sInstance);
+        }
+        return sInstance;
+    }
+
     /**
      * Create a cache with a given maximum size in bytes.
      */
@@ -47,10 +63,12 @@ public class BitmapLruCache implements ImageLoader.ImageCache {
         synchronized (this) {
             mapValue = map.get(key);
             if (mapValue != null) {
+                stats.hit();
                 return mapValue;
             }
         }
 
+        stats.miss();
         return null;
     }
 
@@ -90,8 +108,10 @@ public class BitmapLruCache implements ImageLoader.ImageCache {
                 value = toEvict.getValue();
                 map.remove(key);
                 size -= getBitmapBytes(value);
+                stats.evicted(1);
             }
         }
+        stats.setBytes(size);
     }
 
     /**
@@ -101,6 +121,23 @@ public class BitmapLruCache implements ImageLoader.ImageCache {
         trimToSize(-1); // -1 will evict 0-sized elements
     }
 
+    @Override
+    public int getTrimTier() {
+        return CacheCoordinator.TIER_AVATARS;
+    }
+
+    @Override
+    public long trim(float fraction) {
+        int before;
+        synchronized (this) {
+            before = size;
+        }
+        trimToSize(fraction >= 1f ? -1 : (int) (before * (1f - fraction)));
+        synchronized (this) {
+            return before - size;
+        }
+    }
+
     private static int calculateMaxSize(Context context) {
         ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
         boolean largeHeap = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_LARGE_HEAP) != 0;
@@ -0,0 +1,155 @@
+package com.jbirdvegas.mgerrit.caches;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Central point the app's caches register with so they can be shrunk
+ *  when the system is low on memory.
+ * <p/>
+ * Caches are trimmed in tiers, cheapest to rebuild first: avatars, then
+ *  parsed query results that are not on screen, then card view trees.
+ *  The deeper the trim level reported by the system, the more tiers are
+ *  trimmed and the larger the share of each tier that is released.
+ * <p/>
+ * Caches are only weakly referenced so registering does not keep an
+ *  activity's views alive. Must be called on the main thread.
+ */
+public class CacheCoordinator {
+    private static final String TAG = CacheCoordinator.class.getSimpleName();
+
+    public static final int TIER_AVATARS = 0;
+    public static final int TIER_PARSED = 1;
+    public static final int TIER_VIEWS = 2;
+    private static final String[] TIER_NAMES = { "avatars", "parsed results", "card views" };
+
+    /**
+     * A cache which can release part of its contents on request
+     */
+    public interface TrimmableCache {
+        /** @return one of the TIER_ constants */
+        public int getTrimTier();
+
+        /**
+         * Release (at least) the given share of this cache's contents.
+         *
+         * @param fraction between 0 and 1, where 1 means release everything
+         *                 that can be rebuilt
+         * @return an estimate of the number of bytes freed
+         */
+        public long trim(float fraction);
+    }
+
+    private static CacheCoordinator sInstance;
+
+    private final List<WeakReference<TrimmableCache>> mCaches
+            = new ArrayList<WeakReference<TrimmableCache>>();
+
+    private CacheCoordinator() { }
+
+    public static synchronized CacheCoordinator getInstance() {
+        if (sInstance == null) sInstance = new CacheCoordinator();
+        return sInstance;
+    }
+
+    public synchronized void register(TrimmableCache cache) {
+        for (WeakReference<TrimmableCache> ref : mCaches) {
+            if (ref.get() == cache) return;
+        }
+        mCaches.add(new WeakReference<TrimmableCache>(cache));
+    }
+
+    public synchronized void unregister(TrimmableCache cache) {
+        Iterator<WeakReference<TrimmableCache>> it = mCaches.iterator();
+        while (it.hasNext()) {
+            TrimmableCache registered = it.next().get();
+            if (registered == null || registered == cache) it.remove();
+        }
+    }
+
+    /**
+     * Forwarded from {@link android.content.ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public void onTrimMemory(int level) {
+        float[] fractions = getTrimFractions(level);
+        long total = 0;
+        for (int tier = TIER_AVATARS; tier <= TIER_VIEWS; tier++) {
+            if (fractions[tier] <= 0) continue;
+            long freed = trimTier(tier, fractions[tier]);
+            total += freed;
+            Log.i(TAG, String.format("Trim level %d: released %d%% of %s, %d bytes freed",
+                    level, (int) (fractions[tier] * 100), TIER_NAMES[tier], freed));
+        }
+        Log.i(TAG, String.format("Trim level %d: %d bytes freed in total", level, total));
+    }
+
+    /**
+     * Forwarded from {@link android.content.ComponentCallbacks#onLowMemory()},
+     *  treated as the most severe trim level.
+     */
+    public void onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * @return the share of each tier to release for the given trim level
+     */
+    private static float[] getTrimFractions(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            return new float[] { 1f, 1f, 1f };
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return new float[] { 1f, 1f, 0.5f };
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return new float[] { 1f, 0.5f, 0f };
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return new float[] { 0.5f, 0f, 0f };
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return new float[] { 1f, 1f, 0.5f };
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return new float[] { 1f, 0.5f, 0f };
+        } else {
+            // TRIM_MEMORY_RUNNING_MODERATE
+            return new float[] { 0.5f, 0f, 0f };
+        }
+    }
+
+    private long trimTier(int tier, float fraction) {
+        List<TrimmableCache> caches = new ArrayList<TrimmableCache>();
+        synchronized (this) {
+            Iterator<WeakReference<TrimmableCache>> it = mCaches.iterator();
+            while (it.hasNext()) {
+                TrimmableCache cache = it.next().get();
+                if (cache == null) it.remove();
+                else if (cache.getTrimTier() == tier) caches.add(cache);
+            }
+        }
+
+        long freed = 0;
+        for (TrimmableCache cache : caches) {
+            freed += cache.trim(fraction);
+        }
+        return freed;
+    }
+}
@@ -0,0 +1,275 @@
+package com.jbirdvegas.mgerrit.caches;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.app.ActivityManager;
+import android.content.Context;
+import com.jbirdvegas.mgerrit.helpers.Diagnostics;
+import com.jbirdvegas.mgerrit.objects.JSONCommit;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory LRU cache of parsed change list query results.
+ * <p/>
+ * Results are keyed by the full query url (see
+ *  {@link com.jbirdvegas.mgerrit.objects.GerritURL#toString()}) which
+ *  encodes the Gerrit instance, status, project, committer state and
+ *  email, so a result is only ever reused for exactly the same query.
+ *  Entries are evicted least recently used first once either the entry
+ *  or the byte budget is exceeded.
+ */
+public class ChangeListCache implements CacheCoordinator.TrimmableCache {
+    // Results younger than this are shown without being revalidated
+    public static final long FRESH_AGE = 30 * 1000;
+    public static final int DEFAULT_MAX_ENTRIES = 24;
+
+    private static ChangeListCache sInstance;
+
+    private final LinkedHashMap<String, Entry> mMap;
+    private int mMaxEntries;
+    private int mMaxBytes;
+    private int mSize;
+    // Queries currently shown by a tab, with the number of tabs showing each
+    private final Map<String, Integer> mPinned = new HashMap<String, Integer>();
+    private final Diagnostics.CacheStats mStats = Diagnostics.getCacheStats("change_lists");
+
+    /**
+     * A parsed query result together with the time it was fetched
+     */
+    public static class Entry {
+        private final List<JSONCommit> mCommits;
+        private final long mTimestamp;
+        private final int mBytes;
+
+        private Entry(List<JSONCommit> commits, int bytes, long timestamp) {
+            mCommits = Collections.unmodifiableList(commits);
+            mTimestamp = timestamp;
+            mBytes = bytes;
+        }
+
+        public List<JSONCommit> getCommits() {
+            return mCommits;
+        }
+
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /** @return estimated size of the parsed results */
+        public int getBytes() {
+            return mBytes;
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() - mTimestamp < FRESH_AGE;
+        }
+    }
+
+    /**
+     * Create a cache with the given budgets.
+     *
+     * @param maxEntries maximum number of queries kept
+     * @param maxBytes maximum estimated size of all kept results
+     */
+    public ChangeListCache(int maxEntries, int maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Budgets must be positive.");
+        }
+        mMaxEntries = maxEntries;
+        mMaxBytes = maxBytes;
+        mMap = new LinkedHashMap<String, Entry>(0, 0.75f, true);
+    }
+
+    /**
+     * @return the cache shared by all the change list tabs, sized using
+     *  a portion of the available RAM.
+     */
+    public static synchronized ChangeListCache getInstance(Context context) {
+        if (sInstance == null) {
+            ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            sInstance = new ChangeListCache(DEFAULT_MAX_ENTRIES,
+                    1024 * 1024 * am.getMemoryClass() / 16);
+            CacheCoordinator.getInstance().register(sInstance);
+        }
+        return sInstance;
+    }
+
+    public synchronized Entry get(String query) {
+        if (query == null) {
+            throw new NullPointerException("query == null");
+        }
+        Entry entry = mMap.get(query);
+        if (entry != null) mStats.hit();
+        else mStats.miss();
+        return entry;
+    }
+
+    /**
+     * Store the parsed result of a query, replacing any older result.
+     *
+     * @param query the full query url
+     * @param commits parsed results
+     * @param bytes estimated size of the parsed results
+     * @return the new cache entry
+     */
+    public Entry put(String query, List<JSONCommit> commits, int bytes) {
+        if (query == null || commits == null) {
+            throw new NullPointerException("query == null || commits == null");
+        }
+
+        Entry entry = new Entry(commits, bytes, System.currentTimeMillis());
+        synchronized (this) {
+            mSize += bytes;
+            Entry previous = mMap.put(query, entry);
+            if (previous != null) {
+                mSize -= previous.mBytes;
+            }
+        }
+        trimToSize(mMaxEntries, mMaxBytes);
+        return entry;
+    }
+
+    /**
+     * Add results fetched earlier (e.g. by a previous run of the app) unless
+     *  there is already a result for the query.
+     *
+     * @param timestamp when the results were fetched
+     * @return the entry now cached for the query
+     */
+    public Entry restore(String query, List<JSONCommit> commits, int bytes, long timestamp) {
+        if (query == null || commits == null) {
+            throw new NullPointerException("query == null || commits == null");
+        }
+
+        Entry entry;
+        synchronized (this) {
+            entry = mMap.get(query);
+            if (entry != null) return entry;
+            entry = new Entry(commits, bytes, timestamp);
+            mMap.put(query, entry);
+            mSize += bytes;
+        }
+        trimToSize(mMaxEntries, mMaxBytes);
+        return entry;
+    }
+
+    /**
+     * @return true if this exact entry is still in the cache. Does not
+     *  count as a use of the entry.
+     */
+    public synchronized boolean holds(Entry entry) {
+        return mMap.containsValue(entry);
+    }
+
+    public synchronized void remove(String query) {
+        Entry previous = mMap.remove(query);
+        if (previous != null) {
+            mSize -= previous.mBytes;
+        }
+        mStats.setBytes(mSize);
+    }
+
+    /**
+     * Mark a query as being on screen so its results are kept when trimming
+     *  for memory pressure. Every call must be matched by {@link #unpin(String)}.
+     */
+    public synchronized void pin(String query) {
+        Integer count = mPinned.get(query);
+        mPinned.put(query, count == null ? 1 : count + 1);
+    }
+
+    public synchronized void unpin(String query) {
+        Integer count = mPinned.get(query);
+        if (count == null) return;
+        if (count <= 1) mPinned.remove(query);
+        else mPinned.put(query, count - 1);
+    }
+
+    @Override
+    public int getTrimTier() {
+        return CacheCoordinator.TIER_PARSED;
+    }
+
+    /**
+     * Evict the given share of the results that are not on screen, least
+     *  recently used first.
+     */
+    @Override
+    public synchronized long trim(float fraction) {
+        int offscreen = 0;
+        for (Map.Entry<String, Entry> entry : mMap.entrySet()) {
+            if (!mPinned.containsKey(entry.getKey())) offscreen += entry.getValue().mBytes;
+        }
+
+        long target = (long) (offscreen * fraction);
+        long freed = 0;
+        Iterator<Map.Entry<String, Entry>> it = mMap.entrySet().iterator();
+        while (it.hasNext() && (freed < target || (fraction >= 1f && freed < offscreen))) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (mPinned.containsKey(entry.getKey())) continue;
+            it.remove();
+            mSize -= entry.getValue().mBytes;
+            freed += entry.getValue().mBytes;
+            mStats.evicted(1);
+        }
+        mStats.setBytes(mSize);
+        return freed;
+    }
+
+    public synchronized void setMaxEntries(int maxEntries) {
+        mMaxEntries = maxEntries;
+        trimToSize(mMaxEntries, mMaxBytes);
+    }
+
+    public synchronized void setMaxBytes(int maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(mMaxEntries, mMaxBytes);
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Evict the least recently used results until both budgets are met.
+     */
+    public synchronized void trimToSize(int maxEntries, int maxBytes) {
+        while (!mMap.isEmpty() && (mMap.size() > maxEntries || mSize > maxBytes)) {
+            Map.Entry<String, Entry> toEvict = mMap.entrySet().iterator().next();
+            mMap.remove(toEvict.getKey());
+            mSize -= toEvict.getValue().mBytes;
+            mStats.evicted(1);
+        }
+        mStats.setBytes(mSize);
+    }
+
+    /**
+     * Clear the cache.
+     */
+    public final synchronized void clear() {
+        mMap.clear();
+        mSize = 0;
+        mStats.setBytes(0);
+    }
+}
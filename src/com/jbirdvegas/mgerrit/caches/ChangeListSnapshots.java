@@ -0,0 +1,86 @@
+package com.jbirdvegas.mgerrit.caches;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.content.Context;
+
+/**
+ * The last responses of the change list queries, kept on disk so a cold
+ *  start can draw the previous list straight away while it is being
+ *  revalidated. One file per query, only the most recently written
+ *  {@link #MAX_SNAPSHOTS} are kept. Reads and writes hit the disk, so
+ *  they must not be done on the main thread.
+ */
+public class ChangeListSnapshots {
+    private static final String SNAPSHOT_DIR = "change_lists";
+    // Enough for every tab of a couple of projects or Gerrit instances
+    public static final int MAX_SNAPSHOTS = 8;
+
+    private static ChangeListSnapshots sInstance;
+
+    private final FileStore mStore;
+
+    /**
+     * A stored response together with when it was fetched
+     */
+    public static class Snapshot {
+        private final String mResponse;
+        private final long mTimestamp;
+
+        private Snapshot(String response, long timestamp) {
+            mResponse = response;
+            mTimestamp = timestamp;
+        }
+
+        public String getResponse() {
+            return mResponse;
+        }
+
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+    }
+
+    private ChangeListSnapshots(Context context) {
+        mStore = new FileStore(context, SNAPSHOT_DIR, MAX_SNAPSHOTS);
+    }
+
+    public static synchronized ChangeListSnapshots getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ChangeListSnapshots(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param query the full query url
+     * @return the last response stored for the query or null if there is none
+     */
+    public synchronized Snapshot read(String query) {
+        String response = mStore.read(query);
+        if (response == null) return null;
+        return new Snapshot(response, mStore.getLastModified(query));
+    }
+
+    /**
+     * Store the response of a query, replacing any older one
+     */
+    public synchronized void write(String query, String response) {
+        mStore.write(query, response);
+    }
+}
@@ -0,0 +1,119 @@
+package com.jbirdvegas.mgerrit.caches;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.app.ActivityManager;
+import android.content.Context;
+import com.jbirdvegas.mgerrit.helpers.Diagnostics;
+import com.jbirdvegas.mgerrit.objects.Diff;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory LRU cache of parsed diffs, keyed by the url of the file's diff.
+ * <p/>
+ * Everything worked out for a diff (changed words, the side by side rows)
+ *  is kept with it, so a file shown again, e.g. after the screen was
+ *  rotated, or one prefetched while the change was open, is not
+ *  downloaded or laid out from scratch.
+ */
+public class DiffCache implements CacheCoordinator.TrimmableCache {
+    public static final int DEFAULT_MAX_ENTRIES = 8;
+
+    private static DiffCache sInstance;
+
+    private final LinkedHashMap<String, Diff> mMap
+            = new LinkedHashMap<String, Diff>(0, 0.75f, true);
+    private final int mMaxBytes;
+    private int mSize;
+    private final Diagnostics.CacheStats mStats = Diagnostics.getCacheStats("diffs");
+
+    private DiffCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cache shared by all diff dialogs, sized using a portion
+     *  of the available RAM.
+     */
+    public static synchronized DiffCache getInstance(Context context) {
+        if (sInstance == null) {
+            ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            sInstance = new DiffCache(1024 * 1024 * am.getMemoryClass() / 16);
+            CacheCoordinator.getInstance().register(sInstance);
+        }
+        return sInstance;
+    }
+
+    public synchronized Diff get(String url) {
+        Diff diff = mMap.get(url);
+        if (diff != null) mStats.hit();
+        else mStats.miss();
+        return diff;
+    }
+
+    /**
+     * @return true if the diff is cached. Does not count as a use of it.
+     */
+    public synchronized boolean contains(String url) {
+        return mMap.containsKey(url);
+    }
+
+    public synchronized void put(String url, Diff diff) {
+        if (url == null || diff == null) {
+            throw new NullPointerException("url == null || diff == null");
+        }
+        Diff previous = mMap.put(url, diff);
+        if (previous != null) mSize -= previous.estimateBytes();
+        mSize += diff.estimateBytes();
+        // Always keep the newest diff, even if it is over the budget by itself
+        Iterator<Map.Entry<String, Diff>> it = mMap.entrySet().iterator();
+        while (mMap.size() > 1 && (mMap.size() > DEFAULT_MAX_ENTRIES || mSize > mMaxBytes)) {
+            mSize -= it.next().getValue().estimateBytes();
+            it.remove();
+            mStats.evicted(1);
+        }
+        mStats.setBytes(mSize);
+    }
+
+    @Override
+    public int getTrimTier() {
+        return CacheCoordinator.TIER_PARSED;
+    }
+
+    /**
+     * Evict the given share of the diffs, least recently used first.
+     */
+    @Override
+    public synchronized long trim(float fraction) {
+        long target = (long) (mSize * fraction);
+        long freed = 0;
+        Iterator<Map.Entry<String, Diff>> it = mMap.entrySet().iterator();
+        while (it.hasNext() && (freed < target || fraction >= 1f)) {
+            int bytes = it.next().getValue().estimateBytes();
+            it.remove();
+            mSize -= bytes;
+            freed += bytes;
+            mStats.evicted(1);
+        }
+        mStats.setBytes(mSize);
+        return freed;
+    }
+}
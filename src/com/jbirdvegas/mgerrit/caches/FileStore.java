@@ -0,0 +1,147 @@
+package com.jbirdvegas.mgerrit.caches;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+import android.content.Context;
+import android.util.Log;
+import com.jbirdvegas.mgerrit.helpers.MD5Helper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Text kept in a directory of the app's cache, one file per key. Only the
+ *  most recently written {@code maxFiles} files are kept. Every call hits
+ *  the disk, so none may be made on the main thread. Calls are
+ *  synchronized on the store, not on its owner.
+ */
+public class FileStore {
+    private static final String TAG = FileStore.class.getSimpleName();
+
+    private final File mDir;
+    private final int mMaxFiles;
+
+    /**
+     * @param dirName name of the directory in the app's cache
+     * @param maxFiles most files to keep, the oldest are deleted first
+     */
+    public FileStore(Context context, String dirName, int maxFiles) {
+        mDir = new File(context.getCacheDir(), dirName);
+        mMaxFiles = maxFiles;
+    }
+
+    /**
+     * @return the text stored under the key or null if there is none or it
+     *  could not be read
+     */
+    public synchronized String read(String key) {
+        File file = getFile(key);
+        if (!file.exists()) return null;
+
+        BufferedReader reader = null;
+        StringBuilder total = new StringBuilder((int) file.length());
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                total.append(buffer, 0, read);
+            }
+            return total.toString();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + file, e);
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // let it go
+                }
+            }
+        }
+    }
+
+    /**
+     * @return when the text stored under the key was written, 0 if there is none
+     */
+    public synchronized long getLastModified(String key) {
+        return getFile(key).lastModified();
+    }
+
+    /**
+     * Store the text under the key, replacing what was there, then delete
+     *  the oldest files beyond the limit
+     */
+    public synchronized void write(String key, String text) {
+        if (!mDir.exists()) {
+            mDir.mkdirs();
+        }
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(getFile(key)));
+            writer.write(text);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write " + key, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // let it go
+                }
+            }
+        }
+        trim();
+    }
+
+    /**
+     * Forget what is stored under the key, e.g. because it is corrupt
+     */
+    public synchronized void delete(String key) {
+        getFile(key).delete();
+    }
+
+    private void trim() {
+        File[] files = mDir.listFiles();
+        if (files == null || files.length <= mMaxFiles) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified(), r = rhs.lastModified();
+                return l > r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = mMaxFiles; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+
+    // Keys may be urls, so they are hashed into file names
+    private File getFile(String key) {
+        return new File(mDir, MD5Helper.md5Hex(key));
+    }
+}
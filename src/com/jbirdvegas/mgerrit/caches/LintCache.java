@@ -0,0 +1,291 @@
+package com.jbirdvegas.mgerrit.caches;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.jbirdvegas.mgerrit.helpers.CountingInputStream;
+import com.jbirdvegas.mgerrit.helpers.Diagnostics;
+import com.jbirdvegas.mgerrit.helpers.DiffLoader;
+import com.jbirdvegas.mgerrit.helpers.PatchDecoder;
+import com.jbirdvegas.mgerrit.helpers.PatchLint;
+import com.jbirdvegas.mgerrit.helpers.Tools;
+import com.jbirdvegas.mgerrit.objects.ChangedFile;
+import com.jbirdvegas.mgerrit.tasks.DiffPrefetchTask;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lint counts of the files of each revision (see {@link PatchLint}), so
+ *  they can be shown without opening any diff.
+ * <p/>
+ * A revision never changes, so its counts are worked out once, whenever
+ *  its whole patch is downloaded (see {@link DiffLoader#loadPatch}), then
+ *  kept on disk (only the most recently written {@link #MAX_REVISIONS})
+ *  and in memory. Servers that send single file diffs never need the
+ *  whole patch, so for them it is only downloaded for its counts on an
+ *  unmetered network and if it is small.
+ */
+public class LintCache {
+    private static final String TAG = LintCache.class.getSimpleName();
+    private static final String LINT_DIR = "lint";
+    public static final int MAX_REVISIONS = 32;
+    private static final int MAX_IN_MEMORY = 8;
+
+    public interface LintListener {
+        /**
+         * Called on the main thread with the counts of every file of the
+         *  revision, by path
+         */
+        public void onLintLoaded(Map<String, PatchLint.Counts> counts);
+    }
+
+    /**
+     * A listener waiting for the counts of a revision
+     */
+    public class Request {
+        private final String mRevision;
+        private final LintListener mListener;
+
+        private Request(String revision, LintListener listener) {
+            mRevision = revision;
+            mListener = listener;
+        }
+
+        /**
+         * Stop waiting for the counts, the listener is not called and is
+         *  no longer referenced. The counts stop being loaded once nobody
+         *  waits for them. MUST BE CALLED ON MAIN THREAD
+         */
+        public void cancel() {
+            List<Request> waiting = mWaiting.get(mRevision);
+            if (waiting == null || !waiting.remove(this) || !waiting.isEmpty()) return;
+            mWaiting.remove(mRevision);
+            LoadTask task = mTasks.remove(mRevision);
+            if (task != null) task.cancel(true);
+        }
+    }
+
+    private static LintCache sInstance;
+
+    private final Context mContext;
+    private final FileStore mStore;
+    private final LinkedHashMap<String, Map<String, PatchLint.Counts>> mLoaded
+            = new LinkedHashMap<String, Map<String, PatchLint.Counts>>(0, 0.75f, true);
+    // Only used on the main thread
+    private final Map<String, List<Request>> mWaiting = new HashMap<String, List<Request>>();
+    private final Map<String, LoadTask> mTasks = new HashMap<String, LoadTask>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Diagnostics.CacheStats mStats = Diagnostics.getCacheStats("lint");
+
+    private LintCache(Context context) {
+        mContext = context;
+        mStore = new FileStore(context, LINT_DIR, MAX_REVISIONS);
+    }
+
+    public static synchronized LintCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LintCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Deliver the counts of a revision to the listener, from memory if
+     *  possible, otherwise from disk, once its patch is downloaded for a
+     *  diff, or by downloading the patch if that is cheap.
+     *  MUST BE CALLED ON MAIN THREAD
+     *
+     * @param gerritUrl base url of the Gerrit instance
+     * @param changeId id of the change, url encoded
+     * @param revision the commit SHA of the revision
+     * @param files the files of the revision, to estimate the patch's size
+     * @return a request to cancel when the counts are no longer wanted, or
+     *  null if they were delivered straight away
+     */
+    public Request load(final String gerritUrl, final String changeId, final String revision,
+                        List<ChangedFile> files, LintListener listener) {
+        if (revision == null) return null;
+        Map<String, PatchLint.Counts> loaded;
+        synchronized (this) {
+            loaded = mLoaded.get(revision);
+        }
+        if (loaded != null) {
+            mStats.hit();
+            listener.onLintLoaded(loaded);
+            return null;
+        }
+
+        Request request = new Request(revision, listener);
+        List<Request> waiting = mWaiting.get(revision);
+        if (waiting == null) {
+            waiting = new ArrayList<Request>(1);
+            mWaiting.put(revision, waiting);
+        }
+        waiting.add(request);
+
+        // Later requests for the same revision wait on the first one's task
+        if (!mTasks.containsKey(revision)) {
+            boolean mayDownload = Tools.isUnmeteredNetwork(mContext)
+                    && DiffPrefetchTask.estimateBytes(files) <= DiffPrefetchTask.MAX_BYTES;
+            LoadTask task = new LoadTask(gerritUrl, changeId, revision, mayDownload);
+            mTasks.put(revision, task);
+            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+        return request;
+    }
+
+    /**
+     * Reads the counts of a revision from disk, or works them out from its
+     *  patch if they are not there and that is allowed
+     */
+    private class LoadTask extends AsyncTask<Void, Void, Map<String, PatchLint.Counts>> {
+        private final String mGerritUrl;
+        private final String mChangeId;
+        private final String mRevision;
+        private final boolean mMayDownload;
+
+        private LoadTask(String gerritUrl, String changeId, String revision, boolean mayDownload) {
+            mGerritUrl = gerritUrl;
+            mChangeId = changeId;
+            mRevision = revision;
+            mMayDownload = mayDownload;
+        }
+
+        @Override
+        protected Map<String, PatchLint.Counts> doInBackground(Void... voids) {
+            Map<String, PatchLint.Counts> counts = readFromDisk(mRevision);
+            if (counts != null) {
+                mStats.hit();
+                remember(mRevision, counts);
+                return counts;
+            }
+            mStats.miss();
+            // Otherwise the whole patch is downloaded for the diffs anyway
+            if (!mMayDownload || isCancelled()
+                    || !ServerCapabilities.hasFileDiffs(mContext, mGerritUrl)) {
+                return null;
+            }
+            counts = analyse(DiffLoader.getPatchUrl(mGerritUrl, mChangeId, mRevision));
+            if (counts != null) store(mRevision, counts);
+            return counts;
+        }
+
+        @Override
+        protected void onPostExecute(Map<String, PatchLint.Counts> counts) {
+            if (mTasks.get(mRevision) == this) mTasks.remove(mRevision);
+            // If not, the waiting listeners get them when the patch is downloaded
+            if (counts != null) deliver(mRevision, counts);
+        }
+    }
+
+    /**
+     * Keep the counts of a revision worked out from its patch and pass
+     *  them to the listeners waiting for them. Writes to disk, so must not
+     *  be called on the main thread.
+     */
+    public void put(final String revision, Map<String, PatchLint.Counts> counts) {
+        final Map<String, PatchLint.Counts> stored = Collections.unmodifiableMap(counts);
+        store(revision, stored);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deliver(revision, stored);
+            }
+        });
+    }
+
+    private void store(String revision, Map<String, PatchLint.Counts> counts) {
+        remember(revision, counts);
+        writeToDisk(revision, counts);
+    }
+
+    private synchronized void remember(String revision, Map<String, PatchLint.Counts> counts) {
+        mLoaded.put(revision, counts);
+        if (mLoaded.size() > MAX_IN_MEMORY) {
+            mLoaded.remove(mLoaded.keySet().iterator().next());
+        }
+    }
+
+    // On the main thread
+    private void deliver(String revision, Map<String, PatchLint.Counts> counts) {
+        List<Request> waiting = mWaiting.remove(revision);
+        if (waiting == null) return;
+        for (Request request : waiting) {
+            request.mListener.onLintLoaded(counts);
+        }
+    }
+
+    private Map<String, PatchLint.Counts> analyse(String url) {
+        long startTime = System.currentTimeMillis();
+        CountingInputStream in = null;
+        try {
+            URLConnection connection = new URL(url).openConnection();
+            in = new CountingInputStream(connection.getInputStream());
+            Map<String, PatchLint.Counts> counts = PatchLint.analyse(PatchDecoder.open(in));
+            Diagnostics.recordRequest(Diagnostics.Endpoint.DIFF, in.getCount(), startTime, true);
+            return Collections.unmodifiableMap(counts);
+        } catch (IOException e) {
+            Diagnostics.recordRequest(Diagnostics.Endpoint.DIFF,
+                    in == null ? 0 : in.getCount(), startTime, false);
+            Log.e(TAG, "Failed to analyse " + url, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // let it go
+                }
+            }
+        }
+    }
+
+    private Map<String, PatchLint.Counts> readFromDisk(String revision) {
+        String counts = mStore.read(revision);
+        if (counts == null) return null;
+        try {
+            return Collections.unmodifiableMap(PatchLint.fromJSON(new JSONObject(counts)));
+        } catch (JSONException e) {
+            Log.e(TAG, "Stored lint counts are corrupt", e);
+            mStore.delete(revision);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String revision, Map<String, PatchLint.Counts> counts) {
+        try {
+            mStore.write(revision, PatchLint.toJSON(counts).toString());
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to encode lint counts", e);
+        }
+    }
+}
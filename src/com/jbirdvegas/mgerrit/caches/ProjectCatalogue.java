@@ -0,0 +1,352 @@
+package com.jbirdvegas.mgerrit.caches;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+import com.jbirdvegas.mgerrit.helpers.Diagnostics;
+import com.jbirdvegas.mgerrit.objects.JSONCommit;
+import com.jbirdvegas.mgerrit.objects.Project;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persisted list of the projects hosted on a Gerrit instance.
+ * <p/>
+ * The catalogue is kept sorted on disk (one file per instance) so the
+ *  project picker can be shown straight away. Whenever the stored copy
+ *  is older than {@link #MAX_AGE} a refresh is started in the background
+ *  and listeners are called a second time with the new list
+ *  (stale-while-revalidate).
+ */
+public class ProjectCatalogue {
+    private static final String TAG = ProjectCatalogue.class.getSimpleName();
+    private static final String CATALOGUE_DIR = "projects";
+    private static final String KEY_TIMESTAMP = "timestamp";
+    private static final String KEY_PROJECTS = "projects";
+    private static final String KEY_PATH = "path";
+    private static final String PROJECTS_QUERY = "projects/?d";
+    private static final String MAGIC_PREFIX = ")]}'";
+    // One hour, projects are not created or removed very often
+    public static final long MAX_AGE = 60 * 60 * 1000;
+    // Gerrit instances whose catalogues are kept on disk
+    private static final int MAX_CATALOGUES = 8;
+
+    public interface CatalogueListener {
+        /**
+         * Called on the main thread each time a (sorted) project list
+         *  becomes available: once for the stored copy and again if it
+         *  was refreshed from the server.
+         *
+         * @param projects sorted list of projects
+         * @param isFresh false if this list came from the stored catalogue
+         *                and a refresh is still outstanding
+         */
+        public void onProjectsLoaded(List<Project> projects, boolean isFresh);
+
+        /**
+         * Called on the main thread when nothing is stored for the
+         *  instance, so the list has to come from the server
+         */
+        public void onFetchStarted();
+
+        /** Called if there is no stored catalogue and the refresh failed */
+        public void onProjectsFailed(Exception e);
+    }
+
+    // Catalogues already read from disk, keyed by Gerrit url
+    private static final Map<String, ProjectCatalogue> sCatalogues
+            = new HashMap<String, ProjectCatalogue>();
+
+    private final String mGerritUrl;
+    private final FileStore mStore;
+    private List<Project> mProjects;
+    private long mTimestamp;
+    private RefreshTask mRefreshTask;
+    // Only used on the main thread
+    private AsyncTask<Void, Void, List<Project>> mReadTask;
+    private final List<CatalogueListener> mReadListeners = new ArrayList<CatalogueListener>();
+    private final Diagnostics.CacheStats mStats = Diagnostics.getCacheStats("projects");
+
+    private ProjectCatalogue(Context context, String gerritUrl) {
+        mGerritUrl = gerritUrl;
+        mStore = new FileStore(context, CATALOGUE_DIR, MAX_CATALOGUES);
+    }
+
+    public static synchronized ProjectCatalogue getInstance(Context context, String gerritUrl) {
+        ProjectCatalogue catalogue = sCatalogues.get(gerritUrl);
+        if (catalogue == null) {
+            catalogue = new ProjectCatalogue(context.getApplicationContext(), gerritUrl);
+            sCatalogues.put(gerritUrl, catalogue);
+        }
+        return catalogue;
+    }
+
+    /**
+     * Read the stored catalogue into memory in the background, so the
+     *  project picker does not have to wait for the disk. Nothing is fetched.
+     */
+    public static void preload(final Context context, final String gerritUrl) {
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... voids) {
+                getInstance(context, gerritUrl).readFromDisk();
+                return null;
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * @return the in-memory catalogue or null if it has not been loaded yet.
+     */
+    public synchronized List<Project> getProjects() {
+        return mProjects;
+    }
+
+    public synchronized boolean isStale() {
+        return mProjects == null
+                || System.currentTimeMillis() - mTimestamp > MAX_AGE;
+    }
+
+    /**
+     * Deliver the catalogue to the listener, reading it from disk if needed
+     *  and refreshing it from the server when it is stale.
+     *  MUST BE CALLED ON MAIN THREAD
+     */
+    public void load(final CatalogueListener listener) {
+        List<Project> projects = getProjects();
+        if (projects != null) {
+            mStats.hit();
+            boolean stale = isStale();
+            listener.onProjectsLoaded(projects, !stale);
+            if (stale) refresh(listener);
+            return;
+        }
+
+        if (!mReadListeners.contains(listener)) mReadListeners.add(listener);
+        if (mReadTask != null) return;
+        // Not on the serial executor, where it would wait behind the network tasks
+        mReadTask = new AsyncTask<Void, Void, List<Project>>() {
+            @Override
+            protected List<Project> doInBackground(Void... voids) {
+                return readFromDisk();
+            }
+
+            @Override
+            protected void onPostExecute(List<Project> stored) {
+                mReadTask = null;
+                boolean stale = isStale();
+                if (stored != null) {
+                    mStats.hit();
+                } else {
+                    mStats.miss();
+                }
+                // Listeners removed while the catalogue was being read are not called
+                List<CatalogueListener> listeners = new ArrayList<CatalogueListener>(mReadListeners);
+                mReadListeners.clear();
+                for (CatalogueListener listener : listeners) {
+                    if (stored != null) {
+                        listener.onProjectsLoaded(stored, !stale);
+                    } else {
+                        listener.onFetchStarted();
+                    }
+                    if (stale) refresh(listener);
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Fetch the project list from the server. Only one refresh will be
+     *  running at a time, later listeners are added to the running one.
+     */
+    public void refresh(CatalogueListener listener) {
+        if (mRefreshTask == null || mRefreshTask.getStatus() == AsyncTask.Status.FINISHED) {
+            mRefreshTask = new RefreshTask();
+            mRefreshTask.addListener(listener);
+            mRefreshTask.execute(mGerritUrl + PROJECTS_QUERY);
+        } else {
+            mRefreshTask.addListener(listener);
+        }
+    }
+
+    /**
+     * Stop notifying the listener of the catalogue being read or any refresh
+     *  in progress. Neither is cancelled, so the catalogue is still updated.
+     *  MUST BE CALLED ON MAIN THREAD
+     */
+    public void removeListener(CatalogueListener listener) {
+        mReadListeners.remove(listener);
+        if (mRefreshTask != null) mRefreshTask.removeListener(listener);
+    }
+
+    private synchronized List<Project> readFromDisk() {
+        if (mProjects != null) return mProjects;
+        String catalogue = mStore.read(mGerritUrl);
+        if (catalogue == null) return null;
+
+        try {
+            JSONObject stored = new JSONObject(catalogue);
+            JSONArray array = stored.getJSONArray(KEY_PROJECTS);
+            // Already sorted when it was written
+            List<Project> projects = new ArrayList<Project>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject project = array.getJSONObject(i);
+                projects.add(Project.getInstance(project.getString(KEY_PATH),
+                        project.getString(JSONCommit.KEY_KIND),
+                        project.getString(JSONCommit.KEY_ID)));
+            }
+            mProjects = Collections.unmodifiableList(projects);
+            mTimestamp = stored.getLong(KEY_TIMESTAMP);
+            mStats.setBytes(catalogue.length());
+        } catch (JSONException e) {
+            Log.e(TAG, "Stored project catalogue is corrupt", e);
+            mStore.delete(mGerritUrl);
+        }
+        return mProjects;
+    }
+
+    private synchronized void writeToDisk(List<Project> projects, long timestamp) {
+        try {
+            JSONArray array = new JSONArray();
+            for (Project project : projects) {
+                array.put(new JSONObject()
+                        .put(KEY_PATH, project.getmPath())
+                        .put(JSONCommit.KEY_KIND, project.getmKind())
+                        .put(JSONCommit.KEY_ID, project.getmId()));
+            }
+            String catalogue = new JSONObject()
+                    .put(KEY_TIMESTAMP, timestamp)
+                    .put(KEY_PROJECTS, array)
+                    .toString();
+            mStore.write(mGerritUrl, catalogue);
+            mStats.setBytes(catalogue.length());
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to encode project catalogue", e);
+        }
+    }
+
+    private static List<Project> parseProjects(String jsonString) throws JSONException {
+        JSONObject projectsJson = new JSONObject(jsonString);
+        List<Project> projects = new ArrayList<Project>(projectsJson.length());
+        Iterator stringIterator = projectsJson.keys();
+        while (stringIterator.hasNext()) {
+            String path = (String) stringIterator.next();
+            JSONObject projJson = projectsJson.getJSONObject(path);
+            String kind = projJson.getString(JSONCommit.KEY_KIND);
+            String id = projJson.getString(JSONCommit.KEY_ID);
+            projects.add(Project.getInstance(path, kind, id));
+        }
+        Collections.sort(projects);
+        return Collections.unmodifiableList(projects);
+    }
+
+    /**
+     * Downloads, parses, sorts and stores the project list entirely off
+     *  the main thread. No progress dialog is shown.
+     */
+    private class RefreshTask extends AsyncTask<String, Void, List<Project>> {
+        private final List<CatalogueListener> mListeners = new ArrayList<CatalogueListener>();
+        private Exception mException;
+
+        void addListener(CatalogueListener listener) {
+            if (listener != null && !mListeners.contains(listener)) {
+                mListeners.add(listener);
+            }
+        }
+
+        void removeListener(CatalogueListener listener) {
+            mListeners.remove(listener);
+        }
+
+        @Override
+        protected List<Project> doInBackground(String... urls) {
+            BufferedReader reader = null;
+            StringBuilder builder = new StringBuilder(0);
+            long startTime = System.currentTimeMillis();
+            try {
+                URLConnection connection = new URL(urls[0]).openConnection();
+                reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+                String line;
+                boolean isFirstLine = true;
+                while ((line = reader.readLine()) != null) {
+                    // remove magic chars
+                    if (isFirstLine && line.startsWith(MAGIC_PREFIX)) {
+                        line = line.substring(MAGIC_PREFIX.length());
+                    }
+                    isFirstLine = false;
+                    builder.append(line).append('\n');
+                }
+                Diagnostics.recordRequest(Diagnostics.Endpoint.PROJECTS,
+                        builder.length(), startTime, true);
+                List<Project> projects = parseProjects(builder.toString());
+                long timestamp = System.currentTimeMillis();
+                writeToDisk(projects, timestamp);
+                synchronized (ProjectCatalogue.this) {
+                    mProjects = projects;
+                    mTimestamp = timestamp;
+                }
+                return projects;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to refresh project catalogue", e);
+                Diagnostics.recordRequest(Diagnostics.Endpoint.PROJECTS,
+                        builder.length(), startTime, false);
+                mException = e;
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to parse project list", e);
+                mException = e;
+            } finally {
+                if (reader != null) {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        // failed to close reader
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(List<Project> projects) {
+            for (CatalogueListener listener : mListeners) {
+                if (projects != null) {
+                    listener.onProjectsLoaded(projects, true);
+                } else if (getProjects() == null) {
+                    // Only report the failure if there is nothing to show
+                    listener.onProjectsFailed(mException);
+                }
+            }
+            mListeners.clear();
+        }
+    }
+}
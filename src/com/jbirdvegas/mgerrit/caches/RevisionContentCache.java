@@ -0,0 +1,180 @@
+package com.jbirdvegas.mgerrit.caches;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.app.ActivityManager;
+import android.content.Context;
+import com.jbirdvegas.mgerrit.helpers.Diagnostics;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory LRU cache of what has been downloaded of each revision of a
+ *  change: the lines of its files and which files differ from another
+ *  revision.
+ * <p/>
+ * Revisions are commit SHA-1s, so nothing here ever goes stale and a file
+ *  downloaded to compare one pair of patch sets is reused for any other
+ *  pair that includes the same patch set.
+ */
+public class RevisionContentCache implements CacheCoordinator.TrimmableCache {
+    // Stands in for a file that is not in the revision
+    private static final String[] ABSENT = new String[0];
+    // Rough overhead of an entry and of each line object
+    private static final int ENTRY_BYTES = 64;
+    private static final int LINE_BYTES = 40;
+    // Pairs of revisions whose changed files are kept
+    public static final int MAX_PAIRS = 16;
+
+    private static RevisionContentCache sInstance;
+
+    private final LinkedHashMap<String, String[]> mFiles
+            = new LinkedHashMap<String, String[]>(0, 0.75f, true);
+    private final LinkedHashMap<String, Set<String>> mChangedPaths
+            = new LinkedHashMap<String, Set<String>>(0, 0.75f, true);
+    private final int mMaxBytes;
+    private int mSize;
+    private final Diagnostics.CacheStats mStats = Diagnostics.getCacheStats("revision_content");
+
+    /**
+     * The lines of a file, or the lack of it, in one revision
+     */
+    public static class Content {
+        private final String[] mLines;
+
+        private Content(String[] lines) {
+            mLines = lines;
+        }
+
+        /** @return the lines of the file or null if it is not in the revision */
+        public String[] getLines() {
+            return mLines == ABSENT ? null : mLines;
+        }
+    }
+
+    private RevisionContentCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cache shared by all patch set comparisons, sized using a
+     *  portion of the available RAM.
+     */
+    public static synchronized RevisionContentCache getInstance(Context context) {
+        if (sInstance == null) {
+            ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            sInstance = new RevisionContentCache(1024 * 1024 * am.getMemoryClass() / 16);
+            CacheCoordinator.getInstance().register(sInstance);
+        }
+        return sInstance;
+    }
+
+    private static String getKey(String revision, String path) {
+        return revision + ':' + path;
+    }
+
+    /**
+     * @return the file as it is in the revision, or null if it has not been
+     *  downloaded
+     */
+    public synchronized Content getFile(String revision, String path) {
+        String[] lines = mFiles.get(getKey(revision, path));
+        if (lines == null) {
+            mStats.miss();
+            return null;
+        }
+        mStats.hit();
+        return new Content(lines);
+    }
+
+    /**
+     * @param lines the lines of the file or null if it is not in the revision
+     */
+    public synchronized void putFile(String revision, String path, String[] lines) {
+        String[] previous = mFiles.put(getKey(revision, path), lines == null ? ABSENT : lines);
+        if (previous != null) mSize -= estimateBytes(previous);
+        mSize += estimateBytes(lines == null ? ABSENT : lines);
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * @return the paths of the files that differ between the two revisions,
+     *  or null if they have not been listed yet
+     */
+    public synchronized Set<String> getChangedPaths(String base, String revision) {
+        return mChangedPaths.get(base + ".." + revision);
+    }
+
+    public synchronized void putChangedPaths(String base, String revision, Set<String> paths) {
+        // Small next to the files themselves, so only the number of pairs is limited
+        mChangedPaths.put(base + ".." + revision, Collections.unmodifiableSet(paths));
+        while (mChangedPaths.size() > MAX_PAIRS) {
+            Iterator<String> it = mChangedPaths.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static int estimateBytes(String[] lines) {
+        int bytes = ENTRY_BYTES;
+        for (String line : lines) {
+            bytes += LINE_BYTES + 2 * line.length();
+        }
+        return bytes;
+    }
+
+    @Override
+    public int getTrimTier() {
+        return CacheCoordinator.TIER_PARSED;
+    }
+
+    /**
+     * Evict the given share of the files, least recently used first.
+     */
+    @Override
+    public synchronized long trim(float fraction) {
+        long target = (long) (mSize * fraction);
+        long freed = 0;
+        Iterator<Map.Entry<String, String[]>> it = mFiles.entrySet().iterator();
+        while (it.hasNext() && (freed < target || fraction >= 1f)) {
+            int bytes = estimateBytes(it.next().getValue());
+            it.remove();
+            mSize -= bytes;
+            freed += bytes;
+            mStats.evicted(1);
+        }
+        if (fraction >= 1f) mChangedPaths.clear();
+        mStats.setBytes(mSize);
+        return freed;
+    }
+
+    // Always keeps the newest file, even if it is over the budget by itself
+    private void trimToSize(int maxBytes) {
+        Iterator<Map.Entry<String, String[]>> it = mFiles.entrySet().iterator();
+        while (mFiles.size() > 1 && mSize > maxBytes) {
+            mSize -= estimateBytes(it.next().getValue());
+            it.remove();
+            mStats.evicted(1);
+        }
+        mStats.setBytes(mSize);
+    }
+}
@@ -0,0 +1,179 @@
+package com.jbirdvegas.mgerrit.caches;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import com.jbirdvegas.mgerrit.helpers.Diagnostics;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What the REST API of each Gerrit instance supports, worked out from the
+ *  server version. The answer is kept across runs and asked for again
+ *  once it is old, as the server may have been upgraded since.
+ */
+public final class ServerCapabilities {
+    private static final String TAG = ServerCapabilities.class.getSimpleName();
+    private static final String PREFS_NAME = "server_capabilities";
+    // Appended to the Gerrit url for the key of when the version was asked for
+    private static final String CHECKED_SUFFIX = "#checked";
+    private static final String VERSION_QUERY = "config/server/version";
+    private static final String MAGIC_PREFIX = ")]}'";
+    // Stored for servers that do not know the version query (before 2.8)
+    private static final String NO_VERSION = "";
+    private static final long VERSION_MAX_AGE = 7 * 24 * 60 * 60 * 1000L;
+    // Not knowing the query may be a proxy's doing, so that is asked again sooner
+    private static final long NO_VERSION_MAX_AGE = 60 * 60 * 1000L;
+
+    // Per file diffs (/files/{file-id}/diff) arrived together with the version query
+    private static final int FILE_DIFF_MAJOR = 2;
+    private static final int FILE_DIFF_MINOR = 8;
+
+    private static class Version {
+        private final String mVersion;
+        private final long mChecked;
+
+        private Version(String version, long checked) {
+            mVersion = version;
+            mChecked = checked;
+        }
+
+        private boolean isStale(long now) {
+            long age = now - mChecked;
+            long maxAge = NO_VERSION.equals(mVersion) ? NO_VERSION_MAX_AGE : VERSION_MAX_AGE;
+            return age < 0 || age > maxAge;
+        }
+    }
+
+    // Versions already looked up, keyed by Gerrit url
+    private static final Map<String, Version> sVersions = new HashMap<String, Version>();
+
+    private ServerCapabilities() { }
+
+    /**
+     * @return true if the instance can send the diff of a single file.
+     *  May ask the server, so must not be called on the main thread.
+     */
+    public static boolean hasFileDiffs(Context context, String gerritUrl) {
+        String version = getVersion(context, gerritUrl);
+        return version != null && isAtLeast(version, FILE_DIFF_MAJOR, FILE_DIFF_MINOR);
+    }
+
+    /**
+     * @return the version of the instance, an empty string if it is too old
+     *  to say and null if it could not be reached
+     */
+    public static String getVersion(Context context, String gerritUrl) {
+        long now = System.currentTimeMillis();
+        Version known;
+        synchronized (sVersions) {
+            known = sVersions.get(gerritUrl);
+        }
+        if (known != null && !known.isStale(now)) return known.mVersion;
+
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (known == null) {
+            String stored = prefs.getString(gerritUrl, null);
+            if (stored != null) {
+                // Answers stored before the time was kept count as stale
+                known = new Version(stored, prefs.getLong(gerritUrl + CHECKED_SUFFIX, 0));
+                remember(gerritUrl, known);
+                if (!known.isStale(now)) return stored;
+            }
+        }
+
+        // Not under the lock, other servers' answers are not held up by this one
+        String version = fetchVersion(gerritUrl);
+        // Keep using the old answer if the server could not be reached
+        if (version == null) return known == null ? null : known.mVersion;
+        prefs.edit()
+                .putString(gerritUrl, version)
+                .putLong(gerritUrl + CHECKED_SUFFIX, now)
+                .commit();
+        remember(gerritUrl, new Version(version, now));
+        return version;
+    }
+
+    private static void remember(String gerritUrl, Version version) {
+        synchronized (sVersions) {
+            sVersions.put(gerritUrl, version);
+        }
+    }
+
+    private static String fetchVersion(String gerritUrl) {
+        BufferedReader reader = null;
+        long startTime = System.currentTimeMillis();
+        long bytes = 0;
+        try {
+            URLConnection connection = new URL(gerritUrl + VERSION_QUERY).openConnection();
+            reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+            StringBuilder builder = new StringBuilder(0);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                bytes += line.length() + 1;
+                // remove magic chars
+                if (line.startsWith(MAGIC_PREFIX)) line = line.substring(MAGIC_PREFIX.length());
+                builder.append(line.trim());
+            }
+            Diagnostics.recordRequest(Diagnostics.Endpoint.OTHER, bytes, startTime, true);
+            // The version is sent as a JSON string
+            String version = builder.toString().replace("\"", "");
+            Log.d(TAG, "Gerrit version of " + gerritUrl + ": " + version);
+            return version;
+        } catch (FileNotFoundException e) {
+            // Not found, so the server is older than the query
+            Diagnostics.recordRequest(Diagnostics.Endpoint.OTHER, bytes, startTime, true);
+            return NO_VERSION;
+        } catch (IOException e) {
+            Diagnostics.recordRequest(Diagnostics.Endpoint.OTHER, bytes, startTime, false);
+            Log.e(TAG, "Failed to get the Gerrit version", e);
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // let it go
+                }
+            }
+        }
+    }
+
+    /**
+     * @param version e.g. "2.8.1" or "2.9-rc0-12-gabcdef"
+     */
+    static boolean isAtLeast(String version, int major, int minor) {
+        String[] parts = version.split("[^0-9]+", 3);
+        try {
+            int versionMajor = Integer.parseInt(parts[0]);
+            int versionMinor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return versionMajor > major || (versionMajor == major && versionMinor >= minor);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
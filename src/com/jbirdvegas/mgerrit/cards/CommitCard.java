@@ -32,22 +32,18 @@ import com.jbirdvegas.mgerrit.Prefs;
 import com.jbirdvegas.mgerrit.R;
 import com.jbirdvegas.mgerrit.StaticWebAddress;
 import com.jbirdvegas.mgerrit.helpers.GravatarHelper;
+import com.jbirdvegas.mgerrit.helpers.TextPreparer;
 import com.jbirdvegas.mgerrit.listeners.TrackingClickListener;
 import com.jbirdvegas.mgerrit.objects.ChangeLogRange;
-import com.jbirdvegas.mgerrit.objects.ChangedFile;
 import com.jbirdvegas.mgerrit.objects.CommitterObject;
 import com.jbirdvegas.mgerrit.objects.JSONCommit;
 
-import java.util.Arrays;
-import java.util.List;
-
 public class CommitCard extends Card {
     private static final String TAG = CommitCard.class.getSimpleName();
 
     private final CommitterObject mCommitterObject;
     private final RequestQueue mRequestQuery;
     private JSONCommit mCommit;
-    private TextView mProjectTextView;
     private ChangeLogRange mChangeLogRange;
 
     public CommitCard(JSONCommit commit,
@@ -59,19 +55,88 @@ public class CommitCard extends Card {
         this.mRequestQuery = requestQueue;
     }
 
+    // Views of an inflated commit card, looked up once per layout
+    private static class ViewHolder {
+        TextView owner;
+        TextView project;
+        TextView title;
+        TextView lastUpdated;
+        TextView status;
+        TextView message;
+        TextView changedFiles;
+        ImageView browser;
+        ImageView share;
+        ImageView moarInfo;
+        int defaultStatusColor;
+    }
+
+    @Override
+    public boolean isRecyclable() {
+        return true;
+    }
+
+    @Override
+    public Object getKey() {
+        return mCommit.getId();
+    }
+
+    /**
+     * Gerrit bumps the updated time of a change whenever anything on it
+     *  changes, so there is nothing new to show while it stays the same.
+     */
+    @Override
+    public boolean hasSameContent(Card other) {
+        if (!(other instanceof CommitCard)) return false;
+        CommitCard card = (CommitCard) other;
+        String updated = mCommit.getRawLastUpdatedDate();
+        return updated != null
+                && updated.equals(card.mCommit.getRawLastUpdatedDate())
+                && mChangeLogRange == card.mChangeLogRange;
+    }
+
     @Override
     public View getCardContent(final Context context) {
-        int mGreen = context.getResources().getColor(R.color.text_green);
-        int mRed = context.getResources().getColor(R.color.text_red);
+        View commitCardView = newCardContent(context);
+        bindCardContent(context, commitCardView);
+        return commitCardView;
+    }
+
+    @Override
+    public View newCardContent(Context context) {
         LayoutInflater inflater = (LayoutInflater)
                 context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         View commitCardView = inflater.inflate(R.layout.commit_card, null);
 
+        ViewHolder holder = new ViewHolder();
+        holder.owner = (TextView) commitCardView.findViewById(R.id.commit_card_commit_owner);
+        holder.project = (TextView) commitCardView.findViewById(R.id.commit_card_project_name);
+        holder.title = (TextView) commitCardView.findViewById(R.id.commit_card_title);
+        holder.lastUpdated = (TextView) commitCardView.findViewById(R.id.commit_card_last_updated);
+        holder.status = (TextView) commitCardView.findViewById(R.id.commit_card_commit_status);
+        holder.message = (TextView) commitCardView.findViewById(R.id.commit_card_message);
+        holder.changedFiles = (TextView) commitCardView.findViewById(R.id.commit_card_changed_files);
+        holder.browser = (ImageView) commitCardView.findViewById(R.id.commit_card_view_in_browser);
+        holder.share = (ImageView) commitCardView.findViewById(R.id.commit_card_share_info);
+        holder.moarInfo = (ImageView) commitCardView.findViewById(R.id.commit_card_moar_info);
+        holder.defaultStatusColor = holder.status.getCurrentTextColor();
+        commitCardView.setTag(holder);
+        return commitCardView;
+    }
+
+    /**
+     * Fill in a commit card, the view may have been showing another commit
+     *  so everything that is set conditionally is reset as well.
+     */
+    @Override
+    public void bindCardContent(final Context context, View commitCardView) {
+        ViewHolder holder = (ViewHolder) commitCardView.getTag();
+
         // I hate UI code so instead of embedding a LinearLayout for just an
         // ImageView with an associated TextView we just use the TextView's
         // built in CompoundDrawablesWithIntrinsicBounds(Drawable, Drawable, Drawable, Drawable)
         // to handle the layout work. This also has a benefit of better performance!
-        TextView ownerTextView = (TextView) commitCardView.findViewById(R.id.commit_card_commit_owner);
+        TextView ownerTextView = holder.owner;
+        ownerTextView.setCompoundDrawablesWithIntrinsicBounds(null, null, null, null);
         // set the text
         if (mCommit.getOwnerObject() != null) {
             ownerTextView.setText(mCommit.getOwnerObject().getName());
@@ -85,40 +150,37 @@ public class CommitCard extends Card {
             GravatarHelper.attachGravatarToTextView(ownerTextView,
                     mCommit.getOwnerObject().getEmail(),
                     mRequestQuery);
+        } else {
+            ownerTextView.setText(null);
+            ownerTextView.setTag(null);
+            // A gravatar still loading for the previous owner must not be shown
+            ownerTextView.setTag(R.id.gravatar_url, null);
+            ownerTextView.setOnClickListener(null);
         }
-        mProjectTextView = (TextView) commitCardView.findViewById(R.id.commit_card_project_name);
-        mProjectTextView.setText(mCommit.getProject());
-        mProjectTextView.setTextSize(18f);
+        TextView projectTextView = holder.project;
+        projectTextView.setText(mCommit.getProject());
+        projectTextView.setTextSize(18f);
         TrackingClickListener trackingClickListener =
                 new TrackingClickListener(context, mCommit.getProject(), mChangeLogRange);
         if (mCommitterObject != null) {
             trackingClickListener.addUserToStalk(mCommitterObject);
         }
-        mProjectTextView.setOnClickListener(trackingClickListener);
-
-        ((TextView) commitCardView.findViewById(R.id.commit_card_title))
-                .setText(mCommit.getSubject());
-        ((TextView) commitCardView.findViewById(R.id.commit_card_last_updated))
-                .setText(mCommit.getLastUpdatedDate(context));
-        ((TextView) commitCardView.findViewById(R.id.commit_card_commit_status))
-                .setText(mCommit.getStatus().toString());
+        projectTextView.setOnClickListener(trackingClickListener);
+
+        holder.title.setText(mCommit.getSubject());
+        // Formatted in the background when the list was loaded
+        TextPreparer.getInstance(context).onShown(mCommit);
+        holder.lastUpdated.setText(mCommit.getPreparedLastUpdatedDate(context));
+        holder.status.setText(mCommit.getStatus().toString());
         if (mCommit.getStatus().toString() == "MERGED") {
-            ((TextView) commitCardView.findViewById(R.id.commit_card_commit_status)).setTextColor(mGreen);
+            holder.status.setTextColor(context.getResources().getColor(R.color.text_green));
         } else if (mCommit.getStatus().toString() == "ABANDONED") {
-            ((TextView) commitCardView.findViewById(R.id.commit_card_commit_status)).setTextColor(mRed);
+            holder.status.setTextColor(context.getResources().getColor(R.color.text_red));
+        } else {
+            holder.status.setTextColor(holder.defaultStatusColor);
         }
-        TextView messageTv = (TextView)
-                commitCardView.findViewById(R.id.commit_card_message);
-        TextView changedFilesTv = (TextView)
-                commitCardView.findViewById(R.id.commit_card_changed_files);
-        ImageView browserView = (ImageView) commitCardView.findViewById(
-                R.id.commit_card_view_in_browser);
-        ImageView shareView = (ImageView) commitCardView.findViewById(
-                R.id.commit_card_share_info);
-        ImageView moarInfo = (ImageView) commitCardView.findViewById(
-                R.id.commit_card_moar_info);
-
-        moarInfo.setOnClickListener(new View.OnClickListener() {
+
+        holder.moarInfo.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
                 Intent intent = new Intent(context, PatchSetViewerActivity.class);
@@ -138,7 +200,7 @@ public class CommitCard extends Card {
                 context.startActivity(intent);
             }
         });
-        shareView.setOnClickListener(new View.OnClickListener() {
+        holder.share.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
                 Intent intent = new Intent(android.content.Intent.ACTION_SEND);
@@ -149,7 +211,7 @@ public class CommitCard extends Card {
                 context.startActivity(intent);
             }
         });
-        browserView.setOnClickListener(new View.OnClickListener() {
+        holder.browser.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
                 Intent browserIntent = new Intent(Intent.ACTION_VIEW,
@@ -159,14 +221,14 @@ public class CommitCard extends Card {
         });
         // we only have these if we direct query the commit specifically
         if (mCommit.getCurrentRevision() != null) {
-            messageTv.setText(mCommit.getMessage());
-            changedFilesTv.setText(
-                    buildChangedFilesString(mCommit.getChangedFiles()));
+            holder.message.setText(mCommit.getMessage());
+            holder.message.setVisibility(View.VISIBLE);
+            holder.changedFiles.setText(mCommit.getPreparedChangedFiles(context));
+            holder.changedFiles.setVisibility(View.VISIBLE);
         } else {
-            messageTv.setVisibility(View.GONE);
-            changedFilesTv.setVisibility(View.GONE);
+            holder.message.setVisibility(View.GONE);
+            holder.changedFiles.setVisibility(View.GONE);
         }
-        return commitCardView;
     }
 
     public CommitCard setChangeLogRange(ChangeLogRange logRange) {
@@ -181,14 +243,4 @@ public class CommitCard extends Card {
     public JSONCommit getJsonCommit() {
         return mCommit;
     }
-
-    /**
-     * returns the ChangedFile list as a string
-     *
-     * @param fileList List of ChangedFiles
-     * @return String representation of list
-     */
-    private String buildChangedFilesString(List<ChangedFile> fileList) {
-        return Arrays.toString(fileList.toArray());
-    }
-}
\ No newline at end of file
+}
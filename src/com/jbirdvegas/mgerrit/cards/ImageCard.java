@@ -66,7 +66,7 @@ public class ImageCard extends Card {
                 GravatarHelper.getGravatarUrl(
                         mCommitterObject.getEmail()),
                 new ImageLoader(mRequestQuery,
-                        new BitmapLruCache(context)));
+                        BitmapLruCache.getInstance(context)));
         ((TextView) view.findViewById(R.id.card_picture_user))
                 .setText(mCommitterObject.getEmail());
         view.findViewById(R.id.remove_content).setOnClickListener(new View.OnClickListener() {
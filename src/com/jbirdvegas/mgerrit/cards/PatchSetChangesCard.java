@@ -26,66 +26,84 @@ import android.net.Uri;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.view.ViewGroup;
+import android.widget.FrameLayout;
 import android.widget.TextView;
 import com.fima.cardsui.objects.Card;
 import com.jbirdvegas.mgerrit.Prefs;
 import com.jbirdvegas.mgerrit.R;
 import com.jbirdvegas.mgerrit.dialogs.DiffDialog;
+import com.jbirdvegas.mgerrit.helpers.PatchLint;
 import com.jbirdvegas.mgerrit.helpers.Tools;
 import com.jbirdvegas.mgerrit.objects.ChangedFile;
 import com.jbirdvegas.mgerrit.objects.JSONCommit;
 
-import java.util.List;
+import java.util.SortedMap;
 
+/**
+ * A single changed file of a patch set. The detail screen adds one of these
+ *  per file so only the files on screen have views.
+ */
 public class PatchSetChangesCard extends Card {
     private static final String TAG = PatchSetChangesCard.class.getSimpleName();
     private static final boolean VERBOSE = false;
     private JSONCommit mCommit;
-    private LayoutInflater mInflater;
+    private final ChangedFile mChangedFile;
     private final Activity mCardsActivity;
     private AlertDialog mAlertDialog;
+    private PatchLint.Counts mLint;
 
-    public PatchSetChangesCard(JSONCommit commit, Activity activity) {
+    public PatchSetChangesCard(JSONCommit commit, ChangedFile changedFile, Activity activity) {
         mCommit = commit;
+        mChangedFile = changedFile;
         mCardsActivity = activity;
     }
 
+    public ChangedFile getChangedFile() {
+        return mChangedFile;
+    }
+
+    private static class ViewHolder {
+        TextView path;
+        TextView inserted;
+        TextView deleted;
+        TextView insText;
+        TextView delText;
+        TextView lint;
+    }
+
+    @Override
+    public boolean isRecyclable() {
+        return true;
+    }
+
     @Override
     public View getCardContent(final Context context) {
-        mInflater = (LayoutInflater)
-                context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        ViewGroup rootView = (ViewGroup) mInflater.inflate(R.layout.linear_layout, null);
-        List<ChangedFile> changedFileList = mCommit.getChangedFiles();
-        // its possible for this to be null so watch out
-        if (changedFileList == null) {
-            // EEK! just show a simple not found message
-            // TODO Show some error message?
-        } else {
-            for (ChangedFile changedFile : changedFileList) {
-                // generate and add the Changed File Views
-                if (rootView != null) {
-                    rootView.addView(generateChangedFileView(changedFile, context));
-                }
+        View view = newCardContent(context);
+        bindCardContent(context, view);
+        return view;
+    }
 
-            }
-        }
-        return rootView;
+    @Override
+    public View newCardContent(Context context) {
+        LayoutInflater inflater = (LayoutInflater)
+                context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        View innerRootView = inflater.inflate(R.layout.patchset_file_changed_list_item, null);
+        ViewHolder holder = new ViewHolder();
+        holder.path = (TextView) innerRootView.findViewById(R.id.changed_file_path);
+        holder.inserted = (TextView) innerRootView.findViewById(R.id.changed_file_inserted);
+        holder.deleted = (TextView) innerRootView.findViewById(R.id.changed_file_deleted);
+        holder.insText = (TextView) innerRootView.findViewById(R.id.inserted_text);
+        holder.delText = (TextView) innerRootView.findViewById(R.id.deleted_text);
+        holder.lint = (TextView) innerRootView.findViewById(R.id.changed_file_lint);
+        innerRootView.setTag(R.id.view_holder, holder);
+        return innerRootView;
     }
 
-    private View generateChangedFileView(final ChangedFile changedFile, final Context context) {
-        View innerRootView = mInflater.inflate(R.layout.patchset_file_changed_list_item, null);
+    @Override
+    public void bindCardContent(final Context context, View innerRootView) {
+        final ChangedFile changedFile = mChangedFile;
+        ViewHolder holder = (ViewHolder) innerRootView.getTag(R.id.view_holder);
         innerRootView.setTag(changedFile);
-        TextView path = (TextView)
-                innerRootView.findViewById(R.id.changed_file_path);
-        TextView inserted = (TextView)
-                innerRootView.findViewById(R.id.changed_file_inserted);
-        TextView deleted = (TextView)
-                innerRootView.findViewById(R.id.changed_file_deleted);
-        TextView insText = (TextView)
-                innerRootView.findViewById(R.id.inserted_text);
-        TextView delText = (TextView)
-                innerRootView.findViewById(R.id.deleted_text);
         String changedFilePath = changedFile.getPath();
         int insertedInFile = changedFile.getInserted();
         int deletedInFile = changedFile.getDeleted();
@@ -96,27 +114,30 @@ public class PatchSetChangesCard extends Card {
                     + " objectToString()=" + changedFile.toString());
         }
         // we always have a path
-        if (path != null) {
-            path.setText(changedFilePath);
-            // we may not have inserted lines so remove if unneeded
-            if (changedFile.getInserted() == Integer.MIN_VALUE) {
-                inserted.setVisibility(View.GONE);
-                insText.setVisibility(View.GONE);
-            } else {
-                int mGreen = context.getResources().getColor(R.color.text_green);
-                inserted.setText('+' + String.valueOf(changedFile.getInserted()));
-                inserted.setTextColor(mGreen);
-            }
-            // we may not have deleted lines so remove if unneeded
-            if (changedFile.getDeleted() == Integer.MIN_VALUE) {
-                deleted.setVisibility(View.GONE);
-                delText.setVisibility(View.GONE);
-            } else {
-                int mRed = context.getResources().getColor(R.color.text_red);
-                deleted.setText('-' + String.valueOf(changedFile.getDeleted()));
-                deleted.setTextColor(mRed);
-            }
+        holder.path.setText(changedFilePath);
+        // we may not have inserted lines so remove if unneeded
+        if (insertedInFile == Integer.MIN_VALUE) {
+            holder.inserted.setVisibility(View.GONE);
+            holder.insText.setVisibility(View.GONE);
+        } else {
+            int mGreen = context.getResources().getColor(R.color.text_green);
+            holder.inserted.setText('+' + String.valueOf(insertedInFile));
+            holder.inserted.setTextColor(mGreen);
+            holder.inserted.setVisibility(View.VISIBLE);
+            holder.insText.setVisibility(View.VISIBLE);
         }
+        // we may not have deleted lines so remove if unneeded
+        if (deletedInFile == Integer.MIN_VALUE) {
+            holder.deleted.setVisibility(View.GONE);
+            holder.delText.setVisibility(View.GONE);
+        } else {
+            int mRed = context.getResources().getColor(R.color.text_red);
+            holder.deleted.setText('-' + String.valueOf(deletedInFile));
+            holder.deleted.setTextColor(mRed);
+            holder.deleted.setVisibility(View.VISIBLE);
+            holder.delText.setVisibility(View.VISIBLE);
+        }
+        bindLint(context, holder.lint);
         innerRootView.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(final View view) {
@@ -126,19 +147,7 @@ public class PatchSetChangesCard extends Card {
                 ad.setPositiveButton(R.string.context_menu_view_diff_dialog, new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialogInterface, int i) {
-                        // http://gerrit.aokp.co/changes/AOKP%2Fexternal_jbirdvegas_mGerrit~master~I0d360472ee328c6cde0f8303b19a35f175869e68/revisions/current/patch
-                        // or
-                        // after v2.8 goes stable (returns Base64 encoded String)
-                        // curl https://gerrit-review.googlesource.com/changes/gerrit~master~Idc97af3d01999889d9b1a818fbd1bbe0b274dcf3/revisions/77e974c7070e274aaca3f2413a3fb53031d0f50e/files/ReleaseNotes%2fReleaseNotes-2.5.3.txt/content
-                        ///changes/{change-id}/revisions/{revision-id}/files/{file-id}/content
-                        String base = "%schanges/%s/revisions/current/patch";
-                        String base64 = "%schanges/%s/revisions/%s/files/%s/content";
-                        String url = String.format(base,
-                                Prefs.getCurrentGerrit(mCardsActivity),
-                                mCommit.getId());
-                                //mCommit.getCurrentRevision(),
-                                //URLEncoder.encode(((ChangedFile) view.getTag()).getPath()));
-                        launchDiffDialog(url, changedFile);
+                        launchDiffDialog(changedFile);
                     }
                 });
 
@@ -157,16 +166,99 @@ public class PatchSetChangesCard extends Card {
                         context.startActivity(browserIntent);
                     }
                 });
+                // Only once there is an earlier patch set to compare with
+                if (!mCommit.getRevisions().headMap(mCommit.getPatchSetNumber()).isEmpty()) {
+                    ad.setNeutralButton(R.string.context_menu_compare_patch_sets,
+                            new DialogInterface.OnClickListener() {
+                        @Override
+                        public void onClick(DialogInterface dialogInterface, int i) {
+                            chooseBasePatchSet(changedFile);
+                        }
+                    });
+                }
                 ad.create().show();
             }
         });
-        return innerRootView;
+    }
+
+    /**
+     * Show the problems the file adds, the card is updated straight away if
+     *  it is on screen
+     */
+    public void setLint(PatchLint.Counts lint) {
+        mLint = lint;
+        if (mCardLayout == null) return;
+        View content = ((FrameLayout) mCardLayout.findViewById(R.id.cardContent)).getChildAt(0);
+        // The layout may have been recycled for another file since
+        if (content == null || content.getTag() != mChangedFile) return;
+        ViewHolder holder = (ViewHolder) content.getTag(R.id.view_holder);
+        bindLint(content.getContext(), holder.lint);
+    }
+
+    private void bindLint(Context context, TextView view) {
+        PatchLint.Counts lint = mLint;
+        if (lint == null || lint.isClean()) {
+            view.setVisibility(View.GONE);
+            return;
+        }
+        StringBuilder badges = new StringBuilder(0);
+        appendBadge(context, badges, R.string.lint_tabs, lint.getTabs());
+        appendBadge(context, badges, R.string.lint_trailing_whitespace, lint.getTrailingWhitespace());
+        appendBadge(context, badges, R.string.lint_crlf, lint.getCrlf());
+        appendBadge(context, badges, R.string.lint_long_lines, lint.getLongLines());
+        view.setText(badges);
+        view.setVisibility(View.VISIBLE);
+    }
+
+    private static void appendBadge(Context context, StringBuilder badges, int format, int count) {
+        if (count == 0) return;
+        if (badges.length() > 0) badges.append("  ");
+        badges.append(context.getString(format, count));
+    }
+
+    // Offers the earlier patch sets, latest first, to compare the current one with
+    private void chooseBasePatchSet(final ChangedFile changedFile) {
+        SortedMap<Integer, String> earlier = mCommit.getRevisions()
+                .headMap(mCommit.getPatchSetNumber());
+        final int[] numbers = new int[earlier.size()];
+        String[] labels = new String[earlier.size()];
+        int i = earlier.size();
+        for (int number : earlier.keySet()) {
+            numbers[--i] = number;
+            labels[i] = mCardsActivity.getString(R.string.patch_set_number, number);
+        }
+        new AlertDialog.Builder(mCardsActivity)
+                .setTitle(R.string.compare_with_patch_set)
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+                        launchDiffDialog(changedFile, numbers[which]);
+                    }
+                })
+                .create().show();
     }
 
     // creates the Diff viewer dialog
-    private void launchDiffDialog(String url, ChangedFile changedFile) {
-        Log.d(TAG, "Attempting to contact: " + url);
-        DiffDialog diffDialog = new DiffDialog(mCardsActivity, url, changedFile);
+    private void launchDiffDialog(ChangedFile changedFile) {
+        launchDiffDialog(changedFile, -1);
+    }
+
+    /**
+     * @param basePatchSet patch set to compare the current one with, or -1
+     *  to compare it with its parent
+     */
+    private void launchDiffDialog(ChangedFile changedFile, int basePatchSet) {
+        String gerritUrl = Prefs.getCurrentGerrit(mCardsActivity);
+        DiffDialog diffDialog;
+        if (basePatchSet < 0) {
+            diffDialog = new DiffDialog(mCardsActivity, gerritUrl, mCommit.getId(), changedFile,
+                    mCommit.getCurrentRevision());
+        } else {
+            diffDialog = new DiffDialog(mCardsActivity, gerritUrl, mCommit.getId(), changedFile,
+                    mCommit.getRevisions().get(basePatchSet), mCommit.getCurrentRevision());
+            diffDialog.setTitle(mCardsActivity.getString(R.string.diff_between_patch_sets,
+                    basePatchSet, mCommit.getPatchSetNumber()));
+        }
         diffDialog.addExceptionCallback(new DiffDialog.DiffFailCallback() {
             @Override
             public void killDialogAndErrorOut(Exception e) {
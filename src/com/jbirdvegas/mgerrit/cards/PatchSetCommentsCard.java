@@ -18,62 +18,77 @@ package com.jbirdvegas.mgerrit.cards;
  */
 
 import android.content.Context;
-import android.text.util.Linkify;
+import android.text.method.LinkMovementMethod;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.view.ViewGroup;
-import android.widget.ImageView;
 import android.widget.TextView;
-import com.android.volley.RequestQueue;
 import com.android.volley.toolbox.ImageLoader;
 import com.android.volley.toolbox.NetworkImageView;
-import com.android.volley.toolbox.Volley;
 import com.fima.cardsui.objects.Card;
 import com.jbirdvegas.mgerrit.PatchSetViewerActivity;
 import com.jbirdvegas.mgerrit.R;
-import com.jbirdvegas.mgerrit.caches.BitmapLruCache;
-import com.jbirdvegas.mgerrit.helpers.EmoticonSupportHelper;
 import com.jbirdvegas.mgerrit.helpers.GravatarHelper;
+import com.jbirdvegas.mgerrit.helpers.TextPreparer;
 import com.jbirdvegas.mgerrit.listeners.TrackingClickListener;
 import com.jbirdvegas.mgerrit.objects.CommitComment;
-import com.jbirdvegas.mgerrit.objects.JSONCommit;
-
-import java.util.LinkedList;
 
+/**
+ * A single review message of a patch set, shown as its own row of the
+ *  detail screen.
+ */
 public class PatchSetCommentsCard extends Card {
 
-    private JSONCommit mJsonCommit;
+    private final CommitComment mComment;
     private final PatchSetViewerActivity mPatchsetViewerActivity;
-    private RequestQueue mRequestQuery;
+    private final ImageLoader mImageLoader;
 
-    public PatchSetCommentsCard(JSONCommit jsonCommit, PatchSetViewerActivity activity, RequestQueue requestQueue) {
-        mJsonCommit = jsonCommit;
+    /**
+     * @param imageLoader shared by all the comments so avatars are only
+     *  fetched once per author
+     */
+    public PatchSetCommentsCard(CommitComment comment, PatchSetViewerActivity activity, ImageLoader imageLoader) {
+        mComment = comment;
         mPatchsetViewerActivity = activity;
-        mRequestQuery = requestQueue;
+        mImageLoader = imageLoader;
     }
 
-    private LayoutInflater mInflater;
-    private Context mContext;
-    private ViewGroup mRootView;
+    private static class ViewHolder {
+        TextView author;
+        TextView message;
+        NetworkImageView gravatar;
+    }
+
+    @Override
+    public boolean isRecyclable() {
+        return true;
+    }
 
     @Override
     public View getCardContent(Context context) {
-        mRequestQuery = Volley.newRequestQueue(context);
-        mContext = context;
-        mInflater = (LayoutInflater) mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        mRootView = (ViewGroup) mInflater.inflate(R.layout.comments_card, null);
-        LinkedList<CommitComment> commentsList = (LinkedList<CommitComment>) mJsonCommit.getMessagesList();
-        // make and add a view for each comment
-        for (CommitComment comment : commentsList) {
-            mRootView.addView(getCommentView(comment));
-        }
-        return mRootView;
+        View commentView = newCardContent(context);
+        bindCardContent(context, commentView);
+        return commentView;
     }
 
-    public View getCommentView(final CommitComment comment) {
-        View commentView = mInflater.inflate(R.layout.commit_comment, null);
+    @Override
+    public View newCardContent(Context context) {
+        LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        View commentView = inflater.inflate(R.layout.commit_comment, null);
+        ViewHolder holder = new ViewHolder();
+        holder.author = (TextView) commentView.findViewById(R.id.comment_author_name);
+        holder.message = (TextView) commentView.findViewById(R.id.comment_message);
+        holder.message.setMovementMethod(LinkMovementMethod.getInstance());
+        holder.gravatar = (NetworkImageView) commentView.findViewById(R.id.comment_gravatar);
+        commentView.setTag(holder);
+        return commentView;
+    }
+
+    @Override
+    public void bindCardContent(Context context, View commentView) {
+        ViewHolder holder = (ViewHolder) commentView.getTag();
+        CommitComment comment = mComment;
         // set author name
-        TextView authorTextView = (TextView) commentView.findViewById(R.id.comment_author_name);
+        TextView authorTextView = holder.author;
         authorTextView.setText(comment.getAuthorObject().getName());
         authorTextView.setOnClickListener(
                 new TrackingClickListener(mPatchsetViewerActivity,
@@ -82,20 +97,13 @@ public class PatchSetCommentsCard extends Card {
         authorTextView.setTag(comment.getAuthorObject());
         mPatchsetViewerActivity.registerViewForContextMenu(authorTextView);
         // setup styled comments
-        TextView commentMessage = (TextView) commentView.findViewById(R.id.comment_message);
-        // use Linkify to automatically linking http/email/addresses
-        Linkify.addLinks(commentMessage, Linkify.ALL);
-        // replace replace emoticons with drawables
-        commentMessage.setText(EmoticonSupportHelper.getSmiledText(mContext, comment.getMessage()));
-        // set gravatar icon for commenter
-        GravatarHelper.populateProfilePicture(
-                (ImageView) commentView.findViewById(R.id.comment_gravatar),
-                comment.getAuthorObject().getEmail(),
-                mRequestQuery);
-        NetworkImageView gravatar = (NetworkImageView) commentView.findViewById(R.id.comment_gravatar);
-
-        gravatar.setImageUrl(GravatarHelper.getGravatarUrl(comment.getAuthorObject().getEmail()),
-                new ImageLoader(mRequestQuery, new BitmapLruCache(mPatchsetViewerActivity)));
-        return commentView;
+        TextView commentMessage = holder.message;
+        // emoticons and links are added in the background when the patch set is loaded
+        TextPreparer.getInstance(context).onShown(comment);
+        commentMessage.setText(comment.getPreparedMessage(context));
+        // set gravatar icon for commenter, NetworkImageView drops any
+        // request still running for the comment it showed before
+        holder.gravatar.setImageUrl(GravatarHelper.getGravatarUrl(comment.getAuthorObject().getEmail()),
+                mImageLoader);
     }
 }
@@ -21,76 +21,73 @@ import android.content.Context;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.widget.LinearLayout;
 import android.widget.TextView;
 import com.android.volley.RequestQueue;
 import com.fima.cardsui.objects.Card;
 import com.jbirdvegas.mgerrit.PatchSetViewerActivity;
 import com.jbirdvegas.mgerrit.R;
-import com.jbirdvegas.mgerrit.adapters.PatchSetReviewersAdapter;
 import com.jbirdvegas.mgerrit.helpers.GravatarHelper;
 import com.jbirdvegas.mgerrit.listeners.TrackingClickListener;
-import com.jbirdvegas.mgerrit.objects.JSONCommit;
 import com.jbirdvegas.mgerrit.objects.Reviewer;
 
-import java.util.List;
-
+/**
+ * A single code reviewer or verifier of a patch set, shown as its own row
+ *  of the detail screen.
+ */
 public class PatchSetReviewersCard extends Card {
-    private static final String TAG = PatchSetReviewersAdapter.class.getSimpleName();
+    private static final String TAG = PatchSetReviewersCard.class.getSimpleName();
     private static final boolean DEBUG = true;
     private final PatchSetViewerActivity mPatchSetViewActiviy;
     private final RequestQueue mRequestQueue;
-    private JSONCommit mJSONCommit;
-    private LayoutInflater mLayoutInflater;
+    private final Reviewer mReviewer;
 
-    public PatchSetReviewersCard(JSONCommit commit, PatchSetViewerActivity patchSetViewerActivity, RequestQueue requestQueue) {
-        mJSONCommit = commit;
+    public PatchSetReviewersCard(Reviewer reviewer, PatchSetViewerActivity patchSetViewerActivity, RequestQueue requestQueue) {
+        mReviewer = reviewer;
         mPatchSetViewActiviy = patchSetViewerActivity;
         mRequestQueue = requestQueue;
     }
 
+    private static class ViewHolder {
+        TextView approval;
+        TextView name;
+        int defaultApprovalColor;
+    }
+
     @Override
-    public View getCardContent(Context context) {
-        mLayoutInflater = (LayoutInflater)
-                context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        LinearLayout rootView =
-                (LinearLayout) mLayoutInflater.inflate(R.layout.patchset_labels_card, null);
-        LinearLayout codeReviewersContainer =
-                (LinearLayout) rootView.findViewById(R.id.patchset_lables_reviewers);
-        LinearLayout verifyReviewersContainer =
-                (LinearLayout) rootView.findViewById(R.id.patchset_lables_verifier);
-        TextView reviewerLabel = (TextView) rootView.findViewById(R.id.patchset_labels_code_reviewer_title);
-        TextView verifierLabel = (TextView) rootView.findViewById(R.id.patchset_labels_verified_reviewer_title);
-        List<Reviewer> reviewerList = mJSONCommit.getCodeReviewers();
-        List<Reviewer> verifierList = mJSONCommit.getVerifiedReviewers();
+    public boolean isRecyclable() {
+        return true;
+    }
 
-        if (reviewerList != null) {
-            for (Reviewer reviewer : mJSONCommit.getCodeReviewers()) {
-                codeReviewersContainer.addView(getReviewerView(reviewer));
-            }
-        } else {
-            codeReviewersContainer.setVisibility(View.GONE);
-            reviewerLabel.setVisibility(View.GONE);
-        }
+    @Override
+    public View getCardContent(Context context) {
+        View root = newCardContent(context);
+        bindCardContent(context, root);
+        return root;
+    }
 
-        if (verifierList != null) {
-            for (Reviewer reviewer : mJSONCommit.getVerifiedReviewers()) {
-                verifyReviewersContainer.addView(getReviewerView(reviewer));
-            }
-        } else {
-            verifyReviewersContainer.setVisibility(View.GONE);
-            verifierLabel.setVisibility(View.GONE);
-        }
-        return rootView;
+    @Override
+    public View newCardContent(Context context) {
+        LayoutInflater inflater = (LayoutInflater)
+                context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        View root = inflater.inflate(R.layout.patchset_labels_list_item, null);
+        ViewHolder holder = new ViewHolder();
+        holder.approval = (TextView) root.findViewById(R.id.labels_card_approval);
+        holder.name = (TextView) root.findViewById(R.id.labels_card_reviewer_name);
+        holder.defaultApprovalColor = holder.approval.getCurrentTextColor();
+        root.setTag(holder);
+        return root;
     }
-    public View getReviewerView(Reviewer reviewer) {
-        View root = mLayoutInflater.inflate(R.layout.patchset_labels_list_item, null);
-        TextView approval = (TextView) root.findViewById(R.id.labels_card_approval);
-        TextView name = (TextView) root.findViewById(R.id.labels_card_reviewer_name);
+
+    @Override
+    public void bindCardContent(Context context, View root) {
+        ViewHolder holder = (ViewHolder) root.getTag();
+        Reviewer reviewer = mReviewer;
+        TextView name = holder.name;
         name.setOnClickListener(
                 new TrackingClickListener(
                         mPatchSetViewActiviy,
                         reviewer.getCommiterObject()));
+        name.setCompoundDrawablesWithIntrinsicBounds(null, null, null, null);
         GravatarHelper.attachGravatarToTextView(name,
                 reviewer.getEmail(),
                 mRequestQueue);
@@ -99,9 +96,9 @@ public class PatchSetReviewersCard extends Card {
                     .append("Found Reviewer: ")
                     .append(reviewer.toString()).toString());
         }
-        setColoredApproval(reviewer.getValue(), approval);
+        holder.approval.setTextColor(holder.defaultApprovalColor);
+        setColoredApproval(reviewer.getValue(), holder.approval);
         name.setText(reviewer.getName());
-        return root;
     }
 
     private void setColoredApproval(String value, TextView approval) {
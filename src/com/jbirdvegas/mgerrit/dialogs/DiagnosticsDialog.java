@@ -0,0 +1,85 @@
+package com.jbirdvegas.mgerrit.dialogs;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.TextView;
+import com.jbirdvegas.mgerrit.R;
+import com.jbirdvegas.mgerrit.helpers.Diagnostics;
+import org.json.JSONException;
+
+/**
+ * Hidden screen showing the cache and network statistics collected by
+ *  {@link Diagnostics}. The statistics can be shared as JSON or reset.
+ */
+public class DiagnosticsDialog extends AlertDialog.Builder {
+    private static final String TAG = DiagnosticsDialog.class.getSimpleName();
+    private static final int JSON_INDENT = 2;
+    private String mJson;
+
+    public DiagnosticsDialog(final Context context) {
+        super(context);
+        setTitle(R.string.diagnostics_title);
+        View rootView = ((LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE))
+                .inflate(R.layout.diagnostics_dialog, null);
+        setView(rootView);
+
+        try {
+            mJson = Diagnostics.toJSON(getVersionName(context)).toString(JSON_INDENT);
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to export diagnostics", e);
+            mJson = e.getMessage();
+        }
+        ((TextView) rootView.findViewById(R.id.diagnostics_text)).setText(mJson);
+
+        setPositiveButton(R.string.diagnostics_export, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                Intent intent = new Intent(Intent.ACTION_SEND);
+                intent.setType("application/json");
+                intent.putExtra(Intent.EXTRA_SUBJECT, context.getString(R.string.diagnostics_title));
+                intent.putExtra(Intent.EXTRA_TEXT, mJson);
+                context.startActivity(Intent.createChooser(intent,
+                        context.getString(R.string.diagnostics_export)));
+            }
+        });
+        setNeutralButton(R.string.diagnostics_reset, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                Diagnostics.reset();
+            }
+        });
+        setNegativeButton(R.string.cancel, null);
+    }
+
+    private static String getVersionName(Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            return "unknown";
+        }
+    }
+}
@@ -19,12 +19,17 @@ package com.jbirdvegas.mgerrit.dialogs;
 
 import android.app.AlertDialog;
 import android.content.Context;
-import android.graphics.Typeface;
-import android.text.SpannableString;
+import android.content.DialogInterface;
+import android.content.res.Configuration;
+import android.os.AsyncTask;
 import android.util.Base64;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.Button;
+import android.widget.ListView;
 import android.widget.TextView;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
@@ -33,51 +38,89 @@ import com.android.volley.VolleyError;
 import com.android.volley.toolbox.StringRequest;
 import com.android.volley.toolbox.Volley;
 import com.jbirdvegas.mgerrit.R;
-import com.jbirdvegas.mgerrit.helpers.Base64Coder;
+import com.jbirdvegas.mgerrit.adapters.DiffLineAdapter;
+import com.jbirdvegas.mgerrit.adapters.SideBySideAdapter;
+import com.jbirdvegas.mgerrit.helpers.DiffLoader;
+import com.jbirdvegas.mgerrit.helpers.FrameMonitor;
+import com.jbirdvegas.mgerrit.helpers.SyntaxHighlighter;
 import com.jbirdvegas.mgerrit.objects.ChangedFile;
 import com.jbirdvegas.mgerrit.objects.Diff;
-import org.apache.commons.codec.binary.ApacheBase64;
+import org.json.JSONException;
 
-import java.util.regex.Pattern;
+import java.io.IOException;
+import java.util.Arrays;
 
 public class DiffDialog extends AlertDialog.Builder {
     private static final String TAG = DiffDialog.class.getSimpleName();
-    private static final String DIFF = "\n\nDIFF\n\n";
     private static final boolean DIFF_DEBUG = false;
+    private final String mGerritUrl;
+    private final String mChangeId;
+    // Revisions being compared, both null for the current patch set against its parent
+    private final String mBase;
+    private final String mRevision;
     private final String mUrl;
-    private final RequestQueue mRequestQueue;
     private View mRootView;
     private final ChangedFile mChangedFile;
-    private String mLineSplit = System.getProperty("line.separator");
     private LayoutInflater mInflater;
     private TextView mDiffTextView;
+    private ListView mDiffListView;
     private DiffFailCallback mDiffFailCallback;
+    private Diff mDiff;
+    private boolean mSideBySide;
 
     public interface DiffFailCallback {
         public void killDialogAndErrorOut(Exception e);
     }
 
-    public DiffDialog(Context context, String website, ChangedFile changedFile) {
+    /**
+     * @param gerritUrl base url of the Gerrit instance
+     * @param changeId id of the change, url encoded
+     * @param revision the commit SHA of the patch set
+     */
+    public DiffDialog(Context context, String gerritUrl, String changeId, ChangedFile changedFile,
+                      String revision) {
+        this(context, gerritUrl, changeId, changedFile, null, revision);
+    }
+
+    /**
+     * Show what changed in the file between two patch sets
+     *
+     * @param base revision of the older patch set, or null for its parent
+     * @param revision revision of the newer patch set
+     */
+    public DiffDialog(Context context, String gerritUrl, String changeId, ChangedFile changedFile,
+                      String base, String revision) {
         super(context);
-        mRequestQueue = Volley.newRequestQueue(context);
-        mUrl = website;
+        mGerritUrl = gerritUrl;
+        mChangeId = changeId;
+        mBase = base;
+        mRevision = revision;
+        mUrl = DiffLoader.getPatchUrl(gerritUrl, changeId, revision);
         mChangedFile = changedFile;
         mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         mRootView = mInflater.inflate(R.layout.diff_dialog, null);
         setView(mRootView);
         mDiffTextView = (TextView) mRootView.findViewById(R.id.diff_view_diff);
+        mDiffListView = (ListView) mRootView.findViewById(R.id.diff_view_lines);
         mDiffTextView.setText(R.string.loading);
         mDiffTextView.setTextSize(18f);
-        Log.d(TAG, "Calling url: " + mUrl);
         if (DIFF_DEBUG) {
             debugRestDiffApi(context, mUrl, mChangedFile);
         }
-        // we can use volley here because we return
-        // does not contain the magic number on the
-        // first line. return is just the Base64 formatted
-        // return
-        mRequestQueue.add(getBase64StringRequest(mUrl));
-        mRequestQueue.start();
+        new DiffTask().execute();
+    }
+
+    @Override
+    public AlertDialog create() {
+        AlertDialog dialog = super.create();
+        // The diff list may be dismissed while it is still flinging
+        dialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override
+            public void onDismiss(DialogInterface dialogInterface) {
+                FrameMonitor.stopFrames(TAG);
+            }
+        });
+        return dialog;
     }
 
     public DiffDialog addExceptionCallback(DiffFailCallback failCallback) {
@@ -85,92 +128,174 @@ public class DiffDialog extends AlertDialog.Builder {
         return this;
     }
 
-    private StringRequest getBase64StringRequest(final String weburl) {
-        return new StringRequest(weburl,
-                new Response.Listener<String>() {
-                    @Override
-                    public void onResponse(String base64) {
-                        String decoded = workAroundBadBase(base64);
-                        if (DIFF_DEBUG) {
-                            Log.d(TAG, "[DEBUG-MODE]\n"
-                                    + "url: " + weburl
-                                    + "\n==================================="
-                                    + decoded
-                                    + "====================================");
-                        }
-                        setTextView(decoded);
-                    }
-                },
-                new Response.ErrorListener() {
-                    @Override
-                    public void onErrorResponse(VolleyError volleyError) {
-                        Log.e(TAG, "Failed to download the diff", volleyError);
-                        if (mDiffFailCallback != null) {
-                            mDiffFailCallback.killDialogAndErrorOut(volleyError);
-                        }
-                    }
-                }
-        );
-    }
+    /**
+     * Loads the diff of the file being shown, unless it is already cached
+     */
+    private class DiffTask extends AsyncTask<Void, Void, Diff> {
+        private Exception mException;
 
-    private String workAroundBadBase(String baseString) {
-        if (baseString == null) {
-            return getContext().getString(R.string.return_was_null);
-        }
-        String failMessage = "Failed to decode Base64 using: ";
-        try {
-            return new String(ApacheBase64.decodeBase64(baseString));
-        } catch (IllegalArgumentException badBase) {
-            Log.e(TAG, failMessage + "org.apache.commons.codec.binary.ApacheBase64", badBase);
-        }
-        try {
-            return new String(Base64.decode(baseString.getBytes(), Base64.URL_SAFE | Base64.NO_PADDING));
-        } catch (IllegalArgumentException badBase) {
-            Log.e(TAG, failMessage + "android.util.Base64", badBase);
+        @Override
+        protected Diff doInBackground(Void... voids) {
+            try {
+                if (mBase != null) {
+                    return DiffLoader.load(getContext(), mGerritUrl, mChangeId,
+                            mBase, mRevision, mChangedFile.getPath());
+                }
+                return DiffLoader.load(getContext(), mGerritUrl, mChangeId, mRevision,
+                        mChangedFile.getPath());
+            } catch (IOException e) {
+                mException = e;
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to parse the diff", e);
+                mException = e;
+            }
+            return null;
         }
-        try {
-            return new String(Base64Coder.decode(baseString));
-        } catch (IllegalArgumentException badBase) {
-            Log.e(TAG, failMessage + "com.jbirdvegas.mgerrit.helpers.Base64Coder", badBase);
+
+        @Override
+        protected void onPostExecute(Diff diff) {
+            if (mException instanceof DiffLoader.EmptyResponseException) {
+                mDiffTextView.setText(R.string.return_was_null);
+            } else if (mException instanceof DiffLoader.CompareUnsupportedException) {
+                mDiffTextView.setText(R.string.diff_compare_unsupported);
+            } else if (mException instanceof IOException) {
+                Log.e(TAG, "Failed to download the diff", mException);
+                if (mDiffFailCallback != null) {
+                    mDiffFailCallback.killDialogAndErrorOut(mException);
+                }
+            } else if (mException != null) {
+                mDiffTextView.setText(R.string.failed_to_decode_base64);
+            } else if (diff == null && mBase != null) {
+                mDiffTextView.setText(R.string.diff_unchanged_between_patch_sets);
+            } else if (diff == null || diff.getLineCount() == 0) {
+                mDiffTextView.setText("Diff not found!");
+            } else {
+                if (DIFF_DEBUG) {
+                    Log.d(TAG, "[DEBUG-MODE]\n"
+                            + "url: " + mUrl
+                            + "\n==================================="
+                            + diff.getFileDiff()
+                            + "====================================");
+                }
+                showDiff(diff);
+            }
         }
-        return getContext().getString(R.string.failed_to_decode_base64);
     }
 
-    private void setTextView(String result) {
-        Pattern pattern = Pattern.compile("\\Qdiff --git \\E");
-        String[] filesChanged = pattern.split(result);
-        StringBuilder builder = new StringBuilder(0);
-        Diff currentDiff = null;
-        for (String change : filesChanged) {
-            String concat;
-            try {
-                concat = change.substring(2, change.lastIndexOf(mChangedFile.getPath())).trim();
-                concat = concat.split(" ")[0];
-            } catch (StringIndexOutOfBoundsException notFound) {
-                Log.d(TAG, notFound.getMessage());
-                continue;
+    // Each line (or pair of lines) of the diff is a row of the list, so only visible lines are laid out
+    private void showDiff(final Diff diff) {
+        mDiff = diff;
+        mDiffTextView.setVisibility(View.GONE);
+        setSideBySide(isWideScreen());
+        // Rows already on screen are bound again once the changed words and the syntax are known
+        final SyntaxHighlighter.Language language = SyntaxHighlighter.forPath(mChangedFile.getPath());
+        if (!diff.hasWordDiffs() || !diff.hasSyntax(language)) {
+            new AsyncTask<Void, Void, Void>() {
+                @Override
+                protected Void doInBackground(Void... voids) {
+                    diff.computeWordDiffs();
+                    diff.computeSyntax(language);
+                    return null;
+                }
+
+                @Override
+                protected void onPostExecute(Void aVoid) {
+                    ((BaseAdapter) mDiffListView.getAdapter()).notifyDataSetChanged();
+                }
+            }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+        FrameMonitor.init(getContext());
+        mDiffListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                FrameMonitor.onScrollStateChanged(TAG, scrollState);
             }
-            if (concat.equals(mChangedFile.getPath())) {
-                builder.append(DIFF);
-                change.replaceAll("\n", mLineSplit);
-                currentDiff = new Diff(getContext(), change);
-                builder.append(change);
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem,
+                                 int visibleItemCount, int totalItemCount) {
             }
+        });
+        mDiffListView.setVisibility(View.VISIBLE);
+
+        mRootView.findViewById(R.id.diff_view_hunk_bar).setVisibility(View.VISIBLE);
+        mRootView.findViewById(R.id.diff_view_mode).setOnClickListener(
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        setSideBySide(!mSideBySide);
+                    }
+                });
+        if (diff.getHunkLines().length > 1) {
+            View previous = mRootView.findViewById(R.id.diff_view_previous_hunk);
+            previous.setVisibility(View.VISIBLE);
+            previous.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    int[] hunks = getHunkPositions();
+                    int first = mDiffListView.getFirstVisiblePosition();
+                    int hunk = findHunk(hunks, first);
+                    // go to the start of the current hunk unless already there
+                    if (hunk >= 0 && hunks[hunk] == first) hunk--;
+                    mDiffListView.setSelection(hunks[Math.max(hunk, 0)]);
+                }
+            });
+            View next = mRootView.findViewById(R.id.diff_view_next_hunk);
+            next.setVisibility(View.VISIBLE);
+            next.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    int[] hunks = getHunkPositions();
+                    int hunk = findHunk(hunks, mDiffListView.getFirstVisiblePosition()) + 1;
+                    mDiffListView.setSelection(hunks[Math.min(hunk, hunks.length - 1)]);
+                }
+            });
         }
-        if (builder.length() == 0) {
-            builder.append("Diff not found!");
+    }
+
+    // Landscape on a tablet has room for two columns
+    private boolean isWideScreen() {
+        Configuration config = getContext().getResources().getConfiguration();
+        int size = config.screenLayout & Configuration.SCREENLAYOUT_SIZE_MASK;
+        return config.orientation == Configuration.ORIENTATION_LANDSCAPE
+                && size >= Configuration.SCREENLAYOUT_SIZE_LARGE;
+    }
+
+    /**
+     * Switch between the unified and side by side views, staying on the
+     *  same line of the diff
+     */
+    private void setSideBySide(boolean sideBySide) {
+        int first = mDiffListView.getFirstVisiblePosition();
+        boolean wasShown = mDiffListView.getAdapter() != null;
+        int line = 0;
+        if (wasShown) {
+            line = mSideBySide ? mDiff.getSideBySide().getLineOfRow(first) : first;
         }
-        // reset text size to default
-        mDiffTextView.setTextAppearance(getContext(), android.R.style.TextAppearance_DeviceDefault_Small);
-        mDiffTextView.setTypeface(Typeface.MONOSPACE);
-        // rebuild text; required to respect the \n
-        SpannableString spannableString = currentDiff.getColorizedSpan();
-        if (spannableString != null) {
-            mDiffTextView.setText(currentDiff.getColorizedSpan(), TextView.BufferType.SPANNABLE);
+
+        mSideBySide = sideBySide;
+        if (sideBySide) {
+            mDiffListView.setAdapter(new SideBySideAdapter(getContext(), mDiff));
+            if (wasShown) mDiffListView.setSelection(mDiff.getSideBySide().getRowOfLine(line));
         } else {
-            mDiffTextView.setText("Failed to load diff :(");
+            mDiffListView.setAdapter(new DiffLineAdapter(getContext(), mDiff));
+            if (wasShown) mDiffListView.setSelection(line);
         }
+        ((Button) mRootView.findViewById(R.id.diff_view_mode))
+                .setText(sideBySide ? R.string.diff_unified : R.string.diff_side_by_side);
+    }
+
+    private int[] getHunkPositions() {
+        return mSideBySide ? mDiff.getSideBySide().getHunkRows() : mDiff.getHunkLines();
+    }
 
+    /**
+     * @return index of the last hunk starting at or before the line, -1 if
+     *  the line comes before the first hunk
+     */
+    private static int findHunk(int[] hunks, int line) {
+        int index = Arrays.binarySearch(hunks, line);
+        return index >= 0 ? index : -index - 2;
     }
 
     private void debugRestDiffApi(Context context, String mUrl, ChangedFile mChangedFile) {
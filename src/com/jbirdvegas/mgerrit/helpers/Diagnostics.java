@@ -0,0 +1,215 @@
+package com.jbirdvegas.mgerrit.helpers;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.os.Build;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects cache and network statistics so the effect of caching and
+ *  network changes can be measured on real devices.
+ * <p/>
+ * Each cache reports hits, misses, evictions and its current size in
+ *  bytes. Each request reports its endpoint type, the number of bytes
+ *  transferred and how long it took; latencies are kept as histograms.
+ *  Everything can be exported with {@link #toJSON(String)} and compared
+ *  between builds. All methods are thread safe.
+ */
+public final class Diagnostics {
+    // Upper bounds (in ms) of the latency histogram buckets, the last bucket is unbounded
+    private static final long[] LATENCY_BUCKETS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    public enum Endpoint {
+        CHANGE_LIST, PATCH_SET, DIFF, PROJECTS, AVATARS, OTHER;
+
+        /**
+         * Work out which kind of request a url is for
+         */
+        public static Endpoint fromUrl(String url) {
+            if (url == null) return OTHER;
+            if (url.contains(GravatarHelper.GRAVATAR_API)) return AVATARS;
+            if (url.contains("/patch") || url.contains("/diff") || url.contains("/content")) return DIFF;
+            if (url.contains("projects/")) return PROJECTS;
+            // Change lists are assembled by GerritURL which always wraps the query in brackets
+            if (url.contains("changes/?q=(")) return CHANGE_LIST;
+            if (url.contains("changes/")) return PATCH_SET;
+            return OTHER;
+        }
+    }
+
+    /**
+     * Counters for a single cache
+     */
+    public static class CacheStats {
+        private long mHits;
+        private long mMisses;
+        private long mEvictions;
+        private long mBytes;
+
+        public synchronized void hit() { mHits++; }
+
+        public synchronized void miss() { mMisses++; }
+
+        public synchronized void evicted(int count) { mEvictions += count; }
+
+        /** @param bytes current (estimated) size of the cache */
+        public synchronized void setBytes(long bytes) { mBytes = bytes; }
+
+        // The size is left alone as it describes the cache, not its history
+        private synchronized void reset() {
+            mHits = 0;
+            mMisses = 0;
+            mEvictions = 0;
+        }
+
+        private synchronized JSONObject toJSON() throws JSONException {
+            long lookups = mHits + mMisses;
+            return new JSONObject()
+                    .put("hits", mHits)
+                    .put("misses", mMisses)
+                    .put("hit_rate", lookups == 0 ? 0 : (double) mHits / lookups)
+                    .put("evictions", mEvictions)
+                    .put("bytes", mBytes);
+        }
+    }
+
+    private static class EndpointStats {
+        private long mRequests;
+        private long mFailures;
+        private long mBytes;
+        private long mTotalLatency;
+        private final long[] mHistogram = new long[LATENCY_BUCKETS.length + 1];
+
+        private synchronized void record(long bytes, long latency, boolean success) {
+            mRequests++;
+            if (!success) mFailures++;
+            mBytes += bytes;
+            mTotalLatency += latency;
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS.length && latency > LATENCY_BUCKETS[bucket]) {
+                bucket++;
+            }
+            mHistogram[bucket]++;
+        }
+
+        private synchronized JSONObject toJSON() throws JSONException {
+            JSONArray histogram = new JSONArray();
+            for (int i = 0; i < mHistogram.length; i++) {
+                histogram.put(new JSONObject()
+                        .put("le_ms", i < LATENCY_BUCKETS.length ? LATENCY_BUCKETS[i] : -1)
+                        .put("count", mHistogram[i]));
+            }
+            return new JSONObject()
+                    .put("requests", mRequests)
+                    .put("failures", mFailures)
+                    .put("bytes", mBytes)
+                    .put("mean_latency_ms", mRequests == 0 ? 0 : mTotalLatency / mRequests)
+                    .put("latency_histogram", histogram);
+        }
+    }
+
+    private static final Map<String, CacheStats> sCaches = new LinkedHashMap<String, CacheStats>();
+    private static final Map<Endpoint, EndpointStats> sEndpoints
+            = new LinkedHashMap<Endpoint, EndpointStats>();
+    private static long sSince = System.currentTimeMillis();
+
+    static {
+        for (Endpoint endpoint : Endpoint.values()) {
+            sEndpoints.put(endpoint, new EndpointStats());
+        }
+    }
+
+    private Diagnostics() { }
+
+    /**
+     * @param name name the cache is reported under
+     * @return the counters for that cache, created if needed
+     */
+    public static synchronized CacheStats getCacheStats(String name) {
+        CacheStats stats = sCaches.get(name);
+        if (stats == null) {
+            stats = new CacheStats();
+            sCaches.put(name, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Record a completed (or failed) request
+     *
+     * @param url requested url, used to find the endpoint type
+     * @param bytes number of bytes received
+     * @param startTime time the request was started, from System.currentTimeMillis()
+     * @param success false if the request failed
+     */
+    public static void recordRequest(String url, long bytes, long startTime, boolean success) {
+        recordRequest(Endpoint.fromUrl(url), bytes, startTime, success);
+    }
+
+    public static void recordRequest(Endpoint endpoint, long bytes, long startTime, boolean success) {
+        EndpointStats stats;
+        synchronized (Diagnostics.class) {
+            stats = sEndpoints.get(endpoint);
+        }
+        stats.record(bytes, System.currentTimeMillis() - startTime, success);
+    }
+
+    /**
+     * Forget everything collected so far
+     */
+    public static synchronized void reset() {
+        for (CacheStats stats : sCaches.values()) {
+            stats.reset();
+        }
+        for (Endpoint endpoint : Endpoint.values()) {
+            sEndpoints.put(endpoint, new EndpointStats());
+        }
+        FrameMonitor.reset();
+        sSince = System.currentTimeMillis();
+    }
+
+    /**
+     * @param versionName version of this build, so exports can be compared
+     * @return everything collected since the last reset
+     */
+    public static synchronized JSONObject toJSON(String versionName) throws JSONException {
+        JSONObject caches = new JSONObject();
+        for (Map.Entry<String, CacheStats> entry : sCaches.entrySet()) {
+            caches.put(entry.getKey(), entry.getValue().toJSON());
+        }
+        JSONObject endpoints = new JSONObject();
+        for (Map.Entry<Endpoint, EndpointStats> entry : sEndpoints.entrySet()) {
+            endpoints.put(entry.getKey().name().toLowerCase(), entry.getValue().toJSON());
+        }
+        return new JSONObject()
+                .put("version", versionName)
+                .put("device", Build.MODEL)
+                .put("sdk", Build.VERSION.SDK_INT)
+                .put("since", sSince)
+                .put("exported", System.currentTimeMillis())
+                .put("caches", caches)
+                .put("endpoints", endpoints)
+                .put("frames", FrameMonitor.toJSON())
+                .put("startup", StartupTrace.toJSON());
+    }
+}
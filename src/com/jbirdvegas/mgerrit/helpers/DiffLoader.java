@@ -0,0 +1,453 @@
+package com.jbirdvegas.mgerrit.helpers;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.content.Context;
+import android.util.Log;
+import com.jbirdvegas.mgerrit.caches.DiffCache;
+import com.jbirdvegas.mgerrit.caches.LintCache;
+import com.jbirdvegas.mgerrit.caches.RevisionContentCache;
+import com.jbirdvegas.mgerrit.caches.ServerCapabilities;
+import com.jbirdvegas.mgerrit.objects.Diff;
+import com.jbirdvegas.mgerrit.objects.Patch;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Downloads and parses the diff of a file of a revision of a change, or
+ *  between two of its patch sets.
+ * <p/>
+ * Only that file's diff is fetched if the server can send it, otherwise
+ *  the whole patch is streamed through the Base64 decoder into the parser,
+ *  with its lint counts worked out on the way for the {@link LintCache}.
+ *  Diffs are kept in the {@link DiffCache} under the url of the file's
+ *  diff, so the diff dialog finds those loaded ahead of time. A diff or
+ *  patch asked for while it is still being loaded is waited for rather
+ *  than loaded a second time.
+ */
+public final class DiffLoader {
+    private static final String TAG = DiffLoader.class.getSimpleName();
+    // Whole patch of a revision, for servers without per file diffs
+    private static final String PATCH_URL = "%schanges/%s/revisions/%s/patch";
+    private static final String FILE_DIFF_URL = "%schanges/%s/revisions/%s/files/%s/diff?context=%d";
+    // Used when the commit SHA of the revision is not known
+    private static final String CURRENT_REVISION = "current";
+    // Comparing two patch sets, revisions are commit SHA-1s
+    private static final String REVISION_DIFF_URL = "%schanges/%s/revisions/%s/files/%s/diff?base=%s&context=%d";
+    private static final String REVISION_FILES_URL = "%schanges/%s/revisions/%s/files/?base=%s";
+    private static final String CONTENT_URL = "%schanges/%s/revisions/%s/files/%s/content";
+    private static final String MAGIC_PREFIX = ")]}'";
+    // Lines of context around each change, as in a patch
+    private static final int DIFF_CONTEXT = 3;
+    private static final String[] NO_LINES = new String[0];
+
+    // Loads in progress, keyed by url
+    private static final Map<String, FutureTask<?>> sPending = new HashMap<String, FutureTask<?>>();
+
+    /**
+     * The server answered without sending anything
+     */
+    public static class EmptyResponseException extends IOException {
+        public EmptyResponseException(String url) {
+            super("Empty response from " + url);
+        }
+    }
+
+    /**
+     * The server is too old to compare patch sets
+     */
+    public static class CompareUnsupportedException extends IOException {
+        public CompareUnsupportedException(String gerritUrl) {
+            super(gerritUrl + " cannot compare patch sets");
+        }
+    }
+
+    private DiffLoader() {
+    }
+
+    /**
+     * @param gerritUrl base url of the Gerrit instance
+     * @param changeId id of the change, url encoded
+     * @param revision the commit SHA of the revision, null for the current one
+     */
+    public static String getPatchUrl(String gerritUrl, String changeId, String revision) {
+        return String.format(PATCH_URL, gerritUrl, changeId,
+                revision == null ? CURRENT_REVISION : revision);
+    }
+
+    /**
+     * @return the url of a single file's diff, which is also its key in
+     *  the {@link DiffCache}
+     */
+    public static String getFileDiffUrl(String gerritUrl, String changeId, String revision,
+                                        String path) {
+        return String.format(FILE_DIFF_URL, gerritUrl, changeId,
+                revision == null ? CURRENT_REVISION : revision, encodePath(path), DIFF_CONTEXT);
+    }
+
+    /**
+     * @return the url of a file's diff between two revisions, which is
+     *  also its key in the {@link DiffCache}
+     */
+    public static String getRevisionDiffUrl(String gerritUrl, String changeId,
+                                            String base, String revision, String path) {
+        return String.format(REVISION_DIFF_URL, gerritUrl, changeId, revision,
+                encodePath(path), base, DIFF_CONTEXT);
+    }
+
+    // Path segments must have their slashes encoded too
+    private static String encodePath(String path) {
+        try {
+            return URLEncoder.encode(path, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the diff of a file from the cache, downloading it if it is not
+     *  there. Blocks, so must not be called on the main thread.
+     *
+     * @param revision the commit SHA of the revision, null for the current one
+     * @return the diff or null if the file is not part of the patch
+     */
+    public static Diff load(final Context context, final String gerritUrl, final String changeId,
+                            final String revision, final String path)
+            throws IOException, JSONException {
+        final DiffCache cache = DiffCache.getInstance(context);
+        final String key = getFileDiffUrl(gerritUrl, changeId, revision, path);
+        // Shown before, e.g. before the screen was rotated, or prefetched
+        Diff diff = cache.get(key);
+        if (diff != null) return diff;
+
+        return loadOnce(key, new Callable<Diff>() {
+            @Override
+            public Diff call() throws IOException, JSONException {
+                // Loaded by someone else since it was looked for
+                Diff diff = cache.get(key);
+                if (diff != null) return diff;
+
+                if (ServerCapabilities.hasFileDiffs(context, gerritUrl)) {
+                    diff = new Diff(context, download(context, key, path, null), 0);
+                    cache.put(key, diff);
+                    return diff;
+                }
+                return fromPatch(context, gerritUrl, changeId, revision,
+                        loadPatch(context, gerritUrl, changeId, revision), path);
+            }
+        });
+    }
+
+    /**
+     * Get the diff of a file between two patch sets from the cache, working
+     *  it out if it is not there. Both versions of the file are compared
+     *  here and kept in the {@link RevisionContentCache}, so comparing
+     *  another pair of patch sets downloads only the version it has not
+     *  seen. Blocks, so must not be called on the main thread.
+     *
+     * @param base revision of the older patch set
+     * @param revision revision of the newer patch set
+     * @return the diff or null if the file is the same in both
+     */
+    public static Diff load(final Context context, final String gerritUrl, final String changeId,
+                            final String base, final String revision, final String path)
+            throws IOException, JSONException {
+        final DiffCache cache = DiffCache.getInstance(context);
+        final String key = getRevisionDiffUrl(gerritUrl, changeId, base, revision, path);
+        Diff diff = cache.get(key);
+        if (diff != null) return diff;
+
+        return loadOnce(key, new Callable<Diff>() {
+            @Override
+            public Diff call() throws IOException, JSONException {
+                Diff diff = cache.get(key);
+                if (diff != null) return diff;
+                return compare(context, gerritUrl, changeId, base, revision, path, key);
+            }
+        });
+    }
+
+    private static Diff compare(Context context, String gerritUrl, String changeId,
+                                String base, String revision, String path, String key)
+            throws IOException, JSONException {
+        // Files and contents of other revisions came with Gerrit 2.8, as file diffs did
+        if (!ServerCapabilities.hasFileDiffs(context, gerritUrl)) {
+            throw new CompareUnsupportedException(gerritUrl);
+        }
+
+        RevisionContentCache contents = RevisionContentCache.getInstance(context);
+        Set<String> changed = loadChangedPaths(contents, gerritUrl, changeId, base, revision);
+        // Nothing at all is downloaded for a file that is the same in both
+        if (changed != null && !changed.contains(path)) return null;
+
+        String[] oldLines = loadContent(contents, gerritUrl, changeId, base, path);
+        String[] newLines = loadContent(contents, gerritUrl, changeId, revision, path);
+        if (Arrays.equals(oldLines, newLines)) return null;
+        List<String> lines = LineDiff.compare(oldLines == null ? NO_LINES : oldLines,
+                newLines == null ? NO_LINES : newLines);
+        Patch patch;
+        if (lines != null) {
+            patch = Patch.fromLines(path, oldLines != null, newLines != null, lines, DIFF_CONTEXT);
+        } else {
+            // Too different to compare here, the server works it out instead
+            patch = download(context, key, path, null);
+        }
+        Diff diff = new Diff(context, patch, 0);
+        DiffCache.getInstance(context).put(key, diff);
+        return diff;
+    }
+
+    /**
+     * @return the paths that differ between the revisions or null if the
+     *  server cannot list them
+     */
+    private static Set<String> loadChangedPaths(RevisionContentCache contents, String gerritUrl,
+                                                String changeId, String base, String revision) {
+        Set<String> paths = contents.getChangedPaths(base, revision);
+        if (paths != null) return paths;
+
+        String url = String.format(REVISION_FILES_URL, gerritUrl, changeId, revision, base);
+        Log.d(TAG, "Calling url: " + url);
+        long startTime = System.currentTimeMillis();
+        CountingInputStream in = null;
+        JSONObject files;
+        try {
+            in = new CountingInputStream(new URL(url).openConnection().getInputStream());
+            files = readJSON(in);
+            Diagnostics.recordRequest(Diagnostics.Endpoint.PATCH_SET, in.getCount(), startTime, true);
+        } catch (IOException e) {
+            // Not every 2.8 server takes a base, the contents are compared instead
+            Log.d(TAG, "Could not list the files changed since " + base, e);
+            Diagnostics.recordRequest(Diagnostics.Endpoint.PATCH_SET,
+                    in == null ? 0 : in.getCount(), startTime, false);
+            return null;
+        } catch (JSONException e) {
+            Log.d(TAG, "Could not read the files changed since " + base, e);
+            return null;
+        } finally {
+            close(in);
+        }
+
+        paths = new HashSet<String>();
+        JSONArray names = files.names();
+        for (int i = 0; names != null && i < names.length(); i++) {
+            paths.add(names.optString(i));
+        }
+        contents.putChangedPaths(base, revision, paths);
+        return paths;
+    }
+
+    /**
+     * @return the lines of the file in the revision or null if it is not there
+     */
+    private static String[] loadContent(RevisionContentCache contents, String gerritUrl,
+                                        String changeId, String revision, String path)
+            throws IOException {
+        RevisionContentCache.Content cached = contents.getFile(revision, path);
+        if (cached != null) return cached.getLines();
+
+        String url = String.format(CONTENT_URL, gerritUrl, changeId, revision, encodePath(path));
+        Log.d(TAG, "Calling url: " + url);
+        long startTime = System.currentTimeMillis();
+        CountingInputStream in = null;
+        String[] lines;
+        try {
+            in = new CountingInputStream(new URL(url).openConnection().getInputStream());
+            BufferedReader reader = PatchDecoder.open(in);
+            List<String> read = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                read.add(line);
+            }
+            lines = read.toArray(new String[read.size()]);
+            Diagnostics.recordRequest(Diagnostics.Endpoint.DIFF, in.getCount(), startTime, true);
+        } catch (FileNotFoundException e) {
+            // Added or deleted by one of the patch sets
+            Diagnostics.recordRequest(Diagnostics.Endpoint.DIFF, 0, startTime, true);
+            lines = null;
+        } catch (IOException e) {
+            Diagnostics.recordRequest(Diagnostics.Endpoint.DIFF,
+                    in == null ? 0 : in.getCount(), startTime, false);
+            throw e;
+        } finally {
+            close(in);
+        }
+        contents.putFile(revision, path, lines);
+        return lines;
+    }
+
+    /**
+     * Download the whole patch of a revision, bypassing the diff cache. Its
+     *  lint counts are stored in the {@link LintCache} if the revision is
+     *  known. Blocks, so must not be called on the main thread.
+     *
+     * @param revision the commit SHA of the revision, null for the current one
+     */
+    public static Patch loadPatch(final Context context, String gerritUrl, String changeId,
+                                  final String revision) throws IOException, JSONException {
+        final String url = getPatchUrl(gerritUrl, changeId, revision);
+        return loadOnce(url, new Callable<Patch>() {
+            @Override
+            public Patch call() throws IOException, JSONException {
+                return download(context, url, null, revision);
+            }
+        });
+    }
+
+    /**
+     * Run the loader, unless the same key is already being loaded on
+     *  another thread, in which case its result is waited for instead
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T loadOnce(String key, Callable<T> loader)
+            throws IOException, JSONException {
+        FutureTask<T> task;
+        boolean running = false;
+        synchronized (sPending) {
+            task = (FutureTask<T>) sPending.get(key);
+            if (task == null) {
+                task = new FutureTask<T>(loader);
+                sPending.put(key, task);
+                running = true;
+            }
+        }
+        if (running) {
+            try {
+                task.run();
+            } finally {
+                synchronized (sPending) {
+                    sPending.remove(key);
+                }
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + key);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof JSONException) throw (JSONException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Cache the diff of one file of a whole patch
+     *
+     * @return the diff or null if the file is not part of the patch
+     */
+    public static Diff fromPatch(Context context, String gerritUrl, String changeId,
+                                 String revision, Patch patch, String path) {
+        int file = patch.indexOf(path);
+        if (file < 0) return null;
+        Diff diff = new Diff(context, patch, file);
+        DiffCache.getInstance(context).put(getFileDiffUrl(gerritUrl, changeId, revision, path), diff);
+        return diff;
+    }
+
+    /**
+     * A single file's diff if the path is given, the whole patch otherwise
+     *
+     * @param revision revision of the whole patch to store the lint counts
+     *  of, or null
+     */
+    private static Patch download(Context context, String url, String path, String revision)
+            throws IOException, JSONException {
+        Log.d(TAG, "Calling url: " + url);
+        long startTime = System.currentTimeMillis();
+        CountingInputStream in = null;
+        Patch patch;
+        long bytes;
+        try {
+            URLConnection connection = new URL(url).openConnection();
+            in = new CountingInputStream(connection.getInputStream());
+            if (path != null) {
+                patch = Patch.fromDiffInfo(readJSON(in), path, DIFF_CONTEXT);
+            } else {
+                PatchLint.LintingReader lint = new PatchLint.LintingReader(PatchDecoder.open(in));
+                patch = Patch.parse(new BufferedReader(lint));
+                if (revision != null && in.getCount() > 0) {
+                    LintCache.getInstance(context).put(revision, lint.getCounts());
+                }
+            }
+            bytes = in.getCount();
+        } catch (IOException e) {
+            Diagnostics.recordRequest(Diagnostics.Endpoint.DIFF,
+                    in == null ? 0 : in.getCount(), startTime, false);
+            throw e;
+        } finally {
+            close(in);
+        }
+        Diagnostics.recordRequest(Diagnostics.Endpoint.DIFF, bytes, startTime, true);
+        if (bytes == 0) throw new EmptyResponseException(url);
+        return patch;
+    }
+
+    private static void close(InputStream in) {
+        if (in == null) return;
+        try {
+            in.close();
+        } catch (IOException e) {
+            // let it go
+        }
+    }
+
+    private static JSONObject readJSON(InputStream in) throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        StringBuilder builder = new StringBuilder(0);
+        String line;
+        boolean isFirstLine = true;
+        while ((line = reader.readLine()) != null) {
+            // remove magic chars
+            if (isFirstLine && line.startsWith(MAGIC_PREFIX)) {
+                line = line.substring(MAGIC_PREFIX.length());
+            }
+            isFirstLine = false;
+            builder.append(line).append('\n');
+        }
+        return new JSONObject(builder.toString());
+    }
+}
@@ -0,0 +1,268 @@
+package com.jbirdvegas.mgerrit.helpers;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+import android.view.Choreographer;
+import android.widget.AbsListView;
+import com.jbirdvegas.mgerrit.Prefs;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measures how smoothly the card lists and the diff viewer scroll.
+ * <p/>
+ * While a monitored list is scrolling, every frame is timed with
+ *  {@link Choreographer} (Jelly Bean and up, nothing is recorded on older
+ *  devices). Frame durations go into a histogram per screen together with
+ *  the number of dropped frames. Card binds are timed per card type, and
+ *  binds that ran during a frame which missed its deadline are counted
+ *  against their type as well. Enabled from the preferences; the summary
+ *  is included in the diagnostics export.
+ */
+public final class FrameMonitor {
+    private static final String TAG = FrameMonitor.class.getSimpleName();
+    private static final long FRAME_NANOS = 1000000000L / 60;
+    // Upper bounds (in ms) of the frame duration buckets, the last bucket is unbounded
+    private static final long[] FRAME_BUCKETS = { 16, 33, 50, 100, 250, 500 };
+
+    private static class ScreenStats {
+        private long mFrames;
+        private long mDroppedFrames;
+        private long mTotalNanos;
+        private long mMaxNanos;
+        private final long[] mHistogram = new long[FRAME_BUCKETS.length + 1];
+
+        private void record(long nanos) {
+            mFrames++;
+            mTotalNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+            mDroppedFrames += Math.max(0, Math.round((double) nanos / FRAME_NANOS) - 1);
+            long ms = nanos / 1000000;
+            int bucket = 0;
+            while (bucket < FRAME_BUCKETS.length && ms > FRAME_BUCKETS[bucket]) {
+                bucket++;
+            }
+            mHistogram[bucket]++;
+        }
+
+        private JSONObject toJSON() throws JSONException {
+            JSONArray histogram = new JSONArray();
+            for (int i = 0; i < mHistogram.length; i++) {
+                histogram.put(new JSONObject()
+                        .put("le_ms", i < FRAME_BUCKETS.length ? FRAME_BUCKETS[i] : -1)
+                        .put("count", mHistogram[i]));
+            }
+            return new JSONObject()
+                    .put("frames", mFrames)
+                    .put("dropped_frames", mDroppedFrames)
+                    .put("mean_frame_ms", mFrames == 0 ? 0 : mTotalNanos / mFrames / 1e6)
+                    .put("max_frame_ms", mMaxNanos / 1e6)
+                    .put("frame_histogram", histogram);
+        }
+    }
+
+    private static class BindStats {
+        private long mBinds;
+        private long mTotalNanos;
+        private long mMaxNanos;
+        // Binds which ran during a frame that took longer than a vsync
+        private long mSlowFrameBinds;
+
+        private JSONObject toJSON() throws JSONException {
+            return new JSONObject()
+                    .put("binds", mBinds)
+                    .put("mean_bind_ms", mBinds == 0 ? 0 : mTotalNanos / mBinds / 1e6)
+                    .put("max_bind_ms", mMaxNanos / 1e6)
+                    .put("binds_in_slow_frames", mSlowFrameBinds);
+        }
+    }
+
+    private static volatile boolean sEnabled;
+    private static final Map<String, ScreenStats> sScreens = new LinkedHashMap<String, ScreenStats>();
+    private static final Map<String, BindStats> sBinds = new LinkedHashMap<String, BindStats>();
+    // Card types bound since the last frame, with how many times each
+    private static final Map<String, Integer> sFrameBinds = new HashMap<String, Integer>();
+    private static String sScrollingScreen;
+    private static long sLastFrameNanos;
+    private static FrameCallback sFrameCallback;
+
+    private FrameMonitor() { }
+
+    /**
+     * Pick up whether monitoring was enabled in the preferences
+     */
+    public static void init(Context context) {
+        setEnabled(Prefs.getFrameMetricsPreference(context));
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+        if (!sEnabled) stopFrames();
+    }
+
+    /**
+     * Frames are timed from when a monitored list starts scrolling until
+     *  it comes to rest.
+     *
+     * @param screen name the frames are reported under
+     * @param scrollState one of the {@link AbsListView.OnScrollListener} states
+     */
+    public static void onScrollStateChanged(String screen, int scrollState) {
+        if (!sEnabled) return;
+        if (scrollState == AbsListView.OnScrollListener.SCROLL_STATE_IDLE) {
+            if (screen.equals(sScrollingScreen)) stopFrames();
+        } else if (sScrollingScreen == null) {
+            sScrollingScreen = screen;
+            startFrames();
+        }
+    }
+
+    /**
+     * Stop timing frames if the screen's list was scrolling, for when it
+     *  goes away before it came to rest (e.g. detached mid-fling)
+     */
+    public static synchronized void stopFrames(String screen) {
+        if (screen.equals(sScrollingScreen)) stopFrames();
+    }
+
+    /**
+     * Record how long building or binding a card's content took
+     *
+     * @param type the card type, usually its class name
+     */
+    public static synchronized void recordBind(String type, long nanos) {
+        BindStats stats = sBinds.get(type);
+        if (stats == null) {
+            stats = new BindStats();
+            sBinds.put(type, stats);
+        }
+        stats.mBinds++;
+        stats.mTotalNanos += nanos;
+        stats.mMaxNanos = Math.max(stats.mMaxNanos, nanos);
+        if (sScrollingScreen != null) {
+            Integer count = sFrameBinds.get(type);
+            sFrameBinds.put(type, count == null ? 1 : count + 1);
+        }
+    }
+
+    private static synchronized void onFrame(long frameTimeNanos) {
+        if (sLastFrameNanos != 0 && sScrollingScreen != null) {
+            long duration = frameTimeNanos - sLastFrameNanos;
+            ScreenStats stats = sScreens.get(sScrollingScreen);
+            if (stats == null) {
+                stats = new ScreenStats();
+                sScreens.put(sScrollingScreen, stats);
+            }
+            stats.record(duration);
+            // Binds since the last frame ran during the frame that just finished
+            if (duration > FRAME_NANOS * 3 / 2) {
+                for (Map.Entry<String, Integer> entry : sFrameBinds.entrySet()) {
+                    sBinds.get(entry.getKey()).mSlowFrameBinds += entry.getValue();
+                }
+            }
+        }
+        sFrameBinds.clear();
+        sLastFrameNanos = frameTimeNanos;
+    }
+
+    private static void startFrames() {
+        sLastFrameNanos = 0;
+        if (sFrameCallback == null) sFrameCallback = new FrameCallback();
+        sFrameCallback.start();
+    }
+
+    private static synchronized void stopFrames() {
+        if (sFrameCallback != null) sFrameCallback.stop();
+        sScrollingScreen = null;
+        sFrameBinds.clear();
+    }
+
+    /**
+     * Forget everything collected so far
+     */
+    public static synchronized void reset() {
+        sScreens.clear();
+        sBinds.clear();
+    }
+
+    /**
+     * @return the frame histograms per screen and the bind times per card type
+     */
+    public static synchronized JSONObject toJSON() throws JSONException {
+        JSONObject screens = new JSONObject();
+        for (Map.Entry<String, ScreenStats> entry : sScreens.entrySet()) {
+            screens.put(entry.getKey(), entry.getValue().toJSON());
+        }
+        JSONObject binds = new JSONObject();
+        for (Map.Entry<String, BindStats> entry : sBinds.entrySet()) {
+            binds.put(entry.getKey(), entry.getValue().toJSON());
+        }
+        return new JSONObject()
+                .put("enabled", sEnabled)
+                .put("screens", screens)
+                .put("card_binds", binds);
+    }
+
+    /**
+     * Write the summary to the log
+     */
+    public static void dump() {
+        try {
+            Log.i(TAG, toJSON().toString(2));
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to dump frame metrics", e);
+        }
+    }
+
+    // Only loaded on Jelly Bean and up, where Choreographer exists
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameCallback implements Choreographer.FrameCallback {
+        private boolean mRunning;
+
+        void start() {
+            if (mRunning) return;
+            mRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) return;
+            onFrame(frameTimeNanos);
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
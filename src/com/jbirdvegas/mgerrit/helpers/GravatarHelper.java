@@ -61,9 +61,11 @@ public class GravatarHelper {
     }
 
     private static RequestQueue imageVolleyRequest(final ImageView imageView, String url, RequestQueue imageRequest) {
+        final long startTime = System.currentTimeMillis();
         imageRequest.add(new ImageRequest(url, new Response.Listener<Bitmap>() {
             @Override
             public void onResponse(Bitmap bitmap) {
+                recordAvatarRequest(bitmap, startTime);
                 imageView.setImageBitmap(bitmap);
             }
         },
@@ -73,6 +75,7 @@ public class GravatarHelper {
                 new Response.ErrorListener() {
                     @Override
                     public void onErrorResponse(VolleyError volleyError) {
+                        recordAvatarRequest(null, startTime);
                         Log.e(TAG, "http Volley request failed!", volleyError);
                     }
                 }
@@ -80,11 +83,23 @@ public class GravatarHelper {
         return imageRequest;
     }
 
+    // The encoded size is not available here, so the decoded size is reported
+    private static void recordAvatarRequest(Bitmap bitmap, long startTime) {
+        Diagnostics.recordRequest(Diagnostics.Endpoint.AVATARS,
+                bitmap == null ? 0 : bitmap.getRowBytes() * bitmap.getHeight(),
+                startTime, bitmap != null);
+    }
+
     public static void attachGravatarToTextView(final TextView textView, String email, RequestQueue imageRequest) {
-        String url = getGravatarUrl(email);
+        final String url = getGravatarUrl(email);
+        // Recycled views may have been rebound to someone else by the time this loads
+        textView.setTag(R.id.gravatar_url, url);
+        final long startTime = System.currentTimeMillis();
         imageRequest.add(new ImageRequest(url, new Response.Listener<Bitmap>() {
             @Override
             public void onResponse(Bitmap bitmap) {
+                recordAvatarRequest(bitmap, startTime);
+                if (textView.getTag(R.id.gravatar_url) != url) return;
                 textView.setCompoundDrawablesWithIntrinsicBounds(
                         new BitmapDrawable(bitmap),
                         null,
@@ -105,6 +120,7 @@ public class GravatarHelper {
                     @Override
                     public void onErrorResponse(VolleyError volleyError) {
                         // don't do anything just show the textview as is
+                        recordAvatarRequest(null, startTime);
                         Log.e(TAG, "http Volley request failed!", volleyError);
                     }
                 }
@@ -0,0 +1,162 @@
+package com.jbirdvegas.mgerrit.helpers;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two versions of a file line by line, using the O(ND) difference
+ *  algorithm (Myers, 1986) as {@link WordDiff} does for the words of a line.
+ * <p/>
+ * Equal lines are given the same number first so each step compares two
+ *  ints. Only the diagonals reached at each step are kept for walking back,
+ *  and files that differ in too many lines are not compared at all.
+ */
+public final class LineDiff {
+    // Edits (inserted plus deleted lines) per pair of files
+    public static final int MAX_EDITS = 600;
+
+    private LineDiff() { }
+
+    /**
+     * @return every line of both files in order, prefixed by ' ', '-' or '+'
+     *  as in a unified diff, or null if they differ in too many lines
+     */
+    public static List<String> compare(String[] a, String[] b) {
+        Map<String, Integer> numbers = new HashMap<String, Integer>();
+        int[] linesA = number(a, numbers);
+        int[] linesB = number(b, numbers);
+        int n = a.length;
+        int m = b.length;
+
+        // Common leading and trailing lines cost nothing to match up front
+        int prefix = 0;
+        while (prefix < n && prefix < m && linesA[prefix] == linesB[prefix]) prefix++;
+        int suffix = 0;
+        while (suffix < n - prefix && suffix < m - prefix
+                && linesA[n - 1 - suffix] == linesB[m - 1 - suffix]) suffix++;
+
+        boolean[] changedA = new boolean[n];
+        boolean[] changedB = new boolean[m];
+        if (!diff(linesA, prefix, n - suffix, linesB, prefix, m - suffix, changedA, changedB)) {
+            return null;
+        }
+
+        // Unchanged lines pair up in order, removed lines go before added ones
+        List<String> merged = new ArrayList<String>(n + m);
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && changedA[i]) {
+                merged.add('-' + a[i++]);
+            } else if (j < m && changedB[j]) {
+                merged.add('+' + b[j++]);
+            } else {
+                merged.add(' ' + a[i++]);
+                j++;
+            }
+        }
+        return merged;
+    }
+
+    private static int[] number(String[] lines, Map<String, Integer> numbers) {
+        int[] numbered = new int[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            Integer number = numbers.get(lines[i]);
+            if (number == null) {
+                number = numbers.size();
+                numbers.put(lines[i], number);
+            }
+            numbered[i] = number;
+        }
+        return numbered;
+    }
+
+    /**
+     * Mark the lines that are not part of the shortest edit script between
+     *  a[fromA, toA) and b[fromB, toB).
+     *
+     * @return false if more than MAX_EDITS edits are needed
+     */
+    private static boolean diff(int[] a, int fromA, int toA, int[] b, int fromB, int toB,
+                                boolean[] changedA, boolean[] changedB) {
+        int n = toA - fromA;
+        int m = toB - fromB;
+        int max = Math.min(n + m, MAX_EDITS);
+        int offset = max + 1;
+        // v[k + offset] is the furthest x reached on diagonal k
+        int[] v = new int[2 * max + 3];
+        // trace[d][k + d] is v[k + offset] after step d, for k in [-d, d]
+        int[][] trace = new int[max + 1][];
+        int found = -1;
+        for (int d = 0; d <= max && found < 0; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[k - 1 + offset] < v[k + 1 + offset])) {
+                    x = v[k + 1 + offset];
+                } else {
+                    x = v[k - 1 + offset] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[fromA + x] == b[fromB + y]) {
+                    x++;
+                    y++;
+                }
+                v[k + offset] = x;
+                if (x >= n && y >= m) {
+                    found = d;
+                    break;
+                }
+            }
+            trace[d] = Arrays.copyOfRange(v, offset - d, offset + d + 1);
+        }
+        if (found < 0) return false;
+
+        // Walk back through the trace, marking the line each edit skipped over
+        int x = n;
+        int y = m;
+        for (int d = found; d > 0; d--) {
+            int[] previous = trace[d - 1];
+            int k = x - y;
+            int previousK;
+            if (k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1])) {
+                previousK = k + 1;
+            } else {
+                previousK = k - 1;
+            }
+            int previousX = previous[previousK + d - 1];
+            int previousY = previousX - previousK;
+            while (x > previousX && y > previousY) {
+                x--;
+                y--;
+            }
+            if (previousK == k + 1) {
+                changedB[fromB + previousY] = true;
+            } else {
+                changedA[fromA + previousX] = true;
+            }
+            x = previousX;
+            y = previousY;
+        }
+        return true;
+    }
+}
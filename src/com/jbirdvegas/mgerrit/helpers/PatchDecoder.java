@@ -0,0 +1,92 @@
+package com.jbirdvegas.mgerrit.helpers;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.util.Log;
+import org.apache.commons.codec.binary.Base64InputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Turns a patch as downloaded from Gerrit into a reader of its lines.
+ * <p/>
+ * Gerrit sends patches Base64 encoded, with the standard or the url safe
+ *  alphabet depending on the version, and some servers send them as plain
+ *  text. The encoding is worked out from the first block of the response,
+ *  which is then decoded as it is read so the patch is never held in
+ *  memory as a whole.
+ */
+public final class PatchDecoder {
+    private static final String TAG = PatchDecoder.class.getSimpleName();
+    // One MIME line of Base64 and then some, a plain patch has a space well before this
+    private static final int DETECT_BYTES = 512;
+    private static final int BUFFER_SIZE = 8192;
+
+    public enum Encoding { BASE64, BASE64_URL_SAFE, PLAIN }
+
+    private PatchDecoder() { }
+
+    /**
+     * @param patch the response as received
+     * @return a reader of the decoded patch, in UTF-8
+     */
+    public static BufferedReader open(InputStream patch) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(patch, BUFFER_SIZE);
+        Encoding encoding = detect(in);
+        Log.d(TAG, "Patch encoding: " + encoding);
+        // The decoder accepts either alphabet and missing padding
+        InputStream decoded = encoding == Encoding.PLAIN ? in : new Base64InputStream(in);
+        return new BufferedReader(new InputStreamReader(decoded, "UTF-8"), BUFFER_SIZE);
+    }
+
+    /**
+     * Look at the first block of the stream, which is left unread
+     */
+    public static Encoding detect(BufferedInputStream in) throws IOException {
+        in.mark(DETECT_BYTES);
+        byte[] block = new byte[DETECT_BYTES];
+        int length = 0;
+        int read;
+        while (length < block.length
+                && (read = in.read(block, length, block.length - length)) != -1) {
+            length += read;
+        }
+        in.reset();
+
+        boolean urlSafe = false;
+        for (int i = 0; i < length; i++) {
+            byte b = block[i];
+            if (b == '-' || b == '_') {
+                urlSafe = true;
+            } else if (!isBase64(b)) {
+                return Encoding.PLAIN;
+            }
+        }
+        return urlSafe ? Encoding.BASE64_URL_SAFE : Encoding.BASE64;
+    }
+
+    // Standard alphabet, padding and line breaks
+    private static boolean isBase64(byte b) {
+        return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9')
+                || b == '+' || b == '/' || b == '=' || b == '\r' || b == '\n';
+    }
+}
@@ -0,0 +1,284 @@
+package com.jbirdvegas.mgerrit.helpers;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import com.jbirdvegas.mgerrit.objects.Patch;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Counts the whitespace and style problems each file of a patch adds:
+ *  tabs, trailing whitespace, CRLF line endings and long lines. Only added
+ *  lines are looked at, so problems the change merely keeps do not count.
+ * <p/>
+ * The patch is read one line at a time and only the counts are kept. It
+ *  can be read on its own or counted while it is being parsed, see
+ *  {@link LintingReader}.
+ */
+public class PatchLint {
+    private static final String FILE_HEADER = "diff --git ";
+    // The AOSP code style limit
+    public static final int MAX_LINE_LENGTH = 100;
+
+    /**
+     * Number of added lines of a file with each kind of problem
+     */
+    public static class Counts {
+        private static final String KEY_TABS = "tabs";
+        private static final String KEY_TRAILING = "trailing";
+        private static final String KEY_CRLF = "crlf";
+        private static final String KEY_LONG = "long";
+        private int mTabs;
+        private int mTrailing;
+        private int mCrlf;
+        private int mLongLines;
+
+        public int getTabs() {
+            return mTabs;
+        }
+
+        public int getTrailingWhitespace() {
+            return mTrailing;
+        }
+
+        public int getCrlf() {
+            return mCrlf;
+        }
+
+        public int getLongLines() {
+            return mLongLines;
+        }
+
+        public boolean isClean() {
+            return mTabs == 0 && mTrailing == 0 && mCrlf == 0 && mLongLines == 0;
+        }
+
+        public JSONObject toJSON() throws JSONException {
+            return new JSONObject()
+                    .put(KEY_TABS, mTabs)
+                    .put(KEY_TRAILING, mTrailing)
+                    .put(KEY_CRLF, mCrlf)
+                    .put(KEY_LONG, mLongLines);
+        }
+
+        public static Counts fromJSON(JSONObject object) {
+            Counts counts = new Counts();
+            counts.mTabs = object.optInt(KEY_TABS);
+            counts.mTrailing = object.optInt(KEY_TRAILING);
+            counts.mCrlf = object.optInt(KEY_CRLF);
+            counts.mLongLines = object.optInt(KEY_LONG);
+            return counts;
+        }
+    }
+
+    // Counts by path, renamed files can be found by either path
+    private final Map<String, Counts> mFiles = new HashMap<String, Counts>();
+    private Counts mCurrent;
+    private boolean mInHunk;
+    private int mOldRemaining;
+    private int mNewRemaining;
+    private final int[] mRange = new int[4];
+    private final StringBuilder mLine = new StringBuilder(256);
+
+    private PatchLint() { }
+
+    /**
+     * @param patch the decoded patch, see {@link PatchDecoder}
+     * @return the counts of each file in the patch, by path
+     */
+    public static Map<String, Counts> analyse(Reader patch) throws IOException {
+        PatchLint lint = new PatchLint();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = patch.read(buffer)) != -1) {
+            lint.feed(buffer, 0, read);
+        }
+        return lint.finish();
+    }
+
+    /**
+     * Counts the problems of a patch as it is read by something else, e.g.
+     *  the patch parser, so it does not have to be downloaded again
+     */
+    public static class LintingReader extends FilterReader {
+        private final PatchLint mLint = new PatchLint();
+
+        /**
+         * @param patch the decoded patch, see {@link PatchDecoder}
+         */
+        public LintingReader(Reader patch) {
+            super(patch);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c != -1) mLint.feed((char) c);
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) mLint.feed(buffer, offset, read);
+            return read;
+        }
+
+        // Skipped characters must still be counted
+        @Override
+        public long skip(long count) throws IOException {
+            char[] buffer = new char[(int) Math.min(count, 8192)];
+            long skipped = 0;
+            int read;
+            while (skipped < count
+                    && (read = read(buffer, 0, (int) Math.min(count - skipped, buffer.length))) != -1) {
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        /**
+         * @return the counts of each file read so far, by path. Call once
+         *  the whole patch has been read.
+         */
+        public Map<String, Counts> getCounts() {
+            return mLint.finish();
+        }
+    }
+
+    // Lines are split on \n only, so carriage returns are left to be counted
+    private void feed(char[] buffer, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            feed(buffer[i]);
+        }
+    }
+
+    private void feed(char c) {
+        if (c == '\n') {
+            readLine(mLine);
+            mLine.setLength(0);
+        } else {
+            mLine.append(c);
+        }
+    }
+
+    private Map<String, Counts> finish() {
+        if (mLine.length() > 0) {
+            readLine(mLine);
+            mLine.setLength(0);
+        }
+        return mFiles;
+    }
+
+    /**
+     * @return the counts as a JSON object, keyed by path
+     */
+    public static JSONObject toJSON(Map<String, Counts> files) throws JSONException {
+        JSONObject object = new JSONObject();
+        for (Map.Entry<String, Counts> file : files.entrySet()) {
+            object.put(file.getKey(), file.getValue().toJSON());
+        }
+        return object;
+    }
+
+    public static Map<String, Counts> fromJSON(JSONObject object) throws JSONException {
+        Map<String, Counts> files = new HashMap<String, Counts>();
+        Iterator keys = object.keys();
+        while (keys.hasNext()) {
+            String path = (String) keys.next();
+            files.put(path, Counts.fromJSON(object.getJSONObject(path)));
+        }
+        return files;
+    }
+
+    private void readLine(StringBuilder line) {
+        if (startsWith(line, FILE_HEADER)) {
+            startFile(line.substring(FILE_HEADER.length()));
+            return;
+        }
+        // Before the first file
+        if (mCurrent == null) return;
+
+        if (startsWith(line, "@@")) {
+            mInHunk = Patch.parseHunkHeader(line.toString(), mRange)
+                    && (mRange[1] > 0 || mRange[3] > 0);
+            mOldRemaining = mRange[1];
+            mNewRemaining = mRange[3];
+        } else if (mInHunk) {
+            char first = line.length() == 0 ? ' ' : line.charAt(0);
+            if (first == '+') {
+                check(line);
+                mNewRemaining--;
+            } else if (first == '-') {
+                mOldRemaining--;
+            } else if (first != '\\') {
+                mOldRemaining--;
+                mNewRemaining--;
+            }
+            // Anything after the last hunk (e.g. the signature) is not part of it
+            if (mOldRemaining <= 0 && mNewRemaining <= 0) mInHunk = false;
+        }
+    }
+
+    // "a/path b/path"
+    private void startFile(String files) {
+        mCurrent = new Counts();
+        mInHunk = false;
+        int split = files.indexOf(" b/");
+        if (files.startsWith("a/") && split > 0) {
+            mFiles.put(files.substring(2, split), mCurrent);
+            mFiles.put(files.substring(split + 3), mCurrent);
+        } else {
+            mFiles.put(files, mCurrent);
+        }
+    }
+
+    // An added line, after its "+"
+    private void check(StringBuilder line) {
+        int end = line.length();
+        if (end > 1 && line.charAt(end - 1) == '\r') {
+            mCurrent.mCrlf++;
+            end--;
+        }
+        boolean tabs = false;
+        for (int i = 1; i < end && !tabs; i++) {
+            tabs = line.charAt(i) == '\t';
+        }
+        if (tabs) mCurrent.mTabs++;
+        if (end > 1) {
+            char last = line.charAt(end - 1);
+            if (last == ' ' || last == '\t') mCurrent.mTrailing++;
+        }
+        if (end - 1 > MAX_LINE_LENGTH) mCurrent.mLongLines++;
+    }
+
+    private static boolean startsWith(StringBuilder line, String prefix) {
+        if (line.length() < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.charAt(i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+}
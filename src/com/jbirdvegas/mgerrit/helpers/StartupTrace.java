@@ -0,0 +1,169 @@
+package com.jbirdvegas.mgerrit.helpers;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Start-up markers used to track the time to first card between builds.
+ * <p/>
+ * The trace starts when the main activity is first created in this process
+ *  and ends when the first list of cards is drawn. Each marker records the
+ *  time since the start; on Jelly Bean MR2 and up the markers also show in
+ *  systrace. Work that is not needed to show the first cards can be queued
+ *  with {@link #runAfterFirstCard(Runnable)}. The results are logged and
+ *  included in the diagnostics export. Main thread only.
+ */
+public final class StartupTrace {
+    private static final String TAG = StartupTrace.class.getSimpleName();
+    // Deferred work is run anyway if no cards have been drawn by then
+    private static final long MAX_DEFER = 5000;
+
+    private static long sStart;
+    private static long sFirstCard = -1;
+    private static final Map<String, Long> sMarks = new LinkedHashMap<String, Long>();
+    private static final List<Runnable> sDeferred = new ArrayList<Runnable>();
+    private static Handler sHandler;
+    private static boolean sWaitingForDraw;
+    // Work is being held back until the first cards are drawn
+    private static boolean sDeferring;
+
+    private static final Runnable sRunDeferred = new Runnable() {
+        @Override
+        public void run() {
+            runDeferred();
+        }
+    };
+
+    private StartupTrace() { }
+
+    /**
+     * Start the trace, only the first call in a process counts
+     */
+    public static void begin() {
+        if (sStart != 0) return;
+        sStart = SystemClock.uptimeMillis();
+        sHandler = new Handler(Looper.getMainLooper());
+        sDeferring = true;
+        sHandler.postDelayed(sRunDeferred, MAX_DEFER);
+        mark("begin");
+    }
+
+    public static boolean isTracing() {
+        return sStart != 0 && sFirstCard < 0;
+    }
+
+    /**
+     * Record that a start-up phase has been reached
+     */
+    public static synchronized void mark(String name) {
+        if (!isTracing()) return;
+        sMarks.put(name, SystemClock.uptimeMillis() - sStart);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Systrace.mark(name);
+        }
+    }
+
+    /**
+     * Called once cards have been added to a list, the trace ends when
+     *  that list is next drawn.
+     */
+    public static void onCardsShown(View cards) {
+        if (!isTracing() || sWaitingForDraw) return;
+        sWaitingForDraw = true;
+        mark("cards_bound");
+        final ViewTreeObserver observer = cards.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (observer.isAlive()) observer.removeOnPreDrawListener(this);
+                finish();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Run work that is not needed for the first cards once they have been
+     *  drawn, or straight away (posted) if start-up is already over.
+     */
+    public static void runAfterFirstCard(Runnable runnable) {
+        sDeferred.add(runnable);
+        if (!sDeferring) {
+            if (sHandler == null) sHandler = new Handler(Looper.getMainLooper());
+            sHandler.post(sRunDeferred);
+        }
+    }
+
+    private static void finish() {
+        mark("first_card");
+        synchronized (StartupTrace.class) {
+            sFirstCard = SystemClock.uptimeMillis() - sStart;
+        }
+        Log.i(TAG, "Time to first card: " + sFirstCard + "ms");
+        // Posted so it runs after the frame being drawn
+        sHandler.removeCallbacks(sRunDeferred);
+        sHandler.post(sRunDeferred);
+    }
+
+    private static void runDeferred() {
+        sDeferring = false;
+        List<Runnable> deferred = new ArrayList<Runnable>(sDeferred);
+        sDeferred.clear();
+        for (Runnable runnable : deferred) {
+            runnable.run();
+        }
+    }
+
+    /**
+     * @return the markers of this process's start-up, in ms since it began
+     */
+    public static synchronized JSONObject toJSON() throws JSONException {
+        JSONObject marks = new JSONObject();
+        for (Map.Entry<String, Long> entry : sMarks.entrySet()) {
+            marks.put(entry.getKey(), entry.getValue());
+        }
+        return new JSONObject()
+                .put("time_to_first_card_ms", sFirstCard)
+                .put("marks", marks);
+    }
+
+    // Only loaded on Jelly Bean MR2 and up, where Trace exists
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static class Systrace {
+        static void mark(String name) {
+            Trace.beginSection("startup:" + name);
+            Trace.endSection();
+        }
+    }
+}
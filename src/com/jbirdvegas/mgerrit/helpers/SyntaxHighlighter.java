@@ -0,0 +1,315 @@
+package com.jbirdvegas.mgerrit.helpers;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A small tokenizer for the languages most often found in AOSP trees,
+ *  used to highlight the lines of a diff.
+ * <p/>
+ * Lines are highlighted one at a time; whatever is left open at the end
+ *  of a line (a block comment, an XML tag) is kept as the state to start
+ *  the next line with. Each line gives a list of runs
+ *  {start, end, token type...}, there are never more than MAX_RUNS.
+ */
+public class SyntaxHighlighter {
+    public static final int TOKEN_KEYWORD = 0;
+    public static final int TOKEN_COMMENT = 1;
+    public static final int TOKEN_STRING = 2;
+    // Preprocessor lines, annotations and variables
+    public static final int TOKEN_DIRECTIVE = 3;
+
+    public static final int STATE_NORMAL = 0;
+    public static final int STATE_COMMENT = 1;
+    // Inside an XML tag, so attributes can be on the following lines
+    public static final int STATE_TAG = 2;
+
+    // Longer lines (usually generated or minified) are not highlighted
+    public static final int MAX_LINE_LENGTH = 400;
+    private static final int MAX_RUNS = 64;
+
+    public enum Language { C_LIKE, MAKE, SHELL, PYTHON, XML }
+
+    private static final Set<String> C_KEYWORDS = keywords(
+            "abstract", "assert", "auto", "boolean", "break", "byte", "case", "catch", "char",
+            "class", "const", "continue", "default", "delete", "do", "double", "else", "enum",
+            "extends", "extern", "false", "final", "finally", "float", "for", "friend", "goto",
+            "if", "implements", "import", "inline", "instanceof", "int", "interface", "long",
+            "namespace", "native", "new", "null", "nullptr", "operator", "package", "private",
+            "protected", "public", "return", "short", "signed", "sizeof", "static", "struct",
+            "super", "switch", "synchronized", "template", "this", "throw", "throws", "transient",
+            "true", "try", "typedef", "typename", "union", "unsigned", "using", "var", "virtual",
+            "void", "volatile", "while");
+    private static final Set<String> MAKE_KEYWORDS = keywords(
+            "define", "else", "endef", "endif", "export", "ifdef", "ifeq", "ifndef", "ifneq",
+            "include", "override", "unexport", "vpath");
+    private static final Set<String> SHELL_KEYWORDS = keywords(
+            "case", "do", "done", "elif", "else", "esac", "export", "fi", "for", "function",
+            "if", "in", "local", "return", "then", "until", "while");
+    private static final Set<String> PYTHON_KEYWORDS = keywords(
+            "and", "as", "assert", "break", "class", "continue", "def", "del", "elif", "else",
+            "except", "False", "finally", "for", "from", "global", "if", "import", "in", "is",
+            "lambda", "None", "not", "or", "pass", "print", "raise", "return", "True", "try",
+            "while", "with", "yield");
+
+    private final Language mLanguage;
+    private final Set<String> mKeywords;
+    private int mState = STATE_NORMAL;
+    private int[] mRuns = new int[MAX_RUNS * 3];
+    private int mRunCount;
+
+    public SyntaxHighlighter(Language language) {
+        mLanguage = language;
+        switch (language) {
+            case MAKE: mKeywords = MAKE_KEYWORDS; break;
+            case SHELL: mKeywords = SHELL_KEYWORDS; break;
+            case PYTHON: mKeywords = PYTHON_KEYWORDS; break;
+            case XML: mKeywords = null; break;
+            default: mKeywords = C_KEYWORDS; break;
+        }
+    }
+
+    private static Set<String> keywords(String... words) {
+        return new HashSet<String>(Arrays.asList(words));
+    }
+
+    /**
+     * @return the language of the file going by its name, null if it is
+     *  not one that can be highlighted
+     */
+    public static Language forPath(String path) {
+        if (path == null) return null;
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (name.equals("Makefile") || name.equals("makefile") || name.equals("GNUmakefile")) {
+            return Language.MAKE;
+        }
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) return null;
+        String extension = name.substring(dot + 1).toLowerCase(Locale.US);
+        if (extension.equals("java") || extension.equals("c") || extension.equals("cc")
+                || extension.equals("cpp") || extension.equals("cxx") || extension.equals("h")
+                || extension.equals("hpp") || extension.equals("aidl") || extension.equals("js")
+                || extension.equals("gradle") || extension.equals("groovy")) {
+            return Language.C_LIKE;
+        } else if (extension.equals("mk")) {
+            return Language.MAKE;
+        } else if (extension.equals("sh") || extension.equals("rc")) {
+            return Language.SHELL;
+        } else if (extension.equals("py")) {
+            return Language.PYTHON;
+        } else if (extension.equals("xml")) {
+            return Language.XML;
+        }
+        return null;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public void setState(int state) {
+        mState = state;
+    }
+
+    /**
+     * Tokenize a line from the current state, which is then updated to the
+     *  state at the end of the line.
+     *
+     * @param from where the code starts, e.g. after the "+" of a diff line
+     * @return the runs found, null if there are none
+     */
+    public int[] highlight(String line, int from) {
+        mRunCount = 0;
+        if (line.length() > MAX_LINE_LENGTH) return null;
+        switch (mLanguage) {
+            case XML: highlightXml(line, from); break;
+            case C_LIKE: highlightC(line, from); break;
+            default: highlightHashComments(line, from); break;
+        }
+        return mRunCount == 0 ? null : Arrays.copyOf(mRuns, mRunCount * 3);
+    }
+
+    private void highlightC(String line, int i) {
+        int length = line.length();
+        if (mState == STATE_COMMENT) i = endComment(line, i, 0, "*/");
+        int first = skipSpace(line, i);
+        if (mState == STATE_NORMAL && first < length && line.charAt(first) == '#') {
+            addRun(first, length, TOKEN_DIRECTIVE);
+            return;
+        }
+        while (i < length && mState == STATE_NORMAL) {
+            char c = line.charAt(i);
+            if (c == '/' && line.startsWith("//", i)) {
+                addRun(i, length, TOKEN_COMMENT);
+                return;
+            } else if (c == '/' && line.startsWith("/*", i)) {
+                mState = STATE_COMMENT;
+                i = endComment(line, i, 2, "*/");
+            } else if (c == '"' || c == '\'') {
+                i = string(line, i, c);
+            } else if (c == '@' && i + 1 < length && Character.isLetter(line.charAt(i + 1))) {
+                int end = word(line, i + 1);
+                addRun(i, end, TOKEN_DIRECTIVE);
+                i = end;
+            } else if (Character.isLetter(c) || c == '_') {
+                i = keyword(line, i);
+            } else if (Character.isDigit(c)) {
+                i = word(line, i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    // Makefiles, shell scripts and python, which all have # comments
+    private void highlightHashComments(String line, int i) {
+        int length = line.length();
+        while (i < length) {
+            char c = line.charAt(i);
+            if (c == '#') {
+                addRun(i, length, TOKEN_COMMENT);
+                return;
+            } else if (c == '"' || c == '\'') {
+                i = string(line, i, c);
+            } else if (c == '$' && mLanguage != Language.PYTHON && i + 1 < length) {
+                i = variable(line, i);
+            } else if (Character.isLetter(c) || c == '_') {
+                i = keyword(line, i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private void highlightXml(String line, int i) {
+        int length = line.length();
+        while (i < length) {
+            if (mState == STATE_COMMENT) {
+                i = endComment(line, i, 0, "-->");
+                continue;
+            }
+            char c = line.charAt(i);
+            if (mState == STATE_TAG) {
+                if (c == '"' || c == '\'') {
+                    i = string(line, i, c);
+                } else {
+                    if (c == '>') mState = STATE_NORMAL;
+                    i++;
+                }
+            } else if (line.startsWith("<!--", i)) {
+                mState = STATE_COMMENT;
+                i = endComment(line, i, 4, "-->");
+            } else if (c == '<') {
+                int start = i + 1;
+                if (start < length && (line.charAt(start) == '/' || line.charAt(start) == '?')) start++;
+                int end = start;
+                while (end < length && isXmlNameChar(line.charAt(end))) end++;
+                addRun(i, end, TOKEN_KEYWORD);
+                mState = STATE_TAG;
+                i = end;
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Add the run from i, inside a comment, to the end of the comment or line
+     *
+     * @param skip length of the opening of the comment if it starts at i
+     */
+    private int endComment(String line, int i, int skip, String close) {
+        int end = line.indexOf(close, i + skip);
+        if (end < 0) {
+            addRun(i, line.length(), TOKEN_COMMENT);
+            return line.length();
+        }
+        end += close.length();
+        addRun(i, end, TOKEN_COMMENT);
+        mState = STATE_NORMAL;
+        return end;
+    }
+
+    private int string(String line, int i, char quote) {
+        int length = line.length();
+        int end = i + 1;
+        while (end < length && line.charAt(end) != quote) {
+            // Skip escaped characters, but not in XML
+            if (line.charAt(end) == '\\' && mLanguage != Language.XML) end++;
+            end++;
+        }
+        end = Math.min(end + 1, length);
+        addRun(i, end, TOKEN_STRING);
+        return end;
+    }
+
+    // $(VAR), ${VAR} or $VAR
+    private int variable(String line, int i) {
+        int length = line.length();
+        char open = line.charAt(i + 1);
+        int end;
+        if (open == '(' || open == '{') {
+            int close = line.indexOf(open == '(' ? ')' : '}', i + 2);
+            end = close < 0 ? length : close + 1;
+        } else {
+            end = word(line, i + 1);
+            if (end == i + 1) return end;
+        }
+        addRun(i, end, TOKEN_DIRECTIVE);
+        return end;
+    }
+
+    private int keyword(String line, int i) {
+        int end = word(line, i);
+        if (mKeywords != null && mKeywords.contains(line.substring(i, end))) {
+            addRun(i, end, TOKEN_KEYWORD);
+        }
+        return end;
+    }
+
+    private int word(String line, int i) {
+        int length = line.length();
+        while (i < length && isNameChar(line.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static boolean isXmlNameChar(char c) {
+        return isNameChar(c) || c == '-' || c == ':' || c == '.';
+    }
+
+    private static int skipSpace(String line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) i++;
+        return i;
+    }
+
+    private void addRun(int start, int end, int type) {
+        if (mRunCount == MAX_RUNS || end <= start) return;
+        mRuns[mRunCount * 3] = start;
+        mRuns[mRunCount * 3 + 1] = end;
+        mRuns[mRunCount * 3 + 2] = type;
+        mRunCount++;
+    }
+}
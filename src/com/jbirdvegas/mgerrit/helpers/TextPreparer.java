@@ -0,0 +1,174 @@
+package com.jbirdvegas.mgerrit.helpers;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prepares display text for cards on a background thread, so binding a
+ *  card only has to assign text that is already formatted.
+ * <p/>
+ * Items are submitted as a {@link Batch} in list order. The item
+ *  closest to the last one shown on screen is always prepared next, so
+ *  text for the rows around the viewport is ready first. Batches can be
+ *  cancelled when the list they belong to goes away. Prepared text is
+ *  cached by the items themselves.
+ */
+public class TextPreparer {
+    private static final String TAG = TextPreparer.class.getSimpleName();
+
+    public interface Preparable {
+        /**
+         * Build and cache the display text of this item. Called on a
+         *  background thread, but may also be called on the main thread if a
+         *  card is bound before its text is ready.
+         */
+        public void prepare(Context context);
+    }
+
+    /**
+     * The items of a single list, in list order
+     */
+    public static class Batch {
+        private final List<? extends Preparable> mItems;
+        private final Map<Preparable, Integer> mPositions;
+        private final boolean[] mDone;
+        private int mRemaining;
+        private int mFocus;
+        private boolean mCancelled;
+
+        private Batch(List<? extends Preparable> items) {
+            mItems = new ArrayList<Preparable>(items);
+            mPositions = new IdentityHashMap<Preparable, Integer>(items.size());
+            for (int i = 0; i < mItems.size(); i++) {
+                mPositions.put(mItems.get(i), i);
+            }
+            mDone = new boolean[mItems.size()];
+            mRemaining = mItems.size();
+        }
+
+        // Index of the pending item closest to the focus or -1 if there is none
+        private int next() {
+            int size = mDone.length;
+            for (int distance = 0; distance < size; distance++) {
+                int after = mFocus + distance;
+                if (after < size && !mDone[after]) return after;
+                int before = mFocus - distance;
+                if (before >= 0 && !mDone[before]) return before;
+            }
+            return -1;
+        }
+    }
+
+    private static TextPreparer sInstance;
+
+    private final Context mContext;
+    private final List<Batch> mBatches = new ArrayList<Batch>();
+    private Thread mThread;
+
+    private TextPreparer(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    public static synchronized TextPreparer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TextPreparer(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queue a list of items to be prepared
+     *
+     * @return the batch, which should be cancelled if the list is discarded
+     *  before it has been prepared
+     */
+    public synchronized Batch prepare(List<? extends Preparable> items) {
+        Batch batch = new Batch(items);
+        if (batch.mRemaining == 0) return batch;
+        mBatches.add(batch);
+        if (mThread == null) {
+            mThread = new Thread(mWorker, TAG);
+            mThread.start();
+        }
+        notifyAll();
+        return batch;
+    }
+
+    /**
+     * Drop any items of this batch that have not been prepared yet
+     */
+    public synchronized void cancel(Batch batch) {
+        if (batch == null) return;
+        batch.mCancelled = true;
+        mBatches.remove(batch);
+    }
+
+    /**
+     * Called when an item is shown so the items around it are prepared next
+     */
+    public synchronized void onShown(Preparable item) {
+        for (Batch batch : mBatches) {
+            Integer position = batch.mPositions.get(item);
+            if (position != null) {
+                batch.mFocus = position;
+                return;
+            }
+        }
+    }
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            while (true) {
+                Preparable item;
+                synchronized (TextPreparer.this) {
+                    while (mBatches.isEmpty()) {
+                        try {
+                            TextPreparer.this.wait();
+                        } catch (InterruptedException e) {
+                            mThread = null;
+                            return;
+                        }
+                    }
+                    // Most recent lists first, older ones are likely off screen
+                    Batch batch = mBatches.get(mBatches.size() - 1);
+                    int index = batch.next();
+                    batch.mDone[index] = true;
+                    if (--batch.mRemaining == 0) mBatches.remove(batch);
+                    item = batch.mItems.get(index);
+                }
+
+                try {
+                    item.prepare(mContext);
+                } catch (RuntimeException e) {
+                    // The card formats its text itself when bound
+                    Log.w(TAG, "Failed to prepare " + item, e);
+                }
+            }
+        }
+    };
+}
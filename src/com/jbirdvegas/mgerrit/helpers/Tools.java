@@ -17,9 +17,13 @@ package com.jbirdvegas.mgerrit.helpers;
  *  limitations under the License.
  */
 
+import android.annotation.TargetApi;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
 import com.jbirdvegas.mgerrit.R;
 
 public class Tools {
@@ -75,5 +79,19 @@ public class Tools {
         return sb.toString();
     }
 
-
+    /**
+     * @return true if connected to a network that is not charged by use,
+     *  so content can be downloaded before it is asked for
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public static boolean isUnmeteredNetwork(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = cm.getActiveNetworkInfo();
+        if (info == null || !info.isConnected()) return false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return !cm.isActiveNetworkMetered();
+        }
+        int type = info.getType();
+        return type == ConnectivityManager.TYPE_WIFI || type == ConnectivityManager.TYPE_ETHERNET;
+    }
 }
@@ -0,0 +1,193 @@
+package com.jbirdvegas.mgerrit.helpers;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Finds the words that differ between two versions of a line, using the
+ *  O(ND) difference algorithm (Myers, 1986) over tokens rather than
+ *  characters.
+ * <p/>
+ * A token is a run of letters, digits and underscores, a run of whitespace,
+ *  a "\t" escape or any other single character. Work is capped per pair of
+ *  lines: long lines and lines that differ in too many places are not
+ *  compared at all, as highlighting them would not help anyway.
+ */
+public final class WordDiff {
+    // Tokens per line
+    public static final int MAX_TOKENS = 400;
+    // Edits (inserted plus deleted tokens) per pair of lines
+    public static final int MAX_EDITS = 48;
+
+    private WordDiff() { }
+
+    /**
+     * Compare two lines, skipping the first few characters of each (e.g.
+     *  the "-" and "+" of a diff).
+     *
+     * @return character ranges {start, end, start, end...} of the tokens
+     *  only in a and of those only in b, or null if the lines are too long
+     *  or too different to compare
+     */
+    public static int[][] compare(String a, String b, int skip) {
+        int[] tokensA = tokenize(a, skip);
+        if (tokensA == null) return null;
+        int[] tokensB = tokenize(b, skip);
+        if (tokensB == null) return null;
+        int n = tokensA.length - 1;
+        int m = tokensB.length - 1;
+
+        // Common leading and trailing tokens cost nothing to match up front
+        int prefix = 0;
+        while (prefix < n && prefix < m && same(a, tokensA, prefix, b, tokensB, prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < n - prefix && suffix < m - prefix
+                && same(a, tokensA, n - 1 - suffix, b, tokensB, m - 1 - suffix)) suffix++;
+
+        boolean[] changedA = new boolean[n];
+        boolean[] changedB = new boolean[m];
+        if (!diff(a, tokensA, prefix, n - suffix, b, tokensB, prefix, m - suffix,
+                changedA, changedB)) {
+            return null;
+        }
+        return new int[][] { toRanges(tokensA, changedA), toRanges(tokensB, changedB) };
+    }
+
+    /**
+     * @return the start of each token followed by the end of the line, null
+     *  if there are too many tokens
+     */
+    private static int[] tokenize(String line, int skip) {
+        int[] starts = new int[Math.min(line.length() - skip, MAX_TOKENS) + 2];
+        int count = 0;
+        int i = Math.min(skip, line.length());
+        int length = line.length();
+        while (i < length) {
+            if (count == MAX_TOKENS) return null;
+            starts[count++] = i;
+            char c = line.charAt(i);
+            if (isWordChar(c)) {
+                while (++i < length && isWordChar(line.charAt(i))) { }
+            } else if (Character.isWhitespace(c)) {
+                while (++i < length && Character.isWhitespace(line.charAt(i))) { }
+            } else if (c == '\\' && i + 1 < length && line.charAt(i + 1) == 't') {
+                i += 2;
+            } else {
+                i++;
+            }
+        }
+        starts[count] = length;
+        return Arrays.copyOf(starts, count + 1);
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static boolean same(String a, int[] tokensA, int i, String b, int[] tokensB, int j) {
+        int length = tokensA[i + 1] - tokensA[i];
+        return length == tokensB[j + 1] - tokensB[j]
+                && a.regionMatches(tokensA[i], b, tokensB[j], length);
+    }
+
+    /**
+     * Mark the tokens that are not part of the shortest edit script between
+     *  a[fromA, toA) and b[fromB, toB).
+     *
+     * @return false if more than MAX_EDITS edits are needed
+     */
+    private static boolean diff(String a, int[] tokensA, int fromA, int toA,
+                                String b, int[] tokensB, int fromB, int toB,
+                                boolean[] changedA, boolean[] changedB) {
+        int n = toA - fromA;
+        int m = toB - fromB;
+        int max = Math.min(n + m, MAX_EDITS);
+        int offset = max + 1;
+        // v[k + offset] is the furthest x reached on diagonal k, one copy per d
+        int[] v = new int[2 * max + 3];
+        int[][] trace = new int[max + 1][];
+        int found = -1;
+        for (int d = 0; d <= max && found < 0; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[k - 1 + offset] < v[k + 1 + offset])) {
+                    x = v[k + 1 + offset];
+                } else {
+                    x = v[k - 1 + offset] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && same(a, tokensA, fromA + x, b, tokensB, fromB + y)) {
+                    x++;
+                    y++;
+                }
+                v[k + offset] = x;
+                if (x >= n && y >= m) {
+                    found = d;
+                    break;
+                }
+            }
+            trace[d] = v.clone();
+        }
+        if (found < 0) return false;
+
+        // Walk back through the trace, marking the token each edit skipped over
+        int x = n;
+        int y = m;
+        for (int d = found; d > 0; d--) {
+            int[] previous = trace[d - 1];
+            int k = x - y;
+            int previousK;
+            if (k == -d || (k != d && previous[k - 1 + offset] < previous[k + 1 + offset])) {
+                previousK = k + 1;
+            } else {
+                previousK = k - 1;
+            }
+            int previousX = previous[previousK + offset];
+            int previousY = previousX - previousK;
+            while (x > previousX && y > previousY) {
+                x--;
+                y--;
+            }
+            if (previousK == k + 1) {
+                changedB[fromB + previousY] = true;
+            } else {
+                changedA[fromA + previousX] = true;
+            }
+            x = previousX;
+            y = previousY;
+        }
+        return true;
+    }
+
+    // Adjacent changed tokens are joined into one range
+    private static int[] toRanges(int[] tokens, boolean[] changed) {
+        int[] ranges = new int[changed.length * 2];
+        int count = 0;
+        for (int i = 0; i < changed.length; i++) {
+            if (!changed[i]) continue;
+            if (count > 0 && ranges[count - 1] == tokens[i]) {
+                ranges[count - 1] = tokens[i + 1];
+            } else {
+                ranges[count++] = tokens[i];
+                ranges[count++] = tokens[i + 1];
+            }
+        }
+        return Arrays.copyOf(ranges, count);
+    }
+}
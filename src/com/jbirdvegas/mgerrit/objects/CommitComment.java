@@ -17,13 +17,18 @@ package com.jbirdvegas.mgerrit.objects;
  *  limitations under the License.
  */
 
+import android.content.Context;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.text.Spannable;
+import android.text.util.Linkify;
 import android.util.Log;
+import com.jbirdvegas.mgerrit.helpers.EmoticonSupportHelper;
+import com.jbirdvegas.mgerrit.helpers.TextPreparer;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-public class CommitComment implements Parcelable {
+public class CommitComment implements Parcelable, TextPreparer.Preparable {
     private static final String KEY_REVISION_NUMBER = "_revision_number";
     private static final boolean DEBUG = false;
     private static final String TAG = CommitComment.class.getSimpleName();
@@ -33,6 +38,8 @@ public class CommitComment implements Parcelable {
     private String mDate;
     private CommitterObject mAuthorObject;
     private String mId;
+    // Message with emoticons and links, filled in by prepare()
+    private volatile CharSequence mPreparedMessage;
 
     public CommitComment(JSONObject jsonObject) {
         mJsonObject = jsonObject;
@@ -70,6 +77,26 @@ public class CommitComment implements Parcelable {
         return mMessage;
     }
 
+    /**
+     * Replace emoticons with drawables and link urls, email and
+     *  addresses in the message, see {@link TextPreparer}
+     */
+    @Override
+    public void prepare(Context context) {
+        if (mPreparedMessage != null || mMessage == null) return;
+        Spannable message = EmoticonSupportHelper.getSmiledText(context, mMessage);
+        Linkify.addLinks(message, Linkify.ALL);
+        mPreparedMessage = message;
+    }
+
+    /**
+     * @return the styled message, prepared now if it has not been already
+     */
+    public CharSequence getPreparedMessage(Context context) {
+        if (mPreparedMessage == null) prepare(context);
+        return mPreparedMessage;
+    }
+
     public String getDate() {
         return mDate;
     }
@@ -20,197 +20,376 @@ package com.jbirdvegas.mgerrit.objects;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Color;
+import android.graphics.Typeface;
 import android.text.SpannableString;
 import android.text.Spanned;
 import android.text.style.BackgroundColorSpan;
 import android.text.style.ForegroundColorSpan;
-import android.util.Log;
+import android.text.style.StyleSpan;
 import com.jbirdvegas.mgerrit.R;
+import com.jbirdvegas.mgerrit.helpers.SyntaxHighlighter;
+import com.jbirdvegas.mgerrit.helpers.WordDiff;
 
-import java.util.LinkedList;
+import java.util.Arrays;
 
+/**
+ * The diff of a single file of a {@link Patch}.
+ * <p/>
+ * Nothing is copied out of the patch, colours are applied to one line at
+ *  a time when it is shown, according to the kind of line the patch
+ *  recorded, so diffs of any size can be displayed in a recycling list.
+ */
 public class Diff {
     private static final String TAG = Diff.class.getSimpleName();
-    private final Resources mResources;
-    private String mFileDiff;
-    private String mPath;
-    private SpannableString mColorizedSpan;
-    private Context mContext;
-
-    public Diff(Context context, String fileDiff) {
-        mContext = context;
-        mResources = context.getResources();
-        String path = fileDiff.split(" ")[0].trim();
-        if ('a' == path.charAt(0)) {
-            mPath = path.substring(2, path.length());
-        } else {
-            mPath = path;
+    private final Patch mPatch;
+    private final int mFile;
+    // First line of this file in the patch
+    private final int mFirstLine;
+    private final int mLineCount;
+    // Lines which start a hunk ("@@ ... @@")
+    private final int[] mHunks;
+
+    // Changed words of removed and added lines that pair up, per line
+    private volatile int[][] mWordRanges;
+    private SideBySide mSideBySide;
+    // Syntax token runs of each line, see SyntaxHighlighter#highlight
+    private volatile int[][] mSyntaxRuns;
+
+    /*
+     * Span objects hold no text, so one set is shared by every line. A span
+     *  can only be used once per line, so styles which can be needed more
+     *  than once in a line have a pool which is reset for each line.
+     */
+    private final Object mAddedSpan;
+    private final Object mRemovedSpan;
+    private final Object mHunkSpan;
+    private final Object mOldFileSpan;
+    private final Object mNewFileSpan;
+    private final Object mFileSpan;
+    private final Object mTrailingSpan;
+    private final SpanPool mTabBackgrounds;
+    private final SpanPool mTabForegrounds;
+    private final SpanPool mWordsAdded;
+    private final SpanPool mWordsRemoved;
+    // Colours in the order of the SyntaxHighlighter.TOKEN_ constants
+    private final SpanPool[] mSyntaxColors;
+    private final SpanPool mBold;
+    private final SpanPool mItalic;
+    private final SpanPool[] mPools;
+
+    /**
+     * Creates spans of one style as they are first needed
+     */
+    private static class SpanPool {
+        private static final int FOREGROUND = 0;
+        private static final int BACKGROUND = 1;
+        private static final int STYLE = 2;
+        private final int mType;
+        private final int mValue;
+        private Object[] mSpans = new Object[4];
+        private int mUsed;
+
+        SpanPool(int type, int value) {
+            mType = type;
+            mValue = value;
         }
-        Log.d(TAG, "Path: " + mPath);
-        try {
-            // rebuild text; required to respect the \n
-            mFileDiff = unescape(fileDiff.replaceAll("\\\\n", "\\\n").trim());
-            mColorizedSpan = spanColoredText(mFileDiff);
-        } catch (NullPointerException npe) {
-            Log.e(TAG, "Diff was null!");
+
+        Object next() {
+            if (mUsed == mSpans.length) mSpans = Arrays.copyOf(mSpans, mUsed * 2);
+            if (mSpans[mUsed] == null) {
+                if (mType == FOREGROUND) mSpans[mUsed] = new ForegroundColorSpan(mValue);
+                else if (mType == BACKGROUND) mSpans[mUsed] = new BackgroundColorSpan(mValue);
+                else mSpans[mUsed] = new StyleSpan(mValue);
+            }
+            return mSpans[mUsed++];
+        }
+
+        void reset() {
+            mUsed = 0;
+        }
+    }
+
+    /**
+     * @param file index of the file in the patch, see {@link Patch#indexOf(String)}
+     */
+    public Diff(Context context, Patch patch, int file) {
+        Resources resources = context.getResources();
+        int red = resources.getColor(R.color.text_red);
+        mAddedSpan = new ForegroundColorSpan(resources.getColor(R.color.text_green));
+        mRemovedSpan = new BackgroundColorSpan(red);
+        mHunkSpan = new ForegroundColorSpan(resources.getColor(android.R.color.holo_purple));
+        mOldFileSpan = new ForegroundColorSpan(resources.getColor(R.color.text_brown));
+        mNewFileSpan = new ForegroundColorSpan(Color.BLUE);
+        mFileSpan = new ForegroundColorSpan(resources.getColor(R.color.text_orange));
+        mTrailingSpan = new BackgroundColorSpan(red);
+        mTabBackgrounds = new SpanPool(SpanPool.BACKGROUND, red);
+        mTabForegrounds = new SpanPool(SpanPool.FOREGROUND, Color.WHITE);
+        mWordsAdded = new SpanPool(SpanPool.BACKGROUND, resources.getColor(R.color.diff_word_added));
+        mWordsRemoved = new SpanPool(SpanPool.BACKGROUND, resources.getColor(R.color.diff_word_removed));
+        mSyntaxColors = new SpanPool[] {
+                new SpanPool(SpanPool.FOREGROUND, resources.getColor(R.color.syntax_keyword)),
+                new SpanPool(SpanPool.FOREGROUND, resources.getColor(R.color.syntax_comment)),
+                new SpanPool(SpanPool.FOREGROUND, resources.getColor(R.color.syntax_string)),
+                new SpanPool(SpanPool.FOREGROUND, resources.getColor(R.color.syntax_directive))
+        };
+        mBold = new SpanPool(SpanPool.STYLE, Typeface.BOLD);
+        mItalic = new SpanPool(SpanPool.STYLE, Typeface.ITALIC);
+        mPools = new SpanPool[] { mTabBackgrounds, mTabForegrounds, mWordsAdded, mWordsRemoved,
+                mSyntaxColors[0], mSyntaxColors[1], mSyntaxColors[2], mSyntaxColors[3],
+                mBold, mItalic };
+
+        mPatch = patch;
+        mFile = file;
+        mFirstLine = patch.getFileStart(file);
+        mLineCount = patch.getFileEnd(file) - mFirstLine;
+        int firstHunk = patch.getFirstHunk(file);
+        mHunks = new int[patch.getHunkEnd(file) - firstHunk];
+        for (int i = 0; i < mHunks.length; i++) {
+            mHunks[i] = patch.getHunkLine(firstHunk + i) - mFirstLine;
         }
     }
 
     public String getFileDiff() {
-        return mFileDiff;
+        return mPatch.getText(mFirstLine, mFirstLine + mLineCount);
     }
 
     public String getPath() {
-        return mPath;
+        return mPatch.getPath(mFile);
+    }
+
+    public int getLineCount() {
+        return mLineCount;
+    }
+
+    /**
+     * @return the text of a line, without its line break
+     */
+    public String getLine(int line) {
+        return mPatch.getLine(mFirstLine + line);
+    }
+
+    /**
+     * @return one of the Patch.KIND_ constants
+     */
+    public int getLineKind(int line) {
+        return mPatch.getKind(mFirstLine + line);
+    }
+
+    /** @return the number of the line in the old file, 0 if it is not in it */
+    public int getOldLineNumber(int line) {
+        return mPatch.getOldLineNumber(mFirstLine + line);
+    }
+
+    /** @return the number of the line in the new file, 0 if it is not in it */
+    public int getNewLineNumber(int line) {
+        return mPatch.getNewLineNumber(mFirstLine + line);
+    }
+
+    /**
+     * @return the lines that start a hunk, ascending
+     */
+    public int[] getHunkLines() {
+        return mHunks;
+    }
+
+    /**
+     * Work out which words changed between each removed line and the added
+     *  line in the same place after it. This can take a while, so should be
+     *  done in the background; lines are shown without it until it is done.
+     */
+    public void computeWordDiffs() {
+        if (mWordRanges != null) return;
+        int[][] ranges = new int[mLineCount][];
+        int line = 0;
+        while (line < mLineCount) {
+            if (getLineKind(line) != Patch.KIND_REMOVED) {
+                line++;
+                continue;
+            }
+            int removed = line;
+            while (line < mLineCount && getLineKind(line) == Patch.KIND_REMOVED) line++;
+            int added = line;
+            while (line < mLineCount && getLineKind(line) == Patch.KIND_ADDED) line++;
+            // Pair the lines up in order, any left over were purely added or removed
+            int pairs = Math.min(added - removed, line - added);
+            for (int i = 0; i < pairs; i++) {
+                int[][] pair = WordDiff.compare(getLine(removed + i), getLine(added + i), 1);
+                if (pair == null) continue;
+                ranges[removed + i] = pair[0];
+                ranges[added + i] = pair[1];
+            }
+        }
+        mWordRanges = ranges;
     }
 
-    public SpannableString getColorizedSpan() {
-        return mColorizedSpan;
+    public boolean hasWordDiffs() {
+        return mWordRanges != null;
+    }
+
+    /**
+     * @return true if there is nothing left to highlight in this language
+     */
+    public boolean hasSyntax(SyntaxHighlighter.Language language) {
+        return language == null || mSyntaxRuns != null;
+    }
+
+    /**
+     * Tokenize the code in every line for highlighting. The old and new
+     *  files are followed separately, so a comment opened on a removed line
+     *  does not carry on into the added lines. This can take a while, so
+     *  should be done in the background.
+     *
+     * @param language see {@link SyntaxHighlighter#forPath(String)}, nothing
+     *  is done if null
+     */
+    public void computeSyntax(SyntaxHighlighter.Language language) {
+        if (language == null || mSyntaxRuns != null) return;
+        SyntaxHighlighter highlighter = new SyntaxHighlighter(language);
+        int[][] runs = new int[mLineCount][];
+        int oldState = SyntaxHighlighter.STATE_NORMAL;
+        int newState = SyntaxHighlighter.STATE_NORMAL;
+        for (int line = 0; line < mLineCount; line++) {
+            int kind = getLineKind(line);
+            if (kind == Patch.KIND_CONTEXT) {
+                highlighter.setState(oldState);
+                if (oldState != newState) {
+                    highlighter.highlight(getLine(line), 1);
+                    oldState = highlighter.getState();
+                    highlighter.setState(newState);
+                    runs[line] = highlighter.highlight(getLine(line), 1);
+                    newState = highlighter.getState();
+                } else {
+                    runs[line] = highlighter.highlight(getLine(line), 1);
+                    oldState = newState = highlighter.getState();
+                }
+            } else if (kind == Patch.KIND_REMOVED) {
+                highlighter.setState(oldState);
+                runs[line] = highlighter.highlight(getLine(line), 1);
+                oldState = highlighter.getState();
+            } else if (kind == Patch.KIND_ADDED) {
+                highlighter.setState(newState);
+                runs[line] = highlighter.highlight(getLine(line), 1);
+                newState = highlighter.getState();
+            } else if (kind != Patch.KIND_NO_NEWLINE) {
+                // What comes before a hunk is not known
+                oldState = newState = SyntaxHighlighter.STATE_NORMAL;
+            }
+        }
+        mSyntaxRuns = runs;
+    }
+
+    /**
+     * @return the lines arranged in two columns, worked out the first time
+     */
+    public synchronized SideBySide getSideBySide() {
+        if (mSideBySide == null) mSideBySide = new SideBySide(this);
+        return mSideBySide;
+    }
+
+    /**
+     * @return a rough estimate of the memory held by this diff, which
+     *  includes its share of the patch it was read from, as the diffs of
+     *  other files may be kept from the same patch
+     */
+    public int estimateBytes() {
+        int lines = Math.max(mPatch.getLineCount(), 1);
+        return (int) ((long) mPatch.estimateBytes() * Math.max(getLineCount(), 1) / lines);
     }
 
     @Override
     public String toString() {
         return new StringBuilder(0)
                 .append("Diff{ ")
-                .append("mFileDiff='").append(mFileDiff).append('\'')
-                .append(", mPath='").append(mPath).append('\'')
-                .append(", mColorizedSpan=").append(mColorizedSpan)
+                .append("mPath='").append(getPath()).append('\'')
+                .append(", lines=").append(getLineCount())
+                .append(", hunks=").append(mHunks.length)
                 .append(" }").toString();
     }
 
-    private SpannableString spanColoredText(String incoming) {
-        if (incoming == null)
-            return null;
-        String[] split = incoming.split("\n");
-        SpannableString spannableString = new SpannableString(incoming);
-        int charCounter = 0;
-        int lineTracker = 0;
-        Resources resources = mContext.getResources();
-        // colorize added/removed lines
-        colorizeDiffs(split, spannableString, charCounter, lineTracker, resources);
-        // highlight tabs in red
-        highlightUnwantedChars(spannableString, resources);
-        return spannableString;
-    }
+    /**
+     * Colour a single line: added and removed lines, hunk and file headers,
+     *  trailing whitespace and tabs are all highlighted. Must be called on
+     *  the main thread, the span objects are shared.
+     */
+    public CharSequence getColorizedLine(int line) {
+        int patchLine = mFirstLine + line;
+        int lineStart = mPatch.getLineStart(patchLine);
+        int kind = mPatch.getKind(patchLine);
+        SpannableString spannableString = new SpannableString(mPatch.getLine(patchLine));
+        int end = spannableString.length();
+        for (SpanPool pool : mPools) pool.reset();
 
-    private void colorizeDiffs(String[] split, SpannableString spannableString, int charCounter, int lineTracker, Resources resources) {
-        int end = 0;
-        for (String string : split) {
-            charCounter += 1;
-            lineTracker += 1;
-            end = charCounter + string.length() > spannableString.length()
-                    ? spannableString.length()
-                    : charCounter + string.length();
-            String trimmed = string.trim();
-            if (trimmed.startsWith("+") && !trimmed.startsWith("+++")) {
-                spannableString.setSpan(new ForegroundColorSpan(resources.getColor(R.color.text_green)),
-                        charCounter - 1,
-                        end,
-                        0);
+        switch (kind) {
+            case Patch.KIND_ADDED:
+                spannableString.setSpan(mAddedSpan, 0, end, 0);
+                break;
+            case Patch.KIND_REMOVED:
                 // highlight removed code with red background
-                // do not highlight file diffs
-            } else if (trimmed.startsWith("-") && !trimmed.startsWith("---")) {
-                spannableString.setSpan(new BackgroundColorSpan(resources.getColor(R.color.text_red)),
-                        charCounter - 1,
-                        end,
-                        0);
-            } else if (trimmed.startsWith("@@")) {
-                spannableString.setSpan(new ForegroundColorSpan(resources.getColor(android.R.color.holo_purple)),
-                        charCounter - 1,
-                        end,
-                        0);
-            } else if (trimmed.startsWith("---")) {
-                spannableString.setSpan(new ForegroundColorSpan(resources.getColor(R.color.text_brown)),
-                        charCounter - 1,
-                        end,
-                        0);
-            } else if (trimmed.startsWith("+++")) {
-                spannableString.setSpan(new ForegroundColorSpan(Color.BLUE),
-                        charCounter - 1,
-                        end,
-                        0);
-            } else if (trimmed.startsWith("a/")) {
-                spannableString.setSpan(new ForegroundColorSpan(resources.getColor(R.color.text_orange)),
-                        charCounter - 1,
-                        end,
-                        0);
-            }
+                spannableString.setSpan(mRemovedSpan, 0, end, 0);
+                break;
+            case Patch.KIND_HUNK:
+                spannableString.setSpan(mHunkSpan, 0, end, 0);
+                break;
+            case Patch.KIND_OLD_FILE:
+                spannableString.setSpan(mOldFileSpan, 0, end, 0);
+                break;
+            case Patch.KIND_NEW_FILE:
+                spannableString.setSpan(mNewFileSpan, 0, end, 0);
+                break;
+            case Patch.KIND_FILE:
+                spannableString.setSpan(mFileSpan, 0, end, 0);
+                break;
+        }
 
-            // highlight trailing whitespace
-            if (string.endsWith(" ")) {
-                // count backwards and highlight the trailing whitespace
-                int lineLength = string.length();
-                int startWhitespace = -1;
-                for (int i = lineLength - 1; 0 <= i; i--) {
-                    if (string.charAt(i) == ' ') {
-                        startWhitespace = i;
-                    } else {
-                        break;
-                    }
+        // highlight the code, changed lines keep their colour and only get styles
+        int[][] syntaxRuns = mSyntaxRuns;
+        int[] runs = syntaxRuns == null ? null : syntaxRuns[line];
+        if (runs != null) {
+            boolean changed = kind != Patch.KIND_CONTEXT;
+            for (int i = 0; i < runs.length; i += 3) {
+                int type = runs[i + 2];
+                if (!changed) {
+                    spannableString.setSpan(mSyntaxColors[type].next(),
+                            runs[i], runs[i + 1], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
                 }
-                if (startWhitespace > 0) {
-                    Log.d(TAG, String.format("Trailing whitespace at line: %d index: %d through %d in diff view of file %s",
-                            lineTracker,
-                            startWhitespace,
-                            string.length(),
-                            mPath));
-                    spannableString.setSpan(new BackgroundColorSpan(resources.getColor(R.color.text_red)),
-                            charCounter + startWhitespace - 1,
-                            end,
-                            0);
+                if (type == SyntaxHighlighter.TOKEN_KEYWORD) {
+                    spannableString.setSpan(mBold.next(),
+                            runs[i], runs[i + 1], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                } else if (type == SyntaxHighlighter.TOKEN_COMMENT) {
+                    spannableString.setSpan(mItalic.next(),
+                            runs[i], runs[i + 1], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
                 }
-// test line with trailing whitespaces ->        
-// Here are 3 tabs ->	-	-	<- this line ends with four whitespaces ->    
             }
-            charCounter += string.length();
         }
-    }
 
-    private void highlightUnwantedChars(SpannableString spannableString, Resources resources) {
-        for (Integer ints : tabs) {
-            Log.d(TAG, "Index of tab: " + ints);
-            spannableString.setSpan(new BackgroundColorSpan(resources.getColor(R.color.text_red)),
-                    ints - 1,
-                    ints + 1,
-                    Spanned.SPAN_INTERMEDIATE);
-            spannableString.setSpan(new ForegroundColorSpan(Color.WHITE),
-                    ints - 1,
-                    ints + 1,
-                    Spanned.SPAN_INTERMEDIATE);
+        // highlight the words that changed within the line
+        int[][] wordRanges = mWordRanges;
+        int[] words = wordRanges == null ? null : wordRanges[line];
+        if (words != null) {
+            SpanPool pool = kind == Patch.KIND_ADDED ? mWordsAdded : mWordsRemoved;
+            for (int i = 0; i < words.length; i += 2) {
+                spannableString.setSpan(pool.next(),
+                        words[i], words[i + 1], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
         }
-    }
 
-    // used to track index of tab chars
-    LinkedList<Integer> tabs = new LinkedList<Integer>();
-
-    private String unescape(String s) {
-        int i = 0, len = s.length(), realCounter = 0;
-        char c;
-        StringBuffer sb = new StringBuffer(len);
-        while (i < len) {
-            realCounter++;
-            c = s.charAt(i++);
-            if (c == '\\') {
-                if (i < len) {
-                    c = s.charAt(i++);
-                    if (c == 'u') {
-                        // TODO: check that 4 more chars exist and are all hex digits
-                        c = (char) Integer.parseInt(s.substring(i, i + 4), 16);
-                        i += 4;
-                    } else if (c == 't') {
-                        // leave \t so we can highlight
-                        c = '\t';
-                    }
-                    // add other cases here as desired...
-                }
-            } // fall through: \ escapes itself, quotes any character but u
-            if (c == '\t') {
-                sb.append("\\t");
-                tabs.add(sb.length() - 1);
-            } else {
-                sb.append(c);
-            }
+        // highlight trailing whitespace, found when the patch was parsed
+        int startWhitespace = mPatch.getTrailingSpaces(patchLine);
+        if (startWhitespace > 0) {
+            spannableString.setSpan(mTrailingSpan, startWhitespace, end, 0);
+// test line with trailing whitespaces ->        
+// Here are 3 tabs ->	-	-	<- this line ends with four whitespaces ->    
         }
-        return sb.toString();
+
+        // highlight tabs in red
+        for (int tab = mPatch.findTab(lineStart + 1);
+             tab < mPatch.getTabCount() && mPatch.getTab(tab) < lineStart + end; tab++) {
+            int tabStart = mPatch.getTab(tab) - 1 - lineStart;
+            spannableString.setSpan(mTabBackgrounds.next(),
+                    tabStart, tabStart + 2, Spanned.SPAN_INTERMEDIATE);
+            spannableString.setSpan(mTabForegrounds.next(),
+                    tabStart, tabStart + 2, Spanned.SPAN_INTERMEDIATE);
+        }
+        return spannableString;
     }
-}
\ No newline at end of file
+}
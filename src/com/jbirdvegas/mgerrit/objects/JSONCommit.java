@@ -23,6 +23,7 @@ import android.os.Parcelable;
 import android.util.Log;
 import com.jbirdvegas.mgerrit.Prefs;
 import com.jbirdvegas.mgerrit.R;
+import com.jbirdvegas.mgerrit.helpers.TextPreparer;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -31,12 +32,17 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
 import java.util.TimeZone;
+import java.util.TreeMap;
 
-public class JSONCommit implements Parcelable {
+public class JSONCommit implements Parcelable, TextPreparer.Preparable {
     private static final String TAG = JSONCommit.class.getSimpleName();
 
     // public
@@ -44,9 +50,9 @@ public class JSONCommit implements Parcelable {
     public static final String KEY_STATUS_MERGED = "merged";
     public static final String KEY_STATUS_ABANDONED = "abandoned";
     public static final String DETAILED_ACCOUNTS_ARG = "&o=DETAILED_ACCOUNTS";
-    // used to query commit message
+    // used to query commit message, all revisions are listed so patch sets can be compared
     public static final String CURRENT_PATCHSET_ARGS = new StringBuilder(0)
-            .append("&o=CURRENT_REVISION")
+            .append("&o=ALL_REVISIONS")
             .append("&o=CURRENT_COMMIT")
             .append("&o=CURRENT_FILES")
             .append("&o=DETAILED_LABELS")
@@ -256,6 +262,16 @@ public class JSONCommit implements Parcelable {
                 }
 
                 mPatchSetNumber = getPatchSetNumberInternal(object, mCurrentRevision);
+
+                try {
+                    mRevisions = getRevisionsInternal(object);
+                } catch (JSONException je) {
+                    if (DEBUG) {
+                        Log.e(TAG, "Failed to get the list of revisions", je);
+                    }
+                    mRevisions = new TreeMap<Integer, String>();
+                    mRevisions.put(mPatchSetNumber, mCurrentRevision);
+                }
             } catch (JSONException ignored) {
                 /* TODO: No code nested in this try block is outside of its own nested try block
                  *  therefore, this catch block should never get executed.
@@ -300,10 +316,15 @@ public class JSONCommit implements Parcelable {
     private CommitterObject mCommitterObject;
     private String mMessage;
     private List<ChangedFile> mChangedFiles;
+    // Display text, filled in by prepare()
+    private volatile CharSequence mPreparedLastUpdatedDate;
+    private volatile CharSequence mPreparedChangedFiles;
     private String mWebAddress;
     private List<Reviewer> mVerifiedReviewers;
     private List<Reviewer> mCodeReviewers;
     private int mPatchSetNumber;
+    // Revision of each patch set by number
+    private TreeMap<Integer, String> mRevisions;
     private List<CommitComment> mMessagesList;
 
     private CommitterObject getCommitter(String currentRevision,
@@ -340,6 +361,18 @@ public class JSONCommit implements Parcelable {
         return revisionObject.getInt(KEY_COMMIT_NUMBER);
     }
 
+    private TreeMap<Integer, String> getRevisionsInternal(JSONObject mainObject)
+            throws JSONException {
+        JSONObject allRevisions = mainObject.getJSONObject(KEY_REVISIONS);
+        TreeMap<Integer, String> revisions = new TreeMap<Integer, String>();
+        JSONArray keysArray = allRevisions.names();
+        for (int i = 0; keysArray != null && keysArray.length() > i; i++) {
+            String revision = keysArray.getString(i);
+            revisions.put(allRevisions.getJSONObject(revision).getInt(KEY_COMMIT_NUMBER), revision);
+        }
+        return revisions;
+    }
+
     private List<ChangedFile> getChangedFilesSet(JSONObject mainObject,
                                                  String currentRevision)
             throws JSONException {
@@ -453,9 +486,6 @@ public class JSONCommit implements Parcelable {
             currentDateFormat.setTimeZone(mServerTimeZone);
             // local location
             humanDateFormat.setTimeZone(mLocalTimeZone);
-            Log.d(TAG, String.format("Local timezone: %s | Server timezone: %s",
-                    mLocalTimeZone.getDisplayName(),
-                    mServerTimeZone.getDisplayName()));
             return humanDateFormat.format(currentDateFormat.parse(mLastUpdatedDate));
         } catch (ParseException e) {
             e.printStackTrace();
@@ -463,6 +493,45 @@ public class JSONCommit implements Parcelable {
         }
     }
 
+    /**
+     * Format the text shown on this commit's card, see {@link TextPreparer}
+     */
+    @Override
+    public void prepare(Context context) {
+        if (mPreparedLastUpdatedDate == null) {
+            mPreparedLastUpdatedDate = getLastUpdatedDate(context);
+        }
+        if (mPreparedChangedFiles == null && mChangedFiles != null) {
+            mPreparedChangedFiles = Arrays.toString(mChangedFiles.toArray());
+        }
+    }
+
+    /**
+     * @return the formatted last updated date, prepared now if it has not
+     *  been already
+     */
+    public CharSequence getPreparedLastUpdatedDate(Context context) {
+        if (mPreparedLastUpdatedDate == null) prepare(context);
+        return mPreparedLastUpdatedDate;
+    }
+
+    /**
+     * @return the changed files as a single string, prepared now if it has
+     *  not been already
+     */
+    public CharSequence getPreparedChangedFiles(Context context) {
+        if (mPreparedChangedFiles == null) prepare(context);
+        return mPreparedChangedFiles;
+    }
+
+    /**
+     * @return the last updated date exactly as the server reported it,
+     *  suitable for comparing two versions of the same change
+     */
+    public String getRawLastUpdatedDate() {
+        return mLastUpdatedDate;
+    }
+
     public boolean isIsMergeable() {
         return mIsMergeable;
     }
@@ -520,6 +589,15 @@ public class JSONCommit implements Parcelable {
         return mPatchSetNumber;
     }
 
+    /**
+     * @return the revision (commit SHA-1) of each patch set by patch set
+     *  number, in order. Only the current one if the others were not queried.
+     */
+    public SortedMap<Integer, String> getRevisions() {
+        if (mRevisions == null) return new TreeMap<Integer, String>();
+        return Collections.unmodifiableSortedMap(mRevisions);
+    }
+
     // Parcelable implementation
     public JSONCommit(Parcel parcel) {
         mRawJSONCommit = null;
@@ -546,6 +624,11 @@ public class JSONCommit implements Parcelable {
         mCodeReviewers = parcel.readArrayList(ChangedFile.class.getClassLoader());
         mPatchSetNumber = parcel.readInt();
         mMessagesList = parcel.readArrayList(CommitComment.class.getClassLoader());
+        int revisions = parcel.readInt();
+        mRevisions = new TreeMap<Integer, String>();
+        for (int i = 0; i < revisions; i++) {
+            mRevisions.put(parcel.readInt(), parcel.readString());
+        }
     }
 
     @Override
@@ -578,6 +661,12 @@ public class JSONCommit implements Parcelable {
         parcel.writeTypedList(mCodeReviewers);
         parcel.writeInt(mPatchSetNumber);
         parcel.writeTypedList(mMessagesList);
+        SortedMap<Integer, String> revisions = getRevisions();
+        parcel.writeInt(revisions.size());
+        for (Map.Entry<Integer, String> revision : revisions.entrySet()) {
+            parcel.writeInt(revision.getKey());
+            parcel.writeString(revision.getValue());
+        }
     }
 
     @Override
@@ -0,0 +1,584 @@
+package com.jbirdvegas.mgerrit.objects;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A parsed unified diff (git patch) covering any number of files.
+ * <p/>
+ * The text of every line is kept in one shared char buffer, each followed
+ *  by a line break. Per line, the offset into that buffer, its kind and
+ *  its old and new line numbers are kept in primitive arrays, as are the
+ *  first line of every hunk and file. Files can be looked up by path
+ *  without going through the other files. Lines before the first file
+ *  (the commit message of a formatted patch) are skipped.
+ */
+public class Patch {
+    private static final String FILE_HEADER = "diff --git ";
+
+    // What is left of "diff --git ", i.e. "a/path b/path"
+    public static final int KIND_FILE = 0;
+    // Mode, index, rename and similar lines of a file header
+    public static final int KIND_META = 1;
+    // "--- a/path"
+    public static final int KIND_OLD_FILE = 2;
+    // "+++ b/path"
+    public static final int KIND_NEW_FILE = 3;
+    // "@@ -1,2 +1,3 @@"
+    public static final int KIND_HUNK = 4;
+    public static final int KIND_CONTEXT = 5;
+    public static final int KIND_ADDED = 6;
+    public static final int KIND_REMOVED = 7;
+    // "\ No newline at end of file"
+    public static final int KIND_NO_NEWLINE = 8;
+
+    private char[] mText = new char[8192];
+    private int mLength;
+
+    private int mLineCount;
+    // Offset of each line, the entry after the last line is one past the end
+    private int[] mLineStarts = new int[256];
+    private byte[] mKinds = new byte[256];
+    // Line numbers in the old and new file, 0 if the line is not in that file
+    private int[] mOldNumbers = new int[256];
+    private int[] mNewNumbers = new int[256];
+    // Where the trailing spaces of each line start (from the line start), -1 if there are none
+    private int[] mTrailingSpaces = new int[256];
+
+    private int mHunkCount;
+    private int[] mHunkLines = new int[16];
+
+    private int mFileCount;
+    // First line and first hunk of each file, with one extra entry at the end
+    private int[] mFileLines = new int[8];
+    private int[] mFileHunks = new int[8];
+    private String[] mPaths = new String[8];
+    private final Map<String, Integer> mPathIndex = new HashMap<String, Integer>();
+
+    // Offsets of the two character "\t" escapes left in the text, ascending
+    private int[] mTabs = new int[8];
+    private int mTabCount;
+
+    // Parser state
+    // Lines come already decoded (not from a raw patch), so have no escapes
+    private boolean mDecoded;
+    private boolean mInHunk;
+    private int mOldLine;
+    private int mNewLine;
+    private int mOldRemaining;
+    private int mNewRemaining;
+
+    private Patch() { }
+
+    /**
+     * Parse a whole patch, one line at a time
+     */
+    public static Patch parse(BufferedReader patch) throws IOException {
+        Patch parsed = new Patch();
+        String line;
+        while ((line = patch.readLine()) != null) {
+            parsed.parseLine(line);
+        }
+        parsed.finish();
+        return parsed;
+    }
+
+    /**
+     * Build the patch of one file from the diff Gerrit sends for it
+     *  (DiffInfo, from /files/{file-id}/diff), as if it had been read from
+     *  a unified diff. Common lines further than the given number of lines
+     *  from a change are left out, even if the server sent them.
+     *
+     * @param path path of the file in the change
+     * @param context number of common lines kept around each change
+     */
+    public static Patch fromDiffInfo(JSONObject diff, String path, int context)
+            throws JSONException {
+        Patch parsed = new Patch();
+        parsed.mDecoded = true;
+        JSONArray header = diff.optJSONArray("diff_header");
+        for (int i = 0; header != null && i < header.length(); i++) {
+            parsed.parseLine(header.getString(i));
+        }
+        if (parsed.mFileCount == 0) {
+            parsed.addFileHeader(path, diff.has("meta_a"), diff.has("meta_b"));
+        }
+
+        // Flatten the chunks into prefixed lines, a skipped run is kept as null
+        List<String> lines = new ArrayList<String>();
+        List<Integer> skipped = new ArrayList<Integer>();
+        JSONArray content = diff.optJSONArray("content");
+        for (int i = 0; content != null && i < content.length(); i++) {
+            JSONObject chunk = content.getJSONObject(i);
+            if (chunk.has("skip")) {
+                lines.add(null);
+                skipped.add(chunk.getInt("skip"));
+            }
+            addPrefixed(lines, chunk.optJSONArray("ab"), ' ');
+            addPrefixed(lines, chunk.optJSONArray("a"), '-');
+            addPrefixed(lines, chunk.optJSONArray("b"), '+');
+        }
+        parsed.addHunks(lines, skipped, context);
+        parsed.finish();
+        return parsed;
+    }
+
+    /**
+     * Build the patch of a single file from every line of both of its
+     *  versions, prefixed by ' ', '-' or '+' as in a unified diff.
+     *
+     * @param inOld false if the file was added
+     * @param inNew false if the file was deleted
+     * @param context lines of context kept around each change
+     */
+    public static Patch fromLines(String path, boolean inOld, boolean inNew,
+                                  List<String> lines, int context) {
+        Patch parsed = new Patch();
+        parsed.mDecoded = true;
+        parsed.addFileHeader(path, inOld, inNew);
+        parsed.addHunks(lines, new ArrayList<Integer>(0), context);
+        parsed.finish();
+        return parsed;
+    }
+
+    private void addFileHeader(String path, boolean inOld, boolean inNew) {
+        parseLine(FILE_HEADER + "a/" + path + " b/" + path);
+        parseLine(inOld ? "--- a/" + path : "--- /dev/null");
+        parseLine(inNew ? "+++ b/" + path : "+++ /dev/null");
+    }
+
+    private static void addPrefixed(List<String> lines, JSONArray text, char prefix)
+            throws JSONException {
+        if (text == null) return;
+        for (int i = 0; i < text.length(); i++) {
+            lines.add(prefix + text.getString(i));
+        }
+    }
+
+    // Group the changed lines into hunks with their surrounding context
+    private void addHunks(List<String> lines, List<Integer> skipped, int context) {
+        int count = lines.size();
+        // Numbers the next line from either file would have at each position
+        int[] oldAt = new int[count + 1];
+        int[] newAt = new int[count + 1];
+        oldAt[0] = newAt[0] = 1;
+        int skip = 0;
+        for (int i = 0; i < count; i++) {
+            String line = lines.get(i);
+            int size = line == null ? skipped.get(skip++) : 1;
+            boolean inOld = line == null || line.charAt(0) != '+';
+            boolean inNew = line == null || line.charAt(0) != '-';
+            oldAt[i + 1] = oldAt[i] + (inOld ? size : 0);
+            newAt[i + 1] = newAt[i] + (inNew ? size : 0);
+        }
+
+        int limit = 0;
+        int change = nextChange(lines, 0);
+        while (change < count) {
+            int start = change;
+            while (start > limit && change - start < context && isCommon(lines.get(start - 1))) {
+                start--;
+            }
+            // Take in the following changes while the common lines between are few enough
+            int end = change;
+            while (true) {
+                while (end < count && isChange(lines.get(end))) end++;
+                int common = end;
+                while (common < count && isCommon(lines.get(common))) common++;
+                if (common < count && isChange(lines.get(common)) && common - end <= 2 * context) {
+                    end = common;
+                } else {
+                    end = Math.min(common, end + context);
+                    break;
+                }
+            }
+
+            int oldCount = oldAt[end] - oldAt[start];
+            int newCount = newAt[end] - newAt[start];
+            // An empty range starts at the line before it
+            parseLine("@@ -" + (oldCount == 0 ? oldAt[start] - 1 : oldAt[start]) + ',' + oldCount
+                    + " +" + (newCount == 0 ? newAt[start] - 1 : newAt[start]) + ',' + newCount
+                    + " @@");
+            for (int i = start; i < end; i++) {
+                parseLine(lines.get(i));
+            }
+            limit = end;
+            change = nextChange(lines, end);
+        }
+    }
+
+    private static int nextChange(List<String> lines, int from) {
+        while (from < lines.size() && !isChange(lines.get(from))) from++;
+        return from;
+    }
+
+    private static boolean isCommon(String line) {
+        return line != null && line.charAt(0) == ' ';
+    }
+
+    private static boolean isChange(String line) {
+        return line != null && line.charAt(0) != ' ';
+    }
+
+    /**
+     * @return a rough estimate of the memory held by the patch
+     */
+    public int estimateBytes() {
+        // Two bytes per character, a line start, kind and two numbers per line
+        return mText.length * 2 + mLineStarts.length * 13 + mTabs.length * 4;
+    }
+
+    public int getFileCount() {
+        return mFileCount;
+    }
+
+    /**
+     * @return the index of the file with this path before or after the
+     *  change, -1 if the patch does not touch it
+     */
+    public int indexOf(String path) {
+        Integer file = mPathIndex.get(path);
+        return file == null ? -1 : file;
+    }
+
+    public String getPath(int file) {
+        return mPaths[file];
+    }
+
+    /** @return the first line of the file */
+    public int getFileStart(int file) {
+        return mFileLines[file];
+    }
+
+    /** @return one past the last line of the file */
+    public int getFileEnd(int file) {
+        return mFileLines[file + 1];
+    }
+
+    /** @return the first hunk of the file */
+    public int getFirstHunk(int file) {
+        return mFileHunks[file];
+    }
+
+    /** @return one past the last hunk of the file */
+    public int getHunkEnd(int file) {
+        return mFileHunks[file + 1];
+    }
+
+    /** @return the line with the header of the hunk */
+    public int getHunkLine(int hunk) {
+        return mHunkLines[hunk];
+    }
+
+    public int getLineCount() {
+        return mLineCount;
+    }
+
+    public int getKind(int line) {
+        return mKinds[line];
+    }
+
+    public int getOldLineNumber(int line) {
+        return mOldNumbers[line];
+    }
+
+    public int getNewLineNumber(int line) {
+        return mNewNumbers[line];
+    }
+
+    /**
+     * @return where the spaces at the end of the line start, relative to
+     *  the start of the line, or -1 if the line does not end in spaces
+     *  (or has nothing else)
+     */
+    public int getTrailingSpaces(int line) {
+        return mTrailingSpaces[line];
+    }
+
+    /** @return offset of the line's first character in the text */
+    public int getLineStart(int line) {
+        return mLineStarts[line];
+    }
+
+    /** @return length of the line, without its line break */
+    public int getLineLength(int line) {
+        return mLineStarts[line + 1] - mLineStarts[line] - 1;
+    }
+
+    public String getLine(int line) {
+        return new String(mText, mLineStarts[line], getLineLength(line));
+    }
+
+    /**
+     * @return the text from the start of one line to the start of another
+     */
+    public String getText(int fromLine, int toLine) {
+        return new String(mText, mLineStarts[fromLine],
+                mLineStarts[toLine] - mLineStarts[fromLine]);
+    }
+
+    /**
+     * @return index of the first tab at or after the offset, getTabCount()
+     *  if there is none
+     */
+    public int findTab(int offset) {
+        int tab = Arrays.binarySearch(mTabs, 0, mTabCount, offset);
+        return tab < 0 ? -tab - 1 : tab;
+    }
+
+    public int getTabCount() {
+        return mTabCount;
+    }
+
+    /** @return offset of the "t" of a "\t" escape */
+    public int getTab(int tab) {
+        return mTabs[tab];
+    }
+
+    private void parseLine(String line) {
+        if (line.startsWith(FILE_HEADER)) {
+            startFile(line.substring(FILE_HEADER.length()));
+            return;
+        }
+        // Before the first file
+        if (mFileCount == 0) return;
+
+        if (line.startsWith("@@")) {
+            startHunk(line);
+            addLine(line, KIND_HUNK, 0, 0);
+        } else if (line.startsWith("\\") && (mInHunk || isHunkLine(mLineCount - 1))) {
+            // Usually follows the last line of the hunk, which has already ended
+            addLine(line, KIND_NO_NEWLINE, 0, 0);
+        } else if (!mInHunk) {
+            int kind = KIND_META;
+            if (line.startsWith("--- ")) kind = KIND_OLD_FILE;
+            else if (line.startsWith("+++ ")) kind = KIND_NEW_FILE;
+            addLine(line, kind, 0, 0);
+        } else {
+            char first = line.length() == 0 ? ' ' : line.charAt(0);
+            if (first == '+') {
+                addLine(line, KIND_ADDED, 0, mNewLine++);
+                mNewRemaining--;
+            } else if (first == '-') {
+                addLine(line, KIND_REMOVED, mOldLine++, 0);
+                mOldRemaining--;
+            } else {
+                addLine(line, KIND_CONTEXT, mOldLine++, mNewLine++);
+                mOldRemaining--;
+                mNewRemaining--;
+            }
+            // Anything after the last hunk (e.g. the signature) is not part of it
+            if (mOldRemaining <= 0 && mNewRemaining <= 0) mInHunk = false;
+        }
+    }
+
+    private boolean isHunkLine(int line) {
+        if (line < 0) return false;
+        int kind = mKinds[line];
+        return kind == KIND_CONTEXT || kind == KIND_ADDED || kind == KIND_REMOVED;
+    }
+
+        private void startFile(String files) {
+        endFile();
+        if (mFileCount + 1 >= mFileLines.length) {
+            int size = mFileLines.length * 2;
+            mFileLines = Arrays.copyOf(mFileLines, size);
+            mFileHunks = Arrays.copyOf(mFileHunks, size);
+            mPaths = Arrays.copyOf(mPaths, size);
+        }
+        // "a/path b/path", renamed files can be found by either path
+        String path = files;
+        int split = files.indexOf(" b/");
+        if (files.startsWith("a/") && split > 0) {
+            path = files.substring(2, split);
+            String newPath = files.substring(split + 3);
+            if (!mPathIndex.containsKey(newPath)) mPathIndex.put(newPath, mFileCount);
+        }
+        mPaths[mFileCount] = path;
+        if (!mPathIndex.containsKey(path)) mPathIndex.put(path, mFileCount);
+        mFileLines[mFileCount] = mLineCount;
+        mFileHunks[mFileCount] = mHunkCount;
+        mFileCount++;
+        mInHunk = false;
+        addLine(files, KIND_FILE, 0, 0);
+    }
+
+    private void startHunk(String line) {
+        if (mHunkCount == mHunkLines.length) mHunkLines = Arrays.copyOf(mHunkLines, mHunkCount * 2);
+        mHunkLines[mHunkCount++] = mLineCount;
+        int[] range = new int[4];
+        // If it is not a hunk header after all, the lines that follow are left unnumbered
+        mInHunk = parseHunkHeader(line, range) && (range[1] > 0 || range[3] > 0);
+        mOldLine = range[0];
+        mOldRemaining = range[1];
+        mNewLine = range[2];
+        mNewRemaining = range[3];
+    }
+
+    /**
+     * Read the line ranges of a hunk header,
+     *  "@@ -oldStart[,oldCount] +newStart[,newCount] @@"
+     *
+     * @param range receives oldStart, oldCount, newStart and newCount
+     * @return false if the line is not a valid hunk header
+     */
+    public static boolean parseHunkHeader(String line, int[] range) {
+        int minus = line.indexOf('-');
+        int plus = line.indexOf('+', minus + 1);
+        int end = line.indexOf("@@", plus + 1);
+        if (!line.startsWith("@@") || minus < 0 || plus < 0 || end < 0) return false;
+        try {
+            String[] oldRange = line.substring(minus + 1, plus).trim().split(",");
+            String[] newRange = line.substring(plus + 1, end).trim().split(",");
+            range[0] = Integer.parseInt(oldRange[0]);
+            // The count is 1 when left out
+            range[1] = oldRange.length > 1 ? Integer.parseInt(oldRange[1]) : 1;
+            range[2] = Integer.parseInt(newRange[0]);
+            range[3] = newRange.length > 1 ? Integer.parseInt(newRange[1]) : 1;
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private void addLine(String line, int kind, int oldNumber, int newNumber) {
+        if (mLineCount + 1 == mLineStarts.length) {
+            int size = mLineStarts.length * 2;
+            mLineStarts = Arrays.copyOf(mLineStarts, size);
+            mKinds = Arrays.copyOf(mKinds, size);
+            mOldNumbers = Arrays.copyOf(mOldNumbers, size);
+            mNewNumbers = Arrays.copyOf(mNewNumbers, size);
+            mTrailingSpaces = Arrays.copyOf(mTrailingSpaces, size);
+        }
+        mLineStarts[mLineCount] = mLength;
+        mKinds[mLineCount] = (byte) kind;
+        mOldNumbers[mLineCount] = oldNumber;
+        mNewNumbers[mLineCount] = newNumber;
+        if (kind == KIND_NO_NEWLINE) {
+            for (int i = 0; i < line.length(); i++) append(line.charAt(i));
+        } else if (mDecoded) {
+            for (int i = 0; i < line.length(); i++) appendMarkingTab(line.charAt(i));
+        } else {
+            unescape(line);
+        }
+        int trailing = mLength;
+        while (trailing > mLineStarts[mLineCount] && mText[trailing - 1] == ' ') trailing--;
+        mTrailingSpaces[mLineCount] = trailing == mLength || trailing == mLineStarts[mLineCount]
+                ? -1 : trailing - mLineStarts[mLineCount];
+        append('\n');
+        mLineCount++;
+    }
+
+    // Blank lines after the last hunk of a file are dropped, blank context lines are kept
+    private void endFile() {
+        if (mFileCount == 0) return;
+        int first = mFileLines[mFileCount - 1];
+        while (mLineCount > first + 1 && mKinds[mLineCount - 1] == KIND_META
+                && isBlank(mLineCount - 1)) {
+            mLineCount--;
+            mLength = mLineStarts[mLineCount];
+            while (mTabCount > 0 && mTabs[mTabCount - 1] >= mLength) mTabCount--;
+            while (mHunkCount > 0 && mHunkLines[mHunkCount - 1] >= mLineCount) mHunkCount--;
+        }
+    }
+
+    private void finish() {
+        endFile();
+        mFileLines[mFileCount] = mLineCount;
+        mFileHunks[mFileCount] = mHunkCount;
+        mLineStarts[mLineCount] = mLength;
+        mText = Arrays.copyOf(mText, mLength);
+    }
+
+    private boolean isBlank(int line) {
+        for (int i = mLineStarts[line]; i < mLength; i++) {
+            if (mText[i] > ' ') return false;
+        }
+        return true;
+    }
+
+    private void append(char c) {
+        if (mLength == mText.length) mText = Arrays.copyOf(mText, mLength * 2);
+        mText[mLength++] = c;
+    }
+
+    private void addTab(int index) {
+        if (mTabCount == mTabs.length) mTabs = Arrays.copyOf(mTabs, mTabCount * 2);
+        mTabs[mTabCount++] = index;
+    }
+
+    // Value of the four hex digits at i, -1 if there are not four
+    private static int parseHex4(String s, int i) {
+        if (i + 4 > s.length()) return -1;
+        int value = 0;
+        for (int end = i + 4; i < end; i++) {
+            int digit = Character.digit(s.charAt(i), 16);
+            if (digit < 0) return -1;
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    private void unescape(String s) {
+        int i = 0, len = s.length();
+        char c;
+        while (i < len) {
+            c = s.charAt(i++);
+            if (c == '\\') {
+                if (i < len) {
+                    c = s.charAt(i++);
+                    int hex;
+                    if (c == 'u' && (hex = parseHex4(s, i)) >= 0) {
+                        c = (char) hex;
+                        i += 4;
+                    } else if (c == 'u') {
+                        // Not an escape after all, keep it as it is
+                        append('\\');
+                    } else if (c == 't') {
+                        // leave \t so we can highlight
+                        c = '\t';
+                    }
+                    // add other cases here as desired...
+                }
+            } // fall through: \ escapes itself, quotes any character but u
+            appendMarkingTab(c);
+        }
+    }
+
+    // A tab is written as "\t" so it can be highlighted
+    private void appendMarkingTab(char c) {
+        if (c == '\t') {
+            append('\\');
+            append('t');
+            addTab(mLength - 1);
+        } else {
+            append(c);
+        }
+    }
+}
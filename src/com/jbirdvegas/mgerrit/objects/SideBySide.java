@@ -0,0 +1,130 @@
+package com.jbirdvegas.mgerrit.objects;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * The lines of a {@link Diff} arranged in two columns, the old file on the
+ *  left and the new one on the right. Removed and added lines are paired
+ *  up in order; headers take a whole row. Only line indices are kept.
+ */
+public class SideBySide {
+    // No line on this side of the row
+    public static final int NONE = -1;
+
+    private int mRowCount;
+    private int[] mLeft;
+    private int[] mRight;
+    private boolean[] mFullWidth;
+    // Row each line of the diff ended up on
+    private final int[] mRowOfLine;
+    private final int[] mHunkRows;
+
+    SideBySide(Diff diff) {
+        int lineCount = diff.getLineCount();
+        mLeft = new int[lineCount];
+        mRight = new int[lineCount];
+        mFullWidth = new boolean[lineCount];
+        mRowOfLine = new int[lineCount];
+
+        int line = 0;
+        while (line < lineCount) {
+            int kind = diff.getLineKind(line);
+            if (kind == Patch.KIND_REMOVED || kind == Patch.KIND_ADDED) {
+                int removed = line;
+                while (line < lineCount && isOnSide(diff, line, Patch.KIND_REMOVED)) line++;
+                int added = line;
+                while (line < lineCount && isOnSide(diff, line, Patch.KIND_ADDED)) line++;
+                int removedCount = added - removed;
+                int addedCount = line - added;
+                for (int i = 0; i < Math.max(removedCount, addedCount); i++) {
+                    addRow(i < removedCount ? removed + i : NONE,
+                            i < addedCount ? added + i : NONE, false);
+                }
+            } else {
+                // Common lines are shown on both sides
+                addRow(line, line, kind != Patch.KIND_CONTEXT);
+                line++;
+            }
+        }
+        mLeft = Arrays.copyOf(mLeft, mRowCount);
+        mRight = Arrays.copyOf(mRight, mRowCount);
+        mFullWidth = Arrays.copyOf(mFullWidth, mRowCount);
+
+        int[] hunkLines = diff.getHunkLines();
+        mHunkRows = new int[hunkLines.length];
+        for (int i = 0; i < hunkLines.length; i++) {
+            mHunkRows[i] = mRowOfLine[hunkLines[i]];
+        }
+    }
+
+    // "\ No newline at end of file" stays with the line it is about
+    private static boolean isOnSide(Diff diff, int line, int kind) {
+        int lineKind = diff.getLineKind(line);
+        return lineKind == kind || (lineKind == Patch.KIND_NO_NEWLINE
+                && line > 0 && diff.getLineKind(line - 1) == kind);
+    }
+
+    private void addRow(int left, int right, boolean fullWidth) {
+        if (left != NONE) mRowOfLine[left] = mRowCount;
+        if (right != NONE) mRowOfLine[right] = mRowCount;
+        mLeft[mRowCount] = left;
+        mRight[mRowCount] = right;
+        mFullWidth[mRowCount] = fullWidth;
+        mRowCount++;
+    }
+
+    public int getRowCount() {
+        return mRowCount;
+    }
+
+    /** @return the line of the diff shown on the left, or NONE */
+    public int getLeft(int row) {
+        return mLeft[row];
+    }
+
+    /** @return the line of the diff shown on the right, or NONE */
+    public int getRight(int row) {
+        return mRight[row];
+    }
+
+    /**
+     * @return true if the row holds a single line across both columns,
+     *  e.g. a file or hunk header
+     */
+    public boolean isFullWidth(int row) {
+        return mFullWidth[row];
+    }
+
+    public int getRowOfLine(int line) {
+        return mRowOfLine[line];
+    }
+
+    /** @return the first line of the diff shown on the row */
+    public int getLineOfRow(int row) {
+        return mLeft[row] != NONE ? mLeft[row] : mRight[row];
+    }
+
+    /**
+     * @return the rows that start a hunk, ascending
+     */
+    public int[] getHunkRows() {
+        return mHunkRows;
+    }
+}
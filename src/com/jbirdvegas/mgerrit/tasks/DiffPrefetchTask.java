@@ -0,0 +1,212 @@
+package com.jbirdvegas.mgerrit.tasks;
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Process;
+import android.util.Log;
+import com.jbirdvegas.mgerrit.caches.DiffCache;
+import com.jbirdvegas.mgerrit.caches.ServerCapabilities;
+import com.jbirdvegas.mgerrit.helpers.DiffLoader;
+import com.jbirdvegas.mgerrit.helpers.SyntaxHighlighter;
+import com.jbirdvegas.mgerrit.helpers.Tools;
+import com.jbirdvegas.mgerrit.objects.ChangedFile;
+import com.jbirdvegas.mgerrit.objects.Diff;
+import com.jbirdvegas.mgerrit.objects.Patch;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Loads the diffs of the files a reviewer is most likely to open, those
+ *  with the most lines changed, into the {@link DiffCache} so they are
+ *  shown at once when opened.
+ * <p/>
+ * Only runs on unmetered networks. Files are loaded one at a time at the
+ *  lowest thread priority until the byte budget is used up, with their
+ *  changed words and syntax worked out too. Must be cancelled when the
+ *  change is no longer shown.
+ */
+public class DiffPrefetchTask extends AsyncTask<Void, Void, Void> {
+    private static final String TAG = DiffPrefetchTask.class.getSimpleName();
+    // Fewer than the diff cache keeps, so opening another file does not evict them all
+    public static final int MAX_FILES = 4;
+    // All the files of changes this small are loaded, as many as the cache keeps
+    public static final int SMALL_CHANGE_LINES = 400;
+    // Estimated memory of all the diffs loaded ahead for one change
+    public static final int MAX_BYTES = 512 * 1024;
+    // Rough size of a parsed line, used to estimate a diff before loading it
+    private static final int ESTIMATED_LINE_BYTES = 160;
+    // Headers and context around the changed lines of a file
+    private static final int ESTIMATED_EXTRA_LINES = 12;
+
+    private final Context mContext;
+    private final String mGerritUrl;
+    private final String mChangeId;
+    private final String mRevision;
+    private final List<ChangedFile> mFiles;
+    private final boolean mAllFiles;
+
+    private DiffPrefetchTask(Context context, String gerritUrl, String changeId, String revision,
+                             List<ChangedFile> files) {
+        mContext = context.getApplicationContext();
+        mGerritUrl = gerritUrl;
+        mChangeId = changeId;
+        mRevision = revision;
+        mFiles = new ArrayList<ChangedFile>(files);
+        int total = 0;
+        for (ChangedFile file : files) {
+            total += getChangedLines(file);
+        }
+        mAllFiles = total <= SMALL_CHANGE_LINES;
+    }
+
+    /**
+     * Start loading the diffs of the most changed files of a change
+     *
+     * @param changeId id of the change, url encoded
+     * @param revision the commit SHA of the revision
+     * @return the running task or null if the network is metered
+     */
+    public static DiffPrefetchTask start(Context context, String gerritUrl, String changeId,
+                                         String revision, List<ChangedFile> files) {
+        if (files.isEmpty() || !Tools.isUnmeteredNetwork(context)) return null;
+        DiffPrefetchTask task = new DiffPrefetchTask(context, gerritUrl, changeId, revision, files);
+        // Not on the serial executor, where it would hold up the diff dialog
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return task;
+    }
+
+    // Counts the server did not send are taken as none
+    private static int getChangedLines(ChangedFile file) {
+        return Math.max(file.getInserted(), 0) + Math.max(file.getDeleted(), 0);
+    }
+
+    private static int estimateBytes(ChangedFile file) {
+        return (getChangedLines(file) + ESTIMATED_EXTRA_LINES) * ESTIMATED_LINE_BYTES;
+    }
+
+    /**
+     * @return a rough size of the diffs of all the files, to compare with
+     *  {@link #MAX_BYTES} before loading a whole patch ahead of time
+     */
+    public static int estimateBytes(List<ChangedFile> files) {
+        int total = 0;
+        for (ChangedFile file : files) {
+            total += estimateBytes(file);
+        }
+        return total;
+    }
+
+    // The files to load, most changed first, leaving out those already cached
+    private List<ChangedFile> pickFiles() {
+        Collections.sort(mFiles, new Comparator<ChangedFile>() {
+            @Override
+            public int compare(ChangedFile lhs, ChangedFile rhs) {
+                int l = getChangedLines(lhs), r = getChangedLines(rhs);
+                return l < r ? 1 : (l == r ? 0 : -1);
+            }
+        });
+
+        DiffCache cache = DiffCache.getInstance(mContext);
+        int maxFiles = mAllFiles ? DiffCache.DEFAULT_MAX_ENTRIES : MAX_FILES;
+        List<ChangedFile> picked = new ArrayList<ChangedFile>(maxFiles);
+        int bytes = 0;
+        for (ChangedFile file : mFiles) {
+            if (picked.size() >= maxFiles) break;
+            // Too big for what is left of the budget, smaller files may still fit
+            int estimate = estimateBytes(file);
+            if (bytes + estimate > MAX_BYTES) continue;
+            if (cache.contains(DiffLoader.getFileDiffUrl(mGerritUrl, mChangeId, mRevision,
+                    file.getPath()))) {
+                continue;
+            }
+            picked.add(file);
+            bytes += estimate;
+        }
+        return picked;
+    }
+
+    @Override
+    protected Void doInBackground(Void... voids) {
+        // AsyncTask sets the priority again for the next task on this thread
+        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+        List<ChangedFile> files = pickFiles();
+        if (files.isEmpty()) return null;
+
+        try {
+            if (ServerCapabilities.hasFileDiffs(mContext, mGerritUrl)) {
+                loadFileDiffs(files);
+            } else {
+                loadFromPatch(files);
+            }
+        } catch (IOException e) {
+            // Nothing is shown, the file is downloaded again when opened
+            Log.d(TAG, "Stopped loading diffs ahead", e);
+        }
+        return null;
+    }
+
+    private void loadFileDiffs(List<ChangedFile> files) throws IOException {
+        int bytes = 0;
+        for (ChangedFile file : files) {
+            if (isCancelled() || bytes >= MAX_BYTES) return;
+            try {
+                Diff diff = DiffLoader.load(mContext, mGerritUrl, mChangeId, mRevision, file.getPath());
+                if (diff != null) {
+                    prepare(diff, file);
+                    bytes += diff.estimateBytes();
+                }
+            } catch (JSONException e) {
+                Log.d(TAG, "Failed to parse the diff of " + file.getPath(), e);
+            }
+        }
+    }
+
+    // Older servers only send the whole patch, so it is downloaded once for all the files
+    //  and its lint counts are worked out on the way
+    private void loadFromPatch(List<ChangedFile> files) throws IOException {
+        if (estimateBytes(mFiles) > MAX_BYTES || isCancelled()) return;
+
+        Patch patch;
+        try {
+            patch = DiffLoader.loadPatch(mContext, mGerritUrl, mChangeId, mRevision);
+        } catch (JSONException e) {
+            Log.d(TAG, "Failed to parse the patch", e);
+            return;
+        }
+        for (ChangedFile file : files) {
+            if (isCancelled()) return;
+            Diff diff = DiffLoader.fromPatch(mContext, mGerritUrl, mChangeId, mRevision,
+                    patch, file.getPath());
+            if (diff != null) prepare(diff, file);
+        }
+    }
+
+    // Done here rather than when the diff is first shown
+    private void prepare(Diff diff, ChangedFile file) {
+        if (isCancelled()) return;
+        diff.computeWordDiffs();
+        diff.computeSyntax(SyntaxHighlighter.forPath(file.getPath()));
+    }
+}
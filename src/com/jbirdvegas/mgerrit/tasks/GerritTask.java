@@ -24,6 +24,7 @@ import android.os.AsyncTask;
 import android.util.Log;
 import android.widget.Toast;
 import com.jbirdvegas.mgerrit.R;
+import com.jbirdvegas.mgerrit.helpers.Diagnostics;
 import com.jbirdvegas.mgerrit.helpers.Tools;
 
 import javax.net.ssl.SSLHandshakeException;
@@ -54,6 +55,8 @@ public abstract class GerritTask extends AsyncTask<String, String, String> {
     private long mCurrentFileLength = -1;
     private String mCurrentUrl;
     private FailedGerritCallback mFailedGerritCallback;
+    // Background refreshes do not show any progress or error dialogs
+    private boolean mQuiet = false;
 
     public GerritTask(Context context) {
         mContext = context;
@@ -64,9 +67,26 @@ public abstract class GerritTask extends AsyncTask<String, String, String> {
         mFailedGerritCallback = failedGerritCallback;
     }
 
+    /**
+     * Run without showing the progress dialog or reporting errors to the user,
+     *  used when refreshing content that is already on screen.
+     *  Must be called before the task is executed.
+     */
+    public void setQuiet(boolean quiet) {
+        mQuiet = quiet;
+    }
+
+    /**
+     * @return the exception that stopped the request or null if it succeeded
+     */
+    public Exception getException() {
+        return mGerritException;
+    }
+
     @Override
     protected void onPreExecute() {
         super.onPreExecute();
+        if (mQuiet) return;
         mProgressDialog = new ProgressDialog(mContext);
         mProgressDialog.setTitle(R.string.transfering_json_data);
         mProgressDialog.setMessage(mContext.getString(R.string.establishing_connection));
@@ -78,6 +98,8 @@ public abstract class GerritTask extends AsyncTask<String, String, String> {
         mCurrentUrl = strings[0];
         BufferedReader reader = null;
         StringBuilder stringBuilder = new StringBuilder(0);
+        long startTime = System.currentTimeMillis();
+        long byteProgressCounter = 0;
         try {
             URL url = new URL(strings[0]);
             URLConnection connection = url.openConnection();
@@ -90,7 +112,6 @@ public abstract class GerritTask extends AsyncTask<String, String, String> {
             stringBuilder = new StringBuilder(0);
             String line;
             String lineEnding = System.getProperty("line.separator");
-            long byteProgressCounter = 0;
             handleComputationsOffUIThread(INITIALIZING_DATA_TRANSFER);
             // Grab the current length to use for calculations
             mCurrentFileLength = connection.getContentLength();
@@ -134,13 +155,17 @@ public abstract class GerritTask extends AsyncTask<String, String, String> {
                     // failed to close reader
                 }
         }
+        Diagnostics.recordRequest(mCurrentUrl, byteProgressCounter, startTime,
+                mGerritException == null);
         return stringBuilder.toString();
     }
 
     @Override
     protected void onPostExecute(String s) {
-        mProgressDialog.cancel();
-        mProgressDialog.dismiss();
+        if (mProgressDialog != null) {
+            mProgressDialog.cancel();
+            mProgressDialog.dismiss();
+        }
         // check if we are in production code or debugging mode
         boolean isDebuggable = 0 != (mContext.getApplicationInfo().flags &= ApplicationInfo.FLAG_DEBUGGABLE);
         // if we are debugging then dump the response to logcat
@@ -176,6 +201,7 @@ public abstract class GerritTask extends AsyncTask<String, String, String> {
                     return;
                 case (int) ERROR_DURING_CONNECTION:
                     Log.d(TAG, mContext.getString(R.string.communications_error));
+                    if (mQuiet) return;
                     Toast.makeText(mContext,
                             String.format("%s with webaddress: %s", mContext.getString(
                                     R.string.communications_error),
@@ -188,6 +214,7 @@ public abstract class GerritTask extends AsyncTask<String, String, String> {
                     String errorMessage = mContext.getString(R.string.handshake_fail_message);
                     // Log the exception
                     Log.d(TAG, errorMessage);
+                    if (mQuiet) return;
                     Toast.makeText(mContext, errorMessage, Toast.LENGTH_LONG).show();
                     Tools.showErrorDialog(mContext, mGerritException);
                     // close up the dialogs and end GerritTask
@@ -0,0 +1,111 @@
+package com.jbirdvegas.mgerrit.helpers;
+
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class LineDiffTest extends TestCase {
+
+    // Length of the longest common subsequence, the number of lines a minimal diff keeps
+    private static int lcs(String[] a, String[] b) {
+        int[][] lengths = new int[a.length + 1][b.length + 1];
+        for (int i = a.length - 1; i >= 0; i--) {
+            for (int j = b.length - 1; j >= 0; j--) {
+                lengths[i][j] = a[i].equals(b[j]) ? lengths[i + 1][j + 1] + 1
+                        : Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+            }
+        }
+        return lengths[0][0];
+    }
+
+    // The lines of one side of the diff, without their prefixes
+    private static List<String> side(List<String> diff, char skipped) {
+        List<String> lines = new ArrayList<String>();
+        for (String line : diff) {
+            if (line.charAt(0) != skipped) lines.add(line.substring(1));
+        }
+        return lines;
+    }
+
+    private static int common(List<String> diff) {
+        int count = 0;
+        for (String line : diff) {
+            if (line.charAt(0) == ' ') count++;
+        }
+        return count;
+    }
+
+    private static String[] randomLines(Random random, int maxCount) {
+        String[] lines = new String[random.nextInt(maxCount + 1)];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = "line " + random.nextInt(6);
+        }
+        return lines;
+    }
+
+    public void testIdentical() {
+        String[] lines = { "a", "b", "c" };
+        assertEquals(Arrays.asList(" a", " b", " c"), LineDiff.compare(lines, lines));
+    }
+
+    public void testChange() {
+        String[] a = { "a", "b", "c", "d" };
+        String[] b = { "a", "x", "c", "d", "e" };
+        assertEquals(Arrays.asList(" a", "-b", "+x", " c", " d", "+e"), LineDiff.compare(a, b));
+    }
+
+    public void testEmpty() {
+        String[] none = {};
+        String[] lines = { "a", "b" };
+        assertEquals(Arrays.asList("+a", "+b"), LineDiff.compare(none, lines));
+        assertEquals(Arrays.asList("-a", "-b"), LineDiff.compare(lines, none));
+        assertTrue(LineDiff.compare(none, none).isEmpty());
+    }
+
+    public void testMatchesLongestCommonSubsequence() {
+        Random random = new Random(42);
+        for (int run = 0; run < 500; run++) {
+            String[] a = randomLines(random, 30);
+            String[] b = randomLines(random, 30);
+            List<String> diff = LineDiff.compare(a, b);
+
+            assertNotNull(diff);
+            assertEquals(Arrays.asList(a), side(diff, '+'));
+            assertEquals(Arrays.asList(b), side(diff, '-'));
+            assertEquals(lcs(a, b), common(diff));
+        }
+    }
+
+    public void testTooManyEdits() {
+        int count = LineDiff.MAX_EDITS / 2 + 1;
+        String[] a = new String[count];
+        String[] b = new String[count];
+        for (int i = 0; i < count; i++) {
+            a[i] = "old " + i;
+            b[i] = "new " + i;
+        }
+        assertNull(LineDiff.compare(a, b));
+    }
+}
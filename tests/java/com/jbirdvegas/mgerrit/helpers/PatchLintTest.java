@@ -0,0 +1,89 @@
+package com.jbirdvegas.mgerrit.helpers;
+
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+import com.jbirdvegas.mgerrit.objects.Patch;
+import junit.framework.TestCase;
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+public class PatchLintTest extends TestCase {
+    private static final String PATCH = "From 1234 Mon Sep 17 00:00:00 2001\n"
+            + "diff --git a/old/A.java b/new/A.java\n"
+            + "--- a/old/A.java\n"
+            + "+++ b/new/A.java\n"
+            + "@@ -1,3 +1,5 @@\n"
+            + " \tkept tab\n"
+            + "-removed trailing \n"
+            + "+\tadded tab\n"
+            + "+added trailing \n"
+            + "+added crlf\r\n"
+            + "+clean\n"
+            + " context\n"
+            + "diff --git a/B.java b/B.java\n"
+            + "--- a/B.java\n"
+            + "+++ b/B.java\n"
+            + "@@ -1 +1 @@\n"
+            + "-x\n"
+            + "+" + repeat('y', PatchLint.MAX_LINE_LENGTH + 1) + "\n"
+            + "-- \n"
+            + "+signature, not part of the patch \n";
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) builder.append(c);
+        return builder.toString();
+    }
+
+    private static void assertCounts(Map<String, PatchLint.Counts> files) {
+        // A renamed file can be found by either path
+        assertEquals(1, files.get("new/A.java").getTabs());
+        PatchLint.Counts a = files.get("old/A.java");
+        assertEquals(1, a.getTabs());
+        assertEquals(1, a.getTrailingWhitespace());
+        assertEquals(1, a.getCrlf());
+        assertEquals(0, a.getLongLines());
+
+        PatchLint.Counts b = files.get("B.java");
+        assertEquals(1, b.getLongLines());
+        assertEquals(0, b.getTrailingWhitespace());
+        assertFalse(b.isClean());
+    }
+
+    public void testAnalyse() throws IOException {
+        assertCounts(PatchLint.analyse(new StringReader(PATCH)));
+    }
+
+    public void testLintingReader() throws IOException {
+        PatchLint.LintingReader lint = new PatchLint.LintingReader(new StringReader(PATCH));
+        Patch patch = Patch.parse(new BufferedReader(lint));
+        assertEquals(2, patch.getFileCount());
+        assertCounts(lint.getCounts());
+    }
+
+    public void testJSON() throws IOException, JSONException {
+        Map<String, PatchLint.Counts> files = PatchLint.analyse(new StringReader(PATCH));
+        assertCounts(PatchLint.fromJSON(PatchLint.toJSON(files)));
+    }
+}
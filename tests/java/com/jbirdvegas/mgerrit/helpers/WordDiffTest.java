@@ -0,0 +1,51 @@
+package com.jbirdvegas.mgerrit.helpers;
+
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class WordDiffTest extends TestCase {
+
+    public void testChangedWord() {
+        int[][] ranges = WordDiff.compare("-int foo = bar;", "+int foo = baz;", 1);
+        assertTrue(Arrays.equals(new int[] { 11, 14 }, ranges[0]));
+        assertTrue(Arrays.equals(new int[] { 11, 14 }, ranges[1]));
+    }
+
+    public void testInsertedWords() {
+        int[][] ranges = WordDiff.compare("-call(a)", "+call(a, b)", 1);
+        assertEquals(0, ranges[0].length);
+        assertTrue(Arrays.equals(new int[] { 7, 10 }, ranges[1]));
+    }
+
+    public void testIdentical() {
+        int[][] ranges = WordDiff.compare("-same line", "+same line", 1);
+        assertEquals(0, ranges[0].length);
+        assertEquals(0, ranges[1].length);
+    }
+
+    public void testTooLong() {
+        StringBuilder line = new StringBuilder("-");
+        for (int i = 0; i <= WordDiff.MAX_TOKENS; i++) line.append("a ");
+        assertNull(WordDiff.compare(line.toString(), "+a", 1));
+    }
+}
@@ -0,0 +1,228 @@
+package com.jbirdvegas.mgerrit.objects;
+
+
+/*
+ * Copyright (C) 2013 Android Open Kang Project (AOKP)
+ *  Author: Jon Stanford (JBirdVegas), 2013
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+import junit.framework.TestCase;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+public class PatchTest extends TestCase {
+
+    private static Patch parse(String... lines) throws IOException {
+        StringBuilder patch = new StringBuilder();
+        for (String line : lines) patch.append(line).append('\n');
+        return Patch.parse(new BufferedReader(new StringReader(patch.toString())));
+    }
+
+    // The first line of the given kind at or after a line
+    private static int find(Patch patch, int kind, int from) {
+        for (int line = from; line < patch.getLineCount(); line++) {
+            if (patch.getKind(line) == kind) return line;
+        }
+        fail("No line of kind " + kind);
+        return -1;
+    }
+
+    public void testHunkNumbering() throws IOException {
+        Patch patch = parse(
+                "diff --git a/Foo.java b/Foo.java",
+                "index 1234567..89abcde 100644",
+                "--- a/Foo.java",
+                "+++ b/Foo.java",
+                "@@ -10,3 +10,4 @@ class Foo {",
+                " one",
+                "-two",
+                "+two!",
+                "+three",
+                " four",
+                "@@ -40,2 +41,1 @@",
+                "-five",
+                " six");
+
+        assertEquals(1, patch.getFileCount());
+        assertEquals(2, patch.getHunkEnd(0) - patch.getFirstHunk(0));
+        int hunk = patch.getHunkLine(patch.getFirstHunk(0));
+        assertEquals(Patch.KIND_HUNK, patch.getKind(hunk));
+
+        int context = hunk + 1;
+        assertEquals(Patch.KIND_CONTEXT, patch.getKind(context));
+        assertEquals(10, patch.getOldLineNumber(context));
+        assertEquals(10, patch.getNewLineNumber(context));
+        assertEquals(Patch.KIND_REMOVED, patch.getKind(context + 1));
+        assertEquals(11, patch.getOldLineNumber(context + 1));
+        assertEquals(0, patch.getNewLineNumber(context + 1));
+        assertEquals(Patch.KIND_ADDED, patch.getKind(context + 2));
+        assertEquals(0, patch.getOldLineNumber(context + 2));
+        assertEquals(11, patch.getNewLineNumber(context + 2));
+        assertEquals(12, patch.getNewLineNumber(context + 3));
+        assertEquals(12, patch.getOldLineNumber(context + 4));
+        assertEquals(13, patch.getNewLineNumber(context + 4));
+
+        int second = patch.getHunkLine(patch.getFirstHunk(0) + 1);
+        assertEquals(40, patch.getOldLineNumber(second + 1));
+        assertEquals(41, patch.getOldLineNumber(second + 2));
+        assertEquals(41, patch.getNewLineNumber(second + 2));
+        assertEquals(patch.getLineCount(), patch.getFileEnd(0));
+    }
+
+    public void testHunkHeader() {
+        int[] range = new int[4];
+        assertTrue(Patch.parseHunkHeader("@@ -1,5 +2 @@ void foo()", range));
+        assertTrue(Arrays.equals(new int[] { 1, 5, 2, 1 }, range));
+        assertFalse(Patch.parseHunkHeader("@@ -a,5 +2,1 @@", range));
+        assertFalse(Patch.parseHunkHeader("@@ -1,5", range));
+    }
+
+    public void testRename() throws IOException {
+        Patch patch = parse(
+                "diff --git a/old/Name.java b/new/Name.java",
+                "similarity index 90%",
+                "rename from old/Name.java",
+                "rename to new/Name.java",
+                "--- a/old/Name.java",
+                "+++ b/new/Name.java",
+                "@@ -1 +1 @@",
+                "-package old;",
+                "+package new;",
+                "diff --git a/Other.java b/Other.java",
+                "--- a/Other.java",
+                "+++ b/Other.java",
+                "@@ -1 +1 @@",
+                "-a",
+                "+b");
+
+        assertEquals(2, patch.getFileCount());
+        assertEquals("old/Name.java", patch.getPath(0));
+        assertEquals(0, patch.indexOf("old/Name.java"));
+        assertEquals(0, patch.indexOf("new/Name.java"));
+        assertEquals(1, patch.indexOf("Other.java"));
+        assertEquals(-1, patch.indexOf("Missing.java"));
+        assertEquals(patch.getFileEnd(0), patch.getFileStart(1));
+        assertEquals(Patch.KIND_META, patch.getKind(patch.getFileStart(0) + 2));
+    }
+
+    public void testNoNewlineMarker() throws IOException {
+        Patch patch = parse(
+                "diff --git a/f b/f",
+                "--- a/f",
+                "+++ b/f",
+                "@@ -1,2 +1,2 @@",
+                " same",
+                "-old",
+                "\\ No newline at end of file",
+                "+new",
+                "\\ No newline at end of file",
+                "-- ",
+                "1.8.3");
+
+        int inside = find(patch, Patch.KIND_NO_NEWLINE, 0);
+        assertEquals(Patch.KIND_REMOVED, patch.getKind(inside - 1));
+        int after = find(patch, Patch.KIND_NO_NEWLINE, inside + 1);
+        assertEquals(Patch.KIND_ADDED, patch.getKind(after - 1));
+        assertEquals("\\ No newline at end of file", patch.getLine(after));
+        // The signature is not part of the hunk
+        assertEquals(Patch.KIND_META, patch.getKind(after + 1));
+    }
+
+    public void testTrailingBlankLines() throws IOException {
+        Patch patch = parse(
+                "diff --git a/f b/f",
+                "--- a/f",
+                "+++ b/f",
+                "@@ -1,2 +1,2 @@",
+                "-a",
+                "+b",
+                " ",
+                "",
+                "");
+
+        int last = patch.getLineCount() - 1;
+        assertEquals(Patch.KIND_CONTEXT, patch.getKind(last));
+        assertEquals(" ", patch.getLine(last));
+        assertEquals(2, patch.getOldLineNumber(last));
+    }
+
+    public void testRawPatchEscapes() throws IOException {
+        Patch patch = parse(
+                "diff --git a/f b/f",
+                "--- a/f",
+                "+++ b/f",
+                "@@ -1 +1 @@",
+                "-a\\u0041",
+                "+a\\tb");
+
+        int removed = find(patch, Patch.KIND_REMOVED, 0);
+        assertEquals("-aA", patch.getLine(removed));
+        assertEquals("+a\\tb", patch.getLine(removed + 1));
+        assertEquals(1, patch.getTabCount());
+        assertEquals(patch.getLineStart(removed + 1) + 3, patch.getTab(0));
+    }
+
+    public void testFromDiffInfoSkip() throws JSONException {
+        JSONObject diff = new JSONObject("{"
+                + "\"meta_a\": {\"name\": \"f\"}, \"meta_b\": {\"name\": \"f\"},"
+                + "\"content\": ["
+                + "{\"ab\": [\"1\", \"2\", \"3\", \"4\"]},"
+                + "{\"skip\": 100},"
+                + "{\"ab\": [\"105\", \"106\", \"107\"]},"
+                + "{\"a\": [\"old 108\"], \"b\": [\"new 108\", \"new 109\"]},"
+                + "{\"ab\": [\"109\"]}"
+                + "]}");
+        Patch patch = Patch.fromDiffInfo(diff, "f", 3);
+
+        assertEquals(0, patch.indexOf("f"));
+        assertEquals(1, patch.getHunkEnd(0) - patch.getFirstHunk(0));
+        int hunk = patch.getHunkLine(0);
+        // The lines before the skipped ones are too far from the change
+        assertEquals("@@ -105,5 +105,6 @@", patch.getLine(hunk));
+        assertEquals(105, patch.getOldLineNumber(hunk + 1));
+        int removed = find(patch, Patch.KIND_REMOVED, hunk);
+        assertEquals(108, patch.getOldLineNumber(removed));
+        int added = find(patch, Patch.KIND_ADDED, hunk);
+        assertEquals(108, patch.getNewLineNumber(added));
+        assertEquals(109, patch.getOldLineNumber(patch.getLineCount() - 1));
+        assertEquals(110, patch.getNewLineNumber(patch.getLineCount() - 1));
+    }
+
+    public void testFromDiffInfoKeepsBackslashes() throws JSONException {
+        JSONObject diff = new JSONObject("{\"content\": ["
+                + "{\"a\": [\"path\\\\u0041\"], \"b\": [\"x\\ty\"]}]}");
+        Patch patch = Patch.fromDiffInfo(diff, "f", 3);
+
+        int removed = find(patch, Patch.KIND_REMOVED, 0);
+        assertEquals("-path\\u0041", patch.getLine(removed));
+        assertEquals("+x\\ty", patch.getLine(removed + 1));
+        assertEquals(1, patch.getTabCount());
+    }
+
+    public void testFromLinesAddedFile() {
+        Patch patch = Patch.fromLines("new.txt", false, true, Arrays.asList("+a", "+b"), 3);
+
+        assertEquals("--- /dev/null", patch.getLine(1));
+        int hunk = patch.getHunkLine(0);
+        assertEquals("@@ -0,0 +1,2 @@", patch.getLine(hunk));
+        assertEquals(2, patch.getNewLineNumber(hunk + 2));
+    }
+}